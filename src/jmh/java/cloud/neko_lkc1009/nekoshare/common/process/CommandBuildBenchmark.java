@@ -0,0 +1,48 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ffmpeg / waifu2x 命令构建基准测试
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class CommandBuildBenchmark {
+    private final ImagePromote imagePromote = new ImagePromote();
+    private final VideoCompress videoCompress = new VideoCompress();
+    private final VideoPromote videoPromote = new VideoPromote();
+
+    private final ImagePromote.PromoteConfig imageConfig = new ImagePromote.PromoteConfig();
+    private final VideoCompress.CompressConfig compressConfig = new VideoCompress.CompressConfig();
+    private final VideoPromote.PromoteConfig videoConfig = new VideoPromote.PromoteConfig();
+
+    @Benchmark
+    public List<String> imagePromoteCommand() {
+        return imagePromote.buildCommand("input/image.png", "output/image.png", imageConfig);
+    }
+
+    @Benchmark
+    public List<String> imagePromoteBatchCommand() {
+        return imagePromote.buildBatchCommand("input", "output", imageConfig);
+    }
+
+    @Benchmark
+    public List<String> videoCompressCommand() {
+        return videoCompress.buildCompressCommand("input.mp4", "output.mp4", compressConfig);
+    }
+
+    @Benchmark
+    public int videoPromoteCommands() {
+        return videoPromote.buildExtractCommand("input.mp4", "frames", videoConfig).size()
+                + videoPromote.buildPromoteFramesCommand("frames", "frames_up", videoConfig).size()
+                + videoPromote.buildAssembleCommand("input.mp4", "frames_up", "output.mp4", "30", videoConfig).size();
+    }
+
+}
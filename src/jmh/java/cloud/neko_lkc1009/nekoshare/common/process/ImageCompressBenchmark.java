@@ -0,0 +1,93 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ImageCompress 基准测试
+ * 分别测量解码、缩放、编码以及端到端压缩
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class ImageCompressBenchmark {
+    private static final int MAX_WIDTH = 1920;
+    private static final int MAX_HEIGHT = 1080;
+
+    @Param({"1280x720", "1920x1080", "3840x2160", "6000x4000"})
+    public String resolution;
+
+    @Param({"jpg", "png"})
+    public String format;
+
+    private byte[] encoded;
+    private BufferedImage decoded;
+    private BufferedImage scaled;
+    private int[] targetSize;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        int[] size = ImageFixtures.parseResolution(resolution);
+        decoded = ImageFixtures.create(size[0], size[1]);
+        encoded = ImageFixtures.encode(decoded, format);
+        targetSize = ImageFixtures.fit(size[0], size[1], MAX_WIDTH, MAX_HEIGHT);
+        scaled = ImageResampler.resample(decoded, targetSize[0], targetSize[1]);
+    }
+
+    /**
+     * 完整解码
+     */
+    @Benchmark
+    public BufferedImage decodeFull() throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(encoded));
+    }
+
+    /**
+     * 头部驱动的子采样解码 + 缩放
+     */
+    @Benchmark
+    public BufferedImage decodeSubsampled() throws IOException {
+        try (ImageInputStream inputStream = ImageIO.createImageInputStream(new ByteArrayInputStream(encoded))) {
+            return ImageCompress.readScaled(inputStream,
+                    (width, height) -> ImageFixtures.fit(width, height, MAX_WIDTH, MAX_HEIGHT),
+                    ImageResampler.Strategy.AUTO);
+        }
+    }
+
+    /**
+     * 从完整解码结果缩放到目标尺寸
+     */
+    @Benchmark
+    public BufferedImage scale() {
+        return ImageResampler.resample(decoded, targetSize[0], targetSize[1]);
+    }
+
+    /**
+     * 编码目标尺寸图片
+     */
+    @Benchmark
+    public int encode() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageCompress.compressAndWrite(scaled, outputStream, format, 0.75f);
+        return outputStream.size();
+    }
+
+    /**
+     * 端到端压缩
+     */
+    @Benchmark
+    public byte[] compress() {
+        return ImageCompress.compress(encoded, format);
+    }
+
+}
@@ -0,0 +1,71 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * 基准测试用的合成图片
+ * 渐变背景 + 随机色块 + 噪点，固定随机种子保证每次生成结果一致
+ */
+final class ImageFixtures {
+    private static final long SEED = 20240101L;
+
+    private ImageFixtures() {
+    }
+
+    /**
+     * 解析分辨率字符串，如 1920x1080
+     */
+    static int[] parseResolution(String resolution) {
+        String[] parts = resolution.toLowerCase().split("x");
+        return new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+    }
+
+    /**
+     * 生成合成图片
+     */
+    static BufferedImage create(int width, int height) {
+        Random random = new Random(SEED);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, Color.BLUE, width, height, Color.ORANGE));
+        g.fillRect(0, 0, width, height);
+
+        for (int i = 0; i < 200; i++) {
+            g.setColor(new Color(random.nextInt(0xFFFFFF)));
+            g.fillOval(random.nextInt(width), random.nextInt(height), width / 10, height / 10);
+        }
+        g.dispose();
+
+        // 少量噪点，让 JPEG/PNG 编码接近真实照片
+        for (int i = 0; i < width * height / 50; i++) {
+            image.setRGB(random.nextInt(width), random.nextInt(height), random.nextInt(0xFFFFFF));
+        }
+        return image;
+    }
+
+    /**
+     * 编码为指定格式
+     */
+    static byte[] encode(BufferedImage image, String format) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageIO.write(image, format, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * 计算等比缩放到最大尺寸内的目标尺寸
+     */
+    static int[] fit(int width, int height, int maxWidth, int maxHeight) {
+        if (width <= maxWidth && height <= maxHeight) {
+            return new int[]{width, height};
+        }
+        double ratio = Math.min((double) maxWidth / width, (double) maxHeight / height);
+        return new int[]{(int) (width * ratio), (int) (height * ratio)};
+    }
+
+}
@@ -0,0 +1,39 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ImageResampler 各策略基准测试
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class ImageResamplerBenchmark {
+    @Param({"3840x2160", "6000x4000"})
+    public String resolution;
+
+    @Param({"DIRECT", "PROGRESSIVE", "FAST_PREPASS"})
+    public ImageResampler.Strategy strategy;
+
+    private BufferedImage source;
+    private int[] targetSize;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] size = ImageFixtures.parseResolution(resolution);
+        source = ImageFixtures.create(size[0], size[1]);
+        targetSize = ImageFixtures.fit(size[0], size[1], 1920, 1080);
+    }
+
+    @Benchmark
+    public BufferedImage resample() {
+        return ImageResampler.resample(source, targetSize[0], targetSize[1], strategy);
+    }
+
+}
@@ -0,0 +1,82 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 未超过大小限制时的文件直通基准测试
+ * 对比旧的 8KB 堆内循环复制、Files.copy、transferTo 和硬链接
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class PassthroughBenchmark {
+
+    @Param({"65536", "1048576", "4194304"})
+    public int size;
+
+    private Path directory;
+    private Path source;
+    private Path target;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("nekoshare_passthrough");
+        source = directory.resolve("source.bin");
+        target = directory.resolve("target.bin");
+        byte[] bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        Files.write(source, bytes);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(target);
+        Files.deleteIfExists(source);
+        Files.deleteIfExists(directory);
+    }
+
+    /**
+     * 原 copyFile 实现：8KB 字节数组循环
+     */
+    @Benchmark
+    public long legacyLoop() throws IOException {
+        try (InputStream in = new FileInputStream(source.toFile());
+             OutputStream out = new FileOutputStream(target.toFile())) {
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = in.read(buffer)) > 0) {
+                out.write(buffer, 0, length);
+            }
+        }
+        return target.toFile().length();
+    }
+
+    @Benchmark
+    public long filesCopy() throws IOException {
+        Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        return target.toFile().length();
+    }
+
+    @Benchmark
+    public long transferTo() throws IOException {
+        FilePassthrough.transfer(source, target, FilePassthrough.Mode.COPY);
+        return target.toFile().length();
+    }
+
+    @Benchmark
+    public long hardLink() throws IOException {
+        FilePassthrough.transfer(source, target, FilePassthrough.Mode.LINK);
+        return target.toFile().length();
+    }
+
+}
@@ -0,0 +1,58 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 外部进程输出读取基准测试
+ * 启动一个输出指定行数的子 JVM，测量 ProcessRunner 的启动与读取开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class ProcessDrainBenchmark {
+    @Param({"100", "100000"})
+    public int lines;
+
+    private final ProcessRunner processRunner = ProcessRunner.shared();
+    private ProcessRunner.ProcessSpec spec;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        spec = new ProcessRunner.ProcessSpec(List.of(java, "-cp", System.getProperty("java.class.path"),
+                LineEmitter.class.getName(), String.valueOf(lines)), "emitter");
+    }
+
+    @Benchmark
+    public boolean runProcess() throws IOException {
+        return processRunner.run(spec).isSuccess();
+    }
+
+    /**
+     * 按行输出的子进程入口
+     */
+    public static class LineEmitter {
+        public static void main(String[] args) {
+            int count = Integer.parseInt(args[0]);
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < count; i++) {
+                builder.append("frame=").append(i).append(" fps=30.0 q=28.0 size=1024kB time=00:00:01.00 speed=1.0x\n");
+                if (builder.length() > 65536) {
+                    System.out.print(builder);
+                    builder.setLength(0);
+                }
+            }
+            System.out.print(builder);
+            System.out.flush();
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Java 兜底放大基准测试
+ * 分块并行 Lanczos 与单线程 Graphics2D 双三次缩放对比
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class UpscaleBenchmark {
+
+    @Param({"640x360", "1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({"2", "4"})
+    public int scale;
+
+    @Param({"0", "128"})
+    public int tileSize;
+
+    private BufferedImage source;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] size = ImageFixtures.parseResolution(resolution);
+        source = ImageFixtures.create(size[0], size[1]);
+    }
+
+    @Benchmark
+    public BufferedImage lanczosParallel() {
+        return ImageUpscaler.upscale(source, scale, tileSize);
+    }
+
+    @Benchmark
+    public BufferedImage graphics2dBicubic() {
+        BufferedImage output = new BufferedImage(source.getWidth() * scale, source.getHeight() * scale,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = output.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        g.drawImage(source, 0, 0, output.getWidth(), output.getHeight(), null);
+        g.dispose();
+        return output;
+    }
+
+}
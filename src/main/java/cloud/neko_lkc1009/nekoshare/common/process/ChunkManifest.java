@@ -0,0 +1,162 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * 分块处理进度清单
+ * 记录每个分块已完成的阶段（抽帧、超分、编码），每次变更后立即写入工作目录，
+ * 任务中断（进程崩溃、JVM 退出）后重新执行时从已完成的分块继续
+ */
+@Slf4j
+class ChunkManifest {
+    /**
+     * 清单文件名
+     */
+    static final String FILE_NAME = "manifest.properties";
+
+    /**
+     * 分块阶段，按完成顺序排列
+     */
+    enum State {
+        PENDING,
+        EXTRACTED,   // 输入帧已全部写入
+        UPSCALED,    // 超分完成，输出帧已全部写入
+        ENCODED      // 已编码为分段文件，帧已删除
+    }
+
+    private final Path file;
+    private final int chunkFrames;
+    private final Map<Integer, State> states = new HashMap<>();
+    private final Map<Integer, Integer> frames = new HashMap<>();
+
+    private ChunkManifest(Path file, int chunkFrames) {
+        this.file = file;
+        this.chunkFrames = chunkFrames;
+    }
+
+    /**
+     * 读取工作目录中的清单，不存在或分块大小不一致时返回空清单
+     *
+     * @param workDir     工作目录
+     * @param chunkFrames 每个分块的帧数
+     */
+    static ChunkManifest load(Path workDir, int chunkFrames) throws IOException {
+        ChunkManifest manifest = new ChunkManifest(workDir.resolve(FILE_NAME), chunkFrames);
+        if (!Files.exists(manifest.file)) {
+            return manifest;
+        }
+        Properties properties = new Properties();
+        try (InputStream inputStream = Files.newInputStream(manifest.file)) {
+            properties.load(inputStream);
+        }
+        if (!String.valueOf(chunkFrames).equals(properties.getProperty("chunkFrames"))) {
+            log.info("分块大小已变化，忽略已有进度: {}", manifest.file);
+            return manifest;
+        }
+        for (String name : properties.stringPropertyNames()) {
+            if (!name.startsWith("chunk.")) {
+                continue;
+            }
+            try {
+                int index = Integer.parseInt(name.substring("chunk.".length()));
+                String[] value = properties.getProperty(name).split(",");
+                manifest.states.put(index, State.valueOf(value[0]));
+                manifest.frames.put(index, Integer.parseInt(value[1]));
+            } catch (RuntimeException e) {
+                log.warn("忽略无效的清单记录: {}={}", name, properties.getProperty(name));
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * 计算任务标识：源文件路径、大小、修改时间和影响输出的配置相同时标识相同
+     */
+    static String jobKey(Path source, Object config) throws IOException {
+        String material = source.toAbsolutePath() + "|" + Files.size(source) + "|" + Files.getLastModifiedTime(source).toMillis()
+                + "|" + DerivativeCache.canonicalize(config);
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(material.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    int getChunkFrames() {
+        return chunkFrames;
+    }
+
+    synchronized State getState(int index) {
+        return states.getOrDefault(index, State.PENDING);
+    }
+
+    /**
+     * 分块的帧数，未记录时返回 0
+     */
+    synchronized int getFrames(int index) {
+        return frames.getOrDefault(index, 0);
+    }
+
+    /**
+     * 有记录的分块序号
+     */
+    synchronized List<Integer> getChunks() {
+        return states.keySet().stream().sorted().toList();
+    }
+
+    /**
+     * 已编码的分块数
+     */
+    synchronized int getEncodedChunks() {
+        return (int) states.values().stream().filter(state -> state == State.ENCODED).count();
+    }
+
+    /**
+     * 记录分块完成的阶段并立即保存
+     */
+    synchronized void mark(int index, State state, int frameCount) throws IOException {
+        states.put(index, state);
+        frames.put(index, frameCount);
+        save();
+    }
+
+    /**
+     * 回退分块状态，用于磁盘上的文件与记录不一致时重新处理
+     */
+    synchronized void reset(int index) throws IOException {
+        states.remove(index);
+        frames.remove(index);
+        save();
+    }
+
+    /**
+     * 先写入临时文件再原子替换，中途退出不会留下损坏的清单
+     */
+    private void save() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("chunkFrames", String.valueOf(chunkFrames));
+        states.forEach((index, state) -> properties.setProperty("chunk." + index, state + "," + frames.get(index)));
+        Path temp = file.resolveSibling(FILE_NAME + ".tmp");
+        try (OutputStream outputStream = Files.newOutputStream(temp)) {
+            properties.store(outputStream, "NekoShare chunk manifest");
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+}
@@ -0,0 +1,501 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * 处理结果（衍生文件）缓存
+ * 以源文件内容哈希 + 操作名 + 规范化配置作为键，将压缩/超分结果保存在磁盘上。
+ * 写入时先生成临时文件再原子重命名发布，按总大小进行 LRU 淘汰。
+ */
+@Slf4j
+@Component
+public class DerivativeCache {
+    /**
+     * 临时文件目录名
+     */
+    private static final String TEMP_DIR = ".tmp";
+
+    @Value("${derivative.cache.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${derivative.cache.path:${java.io.tmpdir}/nekoshare_derivatives}")
+    private String cachePath;
+
+    @Value("${derivative.cache.max-size:10737418240}")
+    private long maxSizeBytes;
+
+    /**
+     * LRU 索引：键 -> 缓存文件大小，按访问顺序排列
+     */
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * 源文件内容哈希缓存：路径|大小|修改时间 -> 哈希
+     */
+    private final Map<String, String> contentHashes = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > 1024;
+                }
+            });
+
+    private Path cacheDir;
+    private long totalBytes;
+    private boolean loaded;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * 正在生成的条目，按缓存键合并并发请求
+     */
+    private final SingleFlight<String, Boolean> inFlight = new SingleFlight<>();
+
+    /**
+     * 标记不影响输出结果的配置字段（日志、超时、调度、执行方式等），计算缓存键时忽略
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.FIELD)
+    public @interface IgnoredInKey {
+    }
+
+    /**
+     * 生成衍生文件
+     */
+    @FunctionalInterface
+    public interface Producer {
+        /**
+         * @param output 输出文件路径（临时文件）
+         * @return 是否成功
+         */
+        boolean produce(Path output) throws IOException;
+    }
+
+    /**
+     * 缓存统计信息
+     */
+    @Data
+    public static class CacheStats {
+        private long hits;
+        private long misses;
+        private long evictions;
+        private long coalesced;   // 合并到正在进行的生成、避免重复处理的请求数
+        private double hitRate;
+        private int entries;
+        private long totalBytes;
+        private long maxSizeBytes;
+    }
+
+    public DerivativeCache() {
+    }
+
+    /**
+     * @param cacheDir     缓存目录
+     * @param maxSizeBytes 缓存总大小上限 (字节)
+     */
+    public DerivativeCache(Path cacheDir, long maxSizeBytes) {
+        this.cachePath = cacheDir.toString();
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * 获取衍生文件，未命中时调用 producer 生成并写入缓存
+     * 多个请求同时需要同一衍生文件时只生成一次
+     *
+     * @param source    源文件
+     * @param operation 操作名，如 waifu2x、video-compress
+     * @param config    处理配置，参与缓存键计算
+     * @param target    目标文件
+     * @param producer  未命中时的生成逻辑
+     * @return 是否成功
+     */
+    public boolean getOrCreate(Path source, String operation, Object config, Path target, Producer producer) throws IOException {
+        if (!enabled) {
+            return producer.produce(target);
+        }
+        ensureLoaded();
+
+        String extension = extensionOf(target);
+        String key = key(source, operation, config, extension);
+        Path cached = entryPath(key, extension);
+
+        Path checkout = checkout(key, cached);
+        if (checkout != null) {
+            hits.increment();
+            log.info("衍生文件缓存命中: {} -> {}", source, target);
+            copyToTarget(checkout, target);
+            return true;
+        }
+        // 相同键的并发请求只生成一次，其余请求等待后直接复制结果
+        if (!inFlight.execute(key, () -> produce(key, cached, extension, producer))) {
+            return false;
+        }
+        checkout = checkout(key, cached);
+        if (checkout == null) {
+            // 生成后到复制前已被淘汰（并发写入大量条目时），不经缓存直接生成
+            log.warn("衍生文件在复制前被淘汰，重新生成: {}", source);
+            return producer.produce(target);
+        }
+        copyToTarget(checkout, target);
+        return true;
+    }
+
+    /**
+     * 只查找缓存，命中时复制到目标位置，不生成
+     * 用于自行批量生成的调用方（如合批超分），未命中的文件生成后通过 {@link #put} 写入
+     *
+     * @return 是否命中
+     */
+    public boolean copyIfCached(Path source, String operation, Object config, Path target) throws IOException {
+        if (!enabled) {
+            return false;
+        }
+        ensureLoaded();
+        String extension = extensionOf(target);
+        String key = key(source, operation, config, extension);
+        Path checkout = checkout(key, entryPath(key, extension));
+        if (checkout == null) {
+            misses.increment();
+            return false;
+        }
+        hits.increment();
+        log.info("衍生文件缓存命中: {} -> {}", source, target);
+        copyToTarget(checkout, target);
+        return true;
+    }
+
+    /**
+     * 将调用方已生成的衍生文件写入缓存，文件本身保留
+     *
+     * @param file 衍生文件，扩展名参与缓存键计算
+     */
+    public void put(Path source, String operation, Object config, Path file) throws IOException {
+        if (!enabled) {
+            return;
+        }
+        ensureLoaded();
+        String extension = extensionOf(file);
+        String key = key(source, operation, config, extension);
+        Path cached = entryPath(key, extension);
+        inFlight.execute(key, () -> lookup(key, cached) || publish(key, cached, extension, temp -> {
+            FilePassthrough.copy(file, temp);
+            return true;
+        }));
+    }
+
+    /**
+     * 生成并发布缓存条目
+     */
+    private boolean produce(String key, Path cached, String extension, Producer producer) throws IOException {
+        // 等待期间可能已由其他请求生成
+        if (lookup(key, cached)) {
+            hits.increment();
+            return true;
+        }
+        misses.increment();
+        return publish(key, cached, extension, producer);
+    }
+
+    /**
+     * 生成到临时文件并发布为缓存条目
+     */
+    private boolean publish(String key, Path cached, String extension, Producer producer) throws IOException {
+        // 先写入临时文件，成功后原子重命名发布
+        Files.createDirectories(cacheDir.resolve(TEMP_DIR));
+        Path temp = cacheDir.resolve(TEMP_DIR).resolve(key + "-" + UUID.randomUUID() + extension);
+        try {
+            if (!producer.produce(temp) || !Files.exists(temp)) {
+                return false;
+            }
+            Files.createDirectories(cached.getParent());
+            try {
+                Files.move(temp, cached, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, cached, StandardCopyOption.REPLACE_EXISTING);
+            }
+            register(key, Files.size(cached));
+            return true;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * 计算缓存键
+     *
+     * @param source    源文件
+     * @param operation 操作名
+     * @param config    处理配置
+     * @return 十六进制 SHA-256
+     */
+    public String key(Path source, String operation, Object config) throws IOException {
+        return key(source, operation, config, "");
+    }
+
+    /**
+     * 计算缓存键，目标扩展名不同时结果不同（如 .mp4 和 .mkv），每个键只对应一个缓存文件
+     *
+     * @param extension 目标文件扩展名，含点号
+     */
+    String key(Path source, String operation, Object config, String extension) throws IOException {
+        String material = contentHash(source) + "|" + operation + "|" + canonicalize(config) + "|" + extension;
+        return toHex(digest().digest(material.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * 获取统计信息
+     */
+    public synchronized CacheStats getStats() {
+        CacheStats stats = new CacheStats();
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        stats.setHits(hitCount);
+        stats.setMisses(missCount);
+        stats.setEvictions(evictions.sum());
+        stats.setCoalesced(inFlight.getCoalesced());
+        stats.setHitRate(hitCount + missCount == 0 ? 0 : (double) hitCount / (hitCount + missCount));
+        stats.setEntries(index.size());
+        stats.setTotalBytes(totalBytes);
+        stats.setMaxSizeBytes(maxSizeBytes);
+        return stats;
+    }
+
+    /**
+     * 将配置对象转换为规范化字符串
+     * 基本类型和枚举直接取值；其他对象按字段名排序后递归展开，忽略标记了 {@link IgnoredInKey} 的字段
+     *
+     * @param config 配置对象
+     * @return 规范化字符串
+     */
+    public static String canonicalize(Object config) {
+        StringBuilder builder = new StringBuilder();
+        appendCanonical(builder, config);
+        return builder.toString();
+    }
+
+    private static void appendCanonical(StringBuilder builder, Object value) {
+        if (value == null) {
+            builder.append("null");
+        } else if (value instanceof CharSequence || value instanceof Number || value instanceof Boolean
+                || value instanceof Character || value instanceof Enum || value instanceof Path) {
+            builder.append(value);
+        } else if (value instanceof Collection<?> collection) {
+            builder.append('[');
+            for (Object item : collection) {
+                appendCanonical(builder, item);
+                builder.append(',');
+            }
+            builder.append(']');
+        } else if (value instanceof Map<?, ?> map) {
+            builder.append('{');
+            new TreeMap<>(map).forEach((k, v) -> {
+                builder.append(k).append('=');
+                appendCanonical(builder, v);
+                builder.append(',');
+            });
+            builder.append('}');
+        } else {
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> type = value.getClass(); type != null && type != Object.class; type = type.getSuperclass()) {
+                for (Field field : type.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers()) && !field.isSynthetic()
+                            && !field.isAnnotationPresent(IgnoredInKey.class)) {
+                        fields.add(field);
+                    }
+                }
+            }
+            fields.sort(Comparator.comparing(Field::getName));
+            builder.append(value.getClass().getSimpleName()).append('{');
+            for (Field field : fields) {
+                builder.append(field.getName()).append('=');
+                try {
+                    field.setAccessible(true);
+                    appendCanonical(builder, field.get(value));
+                } catch (IllegalAccessException | RuntimeException e) {
+                    builder.append('?');
+                }
+                builder.append(',');
+            }
+            builder.append('}');
+        }
+    }
+
+    /**
+     * 计算源文件内容哈希，按路径、大小和修改时间缓存
+     */
+    private String contentHash(Path source) throws IOException {
+        String identity = source.toAbsolutePath() + "|" + Files.size(source) + "|" + Files.getLastModifiedTime(source).toMillis();
+        String hash = contentHashes.get(identity);
+        if (hash != null) {
+            return hash;
+        }
+        MessageDigest digest = digest();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream inputStream = Files.newInputStream(source)) {
+            int length;
+            while ((length = inputStream.read(buffer)) > 0) {
+                digest.update(buffer, 0, length);
+            }
+        }
+        hash = toHex(digest.digest());
+        contentHashes.put(identity, hash);
+        return hash;
+    }
+
+    /**
+     * 命中时在锁内为缓存文件创建硬链接（不支持时复制）作为本次读取的副本，
+     * 之后在锁外复制到目标位置；复制期间条目被淘汰不影响已创建的副本
+     *
+     * @return 副本路径，未命中时返回 null
+     */
+    private synchronized Path checkout(String key, Path cached) throws IOException {
+        if (!lookup(key, cached)) {
+            return null;
+        }
+        Path checkout = cacheDir.resolve(TEMP_DIR).resolve(key + "-" + UUID.randomUUID() + ".out");
+        FilePassthrough.transfer(cached, checkout, FilePassthrough.Mode.LINK);
+        return checkout;
+    }
+
+    private synchronized boolean lookup(String key, Path cached) {
+        // get 会更新 LRU 访问顺序
+        if (index.get(key) == null) {
+            return false;
+        }
+        if (!Files.exists(cached)) {
+            totalBytes -= index.remove(key);
+            return false;
+        }
+        try {
+            // 更新修改时间，重启后仍能恢复 LRU 顺序
+            Files.setLastModifiedTime(cached, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            log.warn("更新缓存文件时间失败: {}", cached);
+        }
+        return true;
+    }
+
+    private synchronized void register(String key, long size) {
+        Long previous = index.put(key, size);
+        totalBytes += size - (previous == null ? 0 : previous);
+        evict(key);
+    }
+
+    /**
+     * 淘汰最久未使用的条目直到总大小不超过上限，刚写入的条目保留
+     * 删除失败的条目（如 Windows 下文件仍被占用）继续保留在索引中，下次淘汰时再尝试
+     */
+    private void evict(String keep) {
+        Iterator<Map.Entry<String, Long>> iterator = index.entrySet().iterator();
+        while (totalBytes > maxSizeBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            if (eldest.getKey().equals(keep)) {
+                continue;
+            }
+            try (Stream<Path> files = Files.list(cacheDir.resolve(eldest.getKey().substring(0, 2)))) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    if (file.getFileName().toString().startsWith(eldest.getKey())) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("删除缓存文件失败，保留条目: {}", eldest.getKey());
+                continue;
+            }
+            totalBytes -= eldest.getValue();
+            iterator.remove();
+            evictions.increment();
+        }
+    }
+
+    /**
+     * 首次使用时扫描缓存目录，按修改时间恢复 LRU 顺序
+     */
+    private synchronized void ensureLoaded() throws IOException {
+        if (loaded) {
+            return;
+        }
+        cacheDir = Paths.get(cachePath);
+        Files.createDirectories(cacheDir);
+
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> stream = Files.walk(cacheDir, 2)) {
+            stream.filter(Files::isRegularFile)
+                    .filter(path -> !path.getParent().getFileName().toString().equals(TEMP_DIR))
+                    .forEach(files::add);
+        }
+        files.sort(Comparator.comparingLong(path -> path.toFile().lastModified()));
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            int dot = name.indexOf('.');
+            index.put(dot > 0 ? name.substring(0, dot) : name, file.toFile().length());
+            totalBytes += file.toFile().length();
+        }
+        loaded = true;
+        log.info("衍生文件缓存目录: {}, 条目数: {}, 总大小: {} bytes", cacheDir, index.size(), totalBytes);
+        evict(null);
+    }
+
+    private Path entryPath(String key, String extension) {
+        return cacheDir.resolve(key.substring(0, 2)).resolve(key + extension);
+    }
+
+    /**
+     * 将副本复制到目标位置，完成后删除副本
+     */
+    private static void copyToTarget(Path checkout, Path target) throws IOException {
+        try {
+            if (target.getParent() != null) {
+                Files.createDirectories(target.getParent());
+            }
+            FilePassthrough.copy(checkout, target);
+        } finally {
+            Files.deleteIfExists(checkout);
+        }
+    }
+
+    private static String extensionOf(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 ? name.substring(dot).toLowerCase(Locale.ROOT) : "";
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,98 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * 文件直通（不处理内容）工具类
+ * 复制使用 FileChannel.transferTo，由内核完成数据搬运，不经过 Java 堆；
+ * 源和目标在同一文件系统时可以使用硬链接或移动，几乎不产生 IO
+ */
+@Slf4j
+public class FilePassthrough {
+
+    /**
+     * 直通方式
+     */
+    @Getter
+    public enum Mode {
+        COPY("内核复制"),
+        LINK("硬链接，失败时复制"),
+        MOVE("移动，跨文件系统时复制后删除源文件");
+
+        private final String description;
+
+        Mode(String description) {
+            this.description = description;
+        }
+    }
+
+    /**
+     * 将源文件直通到目标位置，目标已存在时覆盖
+     * 注意：LINK 模式下源和目标共享同一份数据，修改其中一个会影响另一个
+     *
+     * @param source 源文件
+     * @param target 目标文件
+     * @param mode   直通方式
+     * @return 实际使用的方式，硬链接不可用时为 COPY
+     */
+    public static Mode transfer(Path source, Path target, Mode mode) throws IOException {
+        if (target.getParent() != null) {
+            Files.createDirectories(target.getParent());
+        }
+        if (Files.exists(target) && Files.isSameFile(source, target)) {
+            return mode;
+        }
+        switch (mode) {
+            case LINK:
+                try {
+                    Files.deleteIfExists(target);
+                    Files.createLink(target, source);
+                    return Mode.LINK;
+                } catch (UnsupportedOperationException | FileSystemException e) {
+                    // 跨文件系统或不支持硬链接
+                    log.debug("无法创建硬链接，改为复制: {}", e.getMessage());
+                }
+                copy(source, target);
+                return Mode.COPY;
+            case MOVE:
+                Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+                return Mode.MOVE;
+            default:
+                copy(source, target);
+                return Mode.COPY;
+        }
+    }
+
+    /**
+     * 使用 transferTo 复制文件
+     *
+     * @param source 源文件
+     * @param target 目标文件
+     * @throws IOException 复制失败或复制的字节数少于源文件大小
+     */
+    public static void copy(Path source, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                long transferred = in.transferTo(position, size - position, out);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+            if (position < size) {
+                // 复制期间源文件被截断等情况，不能当作成功
+                throw new IOException("文件复制不完整: " + source + ", 已复制 " + position + "/" + size + " bytes");
+            }
+        }
+    }
+
+}
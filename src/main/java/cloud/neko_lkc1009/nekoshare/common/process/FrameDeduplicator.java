@@ -0,0 +1,195 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 重复帧去重
+ * 在抽帧之后、超分之前移除目录中的重复帧，只让不同的帧经过 waifu2x，超分完成后再把结果复制回重复帧的位置。
+ * 阈值为 0 时按文件内容哈希判断完全相同的帧（目录内任意位置）；
+ * 阈值大于 0 时与上一个保留的帧比较：按 16x16 网格计算各块平均亮度，最大差异（0~1）不超过阈值视为重复
+ */
+@Slf4j
+class FrameDeduplicator {
+    /**
+     * 感知比较的网格大小
+     */
+    private static final int GRID = 16;
+
+    private final double threshold;
+
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    /**
+     * @param threshold 相似度阈值，0 表示只去除完全相同的帧
+     */
+    FrameDeduplicator(double threshold) {
+        this.threshold = Math.max(0, threshold);
+    }
+
+    /**
+     * 去除目录中的重复帧
+     *
+     * @param inputDir 帧目录，文件名按顺序排列
+     * @return 被删除的重复帧文件名 -> 保留的原帧文件名
+     */
+    Map<String, String> deduplicate(Path inputDir) throws IOException {
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(inputDir)) {
+            files = stream.filter(Files::isRegularFile).sorted().toList();
+        }
+        Map<String, String> duplicates = new LinkedHashMap<>();
+        if (threshold == 0) {
+            Map<String, String> firstByHash = new HashMap<>();
+            for (Path file : files) {
+                String source = firstByHash.putIfAbsent(hash(file), file.getFileName().toString());
+                if (source != null) {
+                    duplicates.put(file.getFileName().toString(), source);
+                }
+            }
+        } else {
+            String previous = null;
+            double[] previousSignature = null;
+            for (Path file : files) {
+                double[] signature = signature(file);
+                if (previousSignature != null && signature != null && distance(previousSignature, signature) <= threshold) {
+                    duplicates.put(file.getFileName().toString(), previous);
+                } else {
+                    previous = file.getFileName().toString();
+                    previousSignature = signature;
+                }
+            }
+        }
+        for (String duplicate : duplicates.keySet()) {
+            Files.delete(inputDir.resolve(duplicate));
+        }
+        frames.addAndGet(files.size());
+        skipped.addAndGet(duplicates.size());
+        return duplicates;
+    }
+
+    /**
+     * 将原帧的处理结果复制到重复帧的位置，输出文件与输入文件主名相同、扩展名可以不同
+     *
+     * @param outputDir  处理结果目录
+     * @param duplicates {@link #deduplicate(Path)} 的返回值
+     */
+    static void fanOut(Path outputDir, Map<String, String> duplicates) throws IOException {
+        if (duplicates.isEmpty()) {
+            return;
+        }
+        Map<String, Path> outputs = new HashMap<>();
+        try (Stream<Path> stream = Files.list(outputDir)) {
+            stream.forEach(file -> outputs.put(baseName(file.getFileName().toString()), file));
+        }
+        for (Map.Entry<String, String> entry : duplicates.entrySet()) {
+            Path source = outputs.get(baseName(entry.getValue()));
+            if (source == null) {
+                throw new IOException("缺少重复帧的处理结果: " + entry.getValue());
+            }
+            String name = source.getFileName().toString();
+            String extension = name.substring(baseName(name).length());
+            // 重复帧只读不写，共享数据即可
+            FilePassthrough.transfer(source, outputDir.resolve(baseName(entry.getKey()) + extension), FilePassthrough.Mode.LINK);
+        }
+    }
+
+    /**
+     * 检查过的帧数
+     */
+    long getFrames() {
+        return frames.get();
+    }
+
+    /**
+     * 跳过的重复帧数
+     */
+    long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * 跳过的帧所占比例
+     */
+    double getSkippedRatio() {
+        long total = frames.get();
+        return total == 0 ? 0 : (double) skipped.get() / total;
+    }
+
+    private static String hash(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            int length;
+            while ((length = inputStream.read(buffer)) > 0) {
+                digest.update(buffer, 0, length);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * 计算网格平均亮度，无法解码时返回 null（不参与去重）
+     */
+    private static double[] signature(Path file) throws IOException {
+        BufferedImage image = ImageIO.read(file.toFile());
+        if (image == null) {
+            log.warn("无法解码帧，不参与去重: {}", file);
+            return null;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double[] sums = new double[GRID * GRID];
+        int[] counts = new int[GRID * GRID];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            int cellY = y * GRID / height;
+            for (int x = 0; x < width; x++) {
+                int rgb = row[x];
+                double luma = 0.299 * ((rgb >> 16) & 0xFF) + 0.587 * ((rgb >> 8) & 0xFF) + 0.114 * (rgb & 0xFF);
+                int cell = cellY * GRID + x * GRID / width;
+                sums[cell] += luma;
+                counts[cell]++;
+            }
+        }
+        for (int i = 0; i < sums.length; i++) {
+            sums[i] = counts[i] == 0 ? 0 : sums[i] / counts[i] / 255;
+        }
+        return sums;
+    }
+
+    /**
+     * 各块平均亮度的最大差异，局部变化（如口型）不会被整帧平均掩盖
+     */
+    private static double distance(double[] a, double[] b) {
+        double max = 0;
+        for (int i = 0; i < a.length; i++) {
+            max = Math.max(max, Math.abs(a[i] - b[i]));
+        }
+        return max;
+    }
+
+    private static String baseName(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+}
@@ -0,0 +1,655 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 分块帧流水线
+ * 抽帧、超分、编码三个阶段同时运行，阶段之间以容量为 1 的队列传递分块：
+ * 解码进程以 PNG 图片流 (image2pipe) 输出帧，按固定帧数写入分块目录（抽帧）；
+ * 分块交给处理器（waifu2x）放大（超分）；结果按顺序写入编码进程的标准输入，写完即删除（编码）。
+ * 同时存在的分块不超过 5 个，临时磁盘占用只与分块大小有关，总耗时接近最慢的阶段。
+ * 可恢复模式下每个分块单独编码为分段文件，进度记录在 {@link ChunkManifest} 中，
+ * 重新执行时已编码分块的帧直接丢弃，已超分的分块跳过超分。
+ * 设置 {@link FrameDeduplicator} 后，分块内的重复帧不经过处理器，处理后从原帧复制
+ */
+@Slf4j
+class FramePipeline {
+    /**
+     * 队列结束标记
+     */
+    private static final Chunk END = new Chunk(-1, null, 0);
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    /**
+     * 轮询队列的间隔 (毫秒)，用于发现其他阶段已经失败
+     */
+    private static final long POLL_MILLIS = 100;
+
+    /**
+     * 阶段之间最多等待的分块数
+     */
+    private static final int QUEUE_CAPACITY = 1;
+
+    /**
+     * 运行超分和分块编码阶段的线程
+     */
+    private static final ExecutorService STAGE_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "frame-pipeline-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final ProcessRunner processRunner;
+    private final Path workDir;
+    private final int chunkFrames;
+    private final ChunkProcessor processor;
+
+    /**
+     * 已抽帧、等待超分的分块
+     */
+    private final BlockingQueue<Chunk> extracted = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    /**
+     * 已超分、等待编码的分块
+     */
+    private final BlockingQueue<Chunk> upscaled = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    private final Stage extractStage = new Stage("extract");
+    private final Stage upscaleStage = new Stage("upscale");
+    private final Stage encodeStage = new Stage("encode");
+
+    private final AtomicLong diskBytes = new AtomicLong();
+    private final AtomicLong peakDiskBytes = new AtomicLong();
+    private final AtomicInteger resumedChunks = new AtomicInteger();
+    private volatile boolean failed;
+    private volatile CompletableFuture<ProcessRunner.ProcessResult> encoding;
+    private ChunkManifest manifest;
+    private ChunkEncoder chunkEncoder;
+    private FrameDeduplicator deduplicator;
+    private int frames;
+    private int chunks;
+    private long elapsedNanos;
+
+    /**
+     * 在阶段之间传递的分块
+     *
+     * @param index  分块序号
+     * @param dir    分块目录
+     * @param frames 帧数
+     */
+    private record Chunk(int index, Path dir, int frames) {
+    }
+
+    /**
+     * 单个阶段的计时
+     */
+    private static class Stage {
+        private final String name;
+        private final AtomicLong busyNanos = new AtomicLong();
+        private final AtomicLong idleNanos = new AtomicLong();
+        private final AtomicInteger chunks = new AtomicInteger();
+
+        Stage(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * 阶段统计
+     */
+    @Data
+    static class StageStats {
+        private String stage;        // extract / upscale / encode
+        private int chunks;          // 处理的分块数
+        private long busyMillis;     // 工作时间，抽帧包含等待解码输出，编码包含等待编码进程读取
+        private long idleMillis;     // 等待上游分块或下游队列空位的时间
+    }
+
+    /**
+     * 处理一个分块
+     */
+    @FunctionalInterface
+    interface ChunkProcessor {
+        /**
+         * @param inputDir  分块的输入帧目录
+         * @param outputDir 输出目录，输出文件按名称排序即为帧顺序
+         * @return 是否成功
+         */
+        boolean process(Path inputDir, Path outputDir) throws IOException;
+    }
+
+    /**
+     * 将一个分块的输出帧编码为分段文件（可恢复模式）
+     */
+    @FunctionalInterface
+    interface ChunkEncoder {
+        /**
+         * @param framesDir 输出帧目录，文件名为 %08d.png，从 1 开始
+         * @param segment   分段文件
+         * @return 是否成功
+         */
+        boolean encode(Path framesDir, Path segment) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface StageTask {
+        void run() throws IOException;
+    }
+
+    /**
+     * @param processRunner 进程执行器
+     * @param workDir       分块临时目录
+     * @param chunkFrames   每个分块的帧数
+     * @param processor     分块处理器
+     */
+    FramePipeline(ProcessRunner processRunner, Path workDir, int chunkFrames, ChunkProcessor processor) {
+        this.processRunner = processRunner;
+        this.workDir = workDir;
+        this.chunkFrames = Math.max(1, chunkFrames);
+        this.processor = processor;
+    }
+
+    /**
+     * 运行流水线
+     *
+     * @param decoder 解码进程，标准输出为 PNG 图片流
+     * @param encoder 编码进程，从标准输入读取 PNG 图片流
+     * @return 是否成功
+     */
+    boolean run(ProcessRunner.ProcessSpec decoder, ProcessRunner.ProcessSpec encoder) throws IOException {
+        Files.createDirectories(workDir);
+        encoder.setInputWriter(this::writeChunks);
+        decoder.setOutputHandler(this::readFrames);
+
+        long start = System.nanoTime();
+        encoding = processRunner.execute(encoder);
+        CompletableFuture<Void> upscaling = startStage(this::upscaleChunks);
+        try {
+            decode(decoder);
+            awaitStage(upscaling);
+            if (failed) {
+                return false;
+            }
+            return ProcessRunner.await(encoder, encoding).isSuccess();
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+            throw e;
+        } finally {
+            if (failed) {
+                encoding.cancel(true);
+            }
+            finish(start);
+        }
+    }
+
+    /**
+     * 以可恢复模式运行：每个分块超分后编码为分段文件并删除帧，进度写入清单
+     *
+     * @param decoder      解码进程，标准输出为 PNG 图片流
+     * @param chunkEncoder 分块编码器
+     * @param manifest     进度清单，分块大小需与流水线一致
+     * @return 成功时返回按顺序排列的分段文件，失败返回 null
+     */
+    List<Path> runResumable(ProcessRunner.ProcessSpec decoder, ChunkEncoder chunkEncoder, ChunkManifest manifest) throws IOException {
+        if (manifest.getChunkFrames() != chunkFrames) {
+            throw new IllegalArgumentException("清单分块大小 " + manifest.getChunkFrames() + " 与流水线 " + chunkFrames + " 不一致");
+        }
+        Files.createDirectories(workDir);
+        this.manifest = manifest;
+        this.chunkEncoder = chunkEncoder;
+        verifyManifest();
+        decoder.setOutputHandler(this::readFrames);
+
+        long start = System.nanoTime();
+        CompletableFuture<Void> upscaling = startStage(this::upscaleChunks);
+        CompletableFuture<Void> encodingChunks = startStage(this::encodeChunks);
+        try {
+            decode(decoder);
+            awaitStage(upscaling);
+            awaitStage(encodingChunks);
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+            throw e;
+        } finally {
+            finish(start);
+        }
+        if (failed) {
+            return null;
+        }
+        List<Path> segments = new ArrayList<>();
+        for (int index = 0; index < chunks; index++) {
+            segments.add(segmentPath(index));
+        }
+        return segments;
+    }
+
+    /**
+     * 设置重复帧去重，需在运行前调用
+     */
+    void setDeduplicator(FrameDeduplicator deduplicator) {
+        this.deduplicator = deduplicator;
+    }
+
+    int getFrames() {
+        return frames;
+    }
+
+    /**
+     * 去重跳过、未经过处理器的帧数
+     */
+    long getSkippedFrames() {
+        return deduplicator != null ? deduplicator.getSkipped() : 0;
+    }
+
+    int getChunks() {
+        return chunks;
+    }
+
+    /**
+     * 沿用上次进度、无需超分的分块数
+     */
+    int getResumedChunks() {
+        return resumedChunks.get();
+    }
+
+    /**
+     * 临时文件占用的峰值 (字节)
+     */
+    long getPeakDiskBytes() {
+        return peakDiskBytes.get();
+    }
+
+    /**
+     * 流水线总耗时 (毫秒)
+     */
+    long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    /**
+     * 各阶段的工作和等待时间，按抽帧、超分、编码排列
+     */
+    List<StageStats> getStageStats() {
+        List<StageStats> stats = new ArrayList<>();
+        for (Stage stage : List.of(extractStage, upscaleStage, encodeStage)) {
+            StageStats stageStats = new StageStats();
+            stageStats.setStage(stage.name);
+            stageStats.setChunks(stage.chunks.get());
+            stageStats.setBusyMillis(TimeUnit.NANOSECONDS.toMillis(stage.busyNanos.get()));
+            stageStats.setIdleMillis(TimeUnit.NANOSECONDS.toMillis(stage.idleNanos.get()));
+            stats.add(stageStats);
+        }
+        return stats;
+    }
+
+    /**
+     * 运行解码进程，抽帧阶段在其输出读取线程中执行
+     */
+    private void decode(ProcessRunner.ProcessSpec decoder) throws IOException {
+        if (!processRunner.run(decoder).isSuccess()) {
+            failed = true;
+        }
+    }
+
+    private CompletableFuture<Void> startStage(StageTask task) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                task.run();
+            } catch (IOException e) {
+                failed = true;
+                throw new UncheckedIOException(e);
+            } catch (RuntimeException e) {
+                failed = true;
+                throw e;
+            }
+        }, STAGE_EXECUTOR);
+    }
+
+    /**
+     * 等待阶段结束，阶段失败时记录日志并标记流水线失败
+     */
+    private void awaitStage(CompletableFuture<Void> stage) throws IOException {
+        try {
+            stage.get();
+        } catch (InterruptedException e) {
+            failed = true;
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待帧流水线时被中断");
+        } catch (ExecutionException e) {
+            failed = true;
+            Throwable cause = e.getCause() instanceof UncheckedIOException unchecked ? unchecked.getCause() : e.getCause();
+            log.error("帧流水线阶段失败: {}", cause.getMessage());
+        }
+    }
+
+    private void finish(long start) {
+        elapsedNanos = System.nanoTime() - start;
+        StringBuilder stages = new StringBuilder();
+        for (StageStats stats : getStageStats()) {
+            stages.append(String.format(" %s 工作 %d ms/等待 %d ms;", stats.getStage(), stats.getBusyMillis(), stats.getIdleMillis()));
+        }
+        String skipped = deduplicator != null
+                ? String.format(" 跳过重复帧 %d/%d (%.1f%%),", deduplicator.getSkipped(), deduplicator.getFrames(),
+                deduplicator.getSkippedRatio() * 100)
+                : "";
+        log.info("帧流水线{}: {} 帧, {} 个分块（{} 个沿用上次进度）,{} 耗时 {} ms, 临时文件峰值 {} KB,{}",
+                failed ? "失败" : "完成", frames, chunks, resumedChunks.get(), skipped, getElapsedMillis(),
+                peakDiskBytes.get() / 1024, stages);
+    }
+
+    /**
+     * 抽帧阶段：逐帧写入分块目录，分块满后交给超分阶段；已完成超分的分块只读取不写入
+     */
+    private void readFrames(InputStream inputStream) throws IOException {
+        try {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(inputStream, 1 << 16));
+            int index = 0;
+            int count = 0;
+            Path chunk = null;
+            while (true) {
+                boolean discard = isUpscaled(index);
+                if (chunk == null && !discard) {
+                    chunk = chunkPath(index);
+                    Files.createDirectories(chunk.resolve("in"));
+                }
+                Path frame = discard ? null : chunk.resolve("in").resolve(String.format("%08d.png", count + 1));
+                long start = System.nanoTime();
+                boolean read = readFrame(input, frame);
+                extractStage.busyNanos.addAndGet(System.nanoTime() - start);
+                if (!read) {
+                    break;
+                }
+                frames++;
+                if (++count == chunkFrames) {
+                    handOff(index++, chunk, count);
+                    chunk = null;
+                    count = 0;
+                }
+            }
+            if (count > 0) {
+                handOff(index++, chunk, count);
+            } else if (chunk != null) {
+                TempFiles.deleteDirectory(chunk);
+            }
+            chunks = index;
+            put(extracted, END, extractStage);
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * 分块是否已超分（可恢复模式），这类分块不需要输入帧
+     */
+    private boolean isUpscaled(int index) {
+        return manifest != null && manifest.getState(index).compareTo(ChunkManifest.State.UPSCALED) >= 0;
+    }
+
+    /**
+     * 分块的帧已全部读取，交给超分阶段；已编码的分块直接跳过
+     */
+    private void handOff(int index, Path chunk, int count) throws IOException {
+        extractStage.chunks.incrementAndGet();
+        if (manifest != null) {
+            ChunkManifest.State state = manifest.getState(index);
+            if (state == ChunkManifest.State.ENCODED) {
+                resumedChunks.incrementAndGet();
+                return;
+            }
+            if (state == ChunkManifest.State.PENDING) {
+                manifest.mark(index, ChunkManifest.State.EXTRACTED, count);
+            }
+            // 已超分的分块没有读取输入帧，目录由上次执行留下
+            chunk = chunkPath(index);
+        }
+        put(extracted, new Chunk(index, chunk, count), extractStage);
+    }
+
+    /**
+     * 超分阶段
+     */
+    private void upscaleChunks() throws IOException {
+        while (true) {
+            Chunk chunk = take(extracted, upscaleStage);
+            if (chunk == END) {
+                put(upscaled, END, upscaleStage);
+                return;
+            }
+            if (manifest != null && manifest.getState(chunk.index()) == ChunkManifest.State.UPSCALED) {
+                resumedChunks.incrementAndGet();
+            } else {
+                long start = System.nanoTime();
+                processChunk(chunk.dir());
+                upscaleStage.busyNanos.addAndGet(System.nanoTime() - start);
+                upscaleStage.chunks.incrementAndGet();
+                if (manifest != null) {
+                    manifest.mark(chunk.index(), ChunkManifest.State.UPSCALED, chunk.frames());
+                }
+            }
+            put(upscaled, chunk, upscaleStage);
+        }
+    }
+
+    /**
+     * 编码阶段（可恢复模式）：每个分块编码为分段文件，完成后删除分块目录
+     */
+    private void encodeChunks() throws IOException {
+        while (true) {
+            Chunk chunk = take(upscaled, encodeStage);
+            if (chunk == END) {
+                return;
+            }
+            Path segment = segmentPath(chunk.index());
+            long start = System.nanoTime();
+            boolean encoded = chunkEncoder.encode(chunk.dir().resolve("out"), segment);
+            encodeStage.busyNanos.addAndGet(System.nanoTime() - start);
+            if (!encoded) {
+                throw new IOException("分块编码失败: " + chunk.dir().getFileName());
+            }
+            encodeStage.chunks.incrementAndGet();
+            manifest.mark(chunk.index(), ChunkManifest.State.ENCODED, chunk.frames());
+            addDiskBytes(-TempFiles.deleteDirectory(chunk.dir()));
+            addDiskBytes(Files.size(segment));
+        }
+    }
+
+    /**
+     * 编码阶段：向编码进程依次写入各分块的帧，写完即删除
+     */
+    private void writeChunks(OutputStream outputStream) throws IOException {
+        while (true) {
+            Chunk chunk = take(upscaled, encodeStage);
+            if (chunk == END) {
+                return;
+            }
+            long start = System.nanoTime();
+            for (Path frame : listFiles(chunk.dir().resolve("out"))) {
+                Files.copy(frame, outputStream);
+            }
+            encodeStage.busyNanos.addAndGet(System.nanoTime() - start);
+            encodeStage.chunks.incrementAndGet();
+            addDiskBytes(-TempFiles.deleteDirectory(chunk.dir()));
+        }
+    }
+
+    /**
+     * 从上游队列取出分块，其他阶段失败时中止
+     */
+    private Chunk take(BlockingQueue<Chunk> queue, Stage stage) throws IOException {
+        long start = System.nanoTime();
+        try {
+            while (true) {
+                Chunk chunk = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (chunk != null) {
+                    return chunk;
+                }
+                if (failed) {
+                    throw new IOException("帧流水线已中止");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待分块时被中断");
+        } finally {
+            stage.idleNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 放入下游队列，其他阶段失败或编码进程已退出时中止，避免一直等待
+     */
+    private void put(BlockingQueue<Chunk> queue, Chunk chunk, Stage stage) throws IOException {
+        long start = System.nanoTime();
+        try {
+            while (!queue.offer(chunk, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (failed) {
+                    throw new IOException("帧流水线已中止");
+                }
+                if (encoding != null && encoding.isDone()) {
+                    throw new IOException("编码进程已退出");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待下游阶段时被中断");
+        } finally {
+            stage.idleNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 核对清单与磁盘文件，文件缺失或不完整的分块回退为未处理
+     */
+    private void verifyManifest() throws IOException {
+        for (int index : manifest.getChunks()) {
+            ChunkManifest.State state = manifest.getState(index);
+            boolean valid = switch (state) {
+                case ENCODED -> Files.isRegularFile(segmentPath(index));
+                case UPSCALED -> Files.isDirectory(chunkPath(index).resolve("out"))
+                        && countFiles(chunkPath(index).resolve("out")) == manifest.getFrames(index);
+                default -> false;
+            };
+            if (!valid) {
+                log.info("分块 {} 的文件不完整，重新处理", index);
+                manifest.reset(index);
+                TempFiles.deleteDirectory(chunkPath(index));
+            }
+        }
+    }
+
+    private Path chunkPath(int index) {
+        return workDir.resolve(String.format("chunk_%06d", index));
+    }
+
+    private Path segmentPath(int index) {
+        return workDir.resolve(String.format("segment_%06d.mkv", index));
+    }
+
+    /**
+     * 从 PNG 图片流中读取一帧：签名之后逐个复制数据块直到 IEND
+     *
+     * @param frame 帧文件，为 null 时读取后丢弃
+     * @return 流已结束时返回 false
+     */
+    private boolean readFrame(DataInputStream input, Path frame) throws IOException {
+        byte[] signature = input.readNBytes(PNG_SIGNATURE.length);
+        if (signature.length == 0) {
+            return false;
+        }
+        if (!Arrays.equals(signature, PNG_SIGNATURE)) {
+            throw new IOException("无效的 PNG 帧数据");
+        }
+        long size = PNG_SIGNATURE.length;
+        byte[] buffer = new byte[64 * 1024];
+        OutputStream target = frame != null ? Files.newOutputStream(frame) : OutputStream.nullOutputStream();
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(target, 1 << 16))) {
+            output.write(signature);
+            boolean end = false;
+            while (!end) {
+                int length = input.readInt();
+                int type = input.readInt();
+                output.writeInt(length);
+                output.writeInt(type);
+                // 数据和 4 字节 CRC
+                long remaining = (length & 0xFFFFFFFFL) + 4;
+                size += 8 + remaining;
+                while (remaining > 0) {
+                    int read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read < 0) {
+                        throw new EOFException("PNG 帧数据不完整");
+                    }
+                    output.write(buffer, 0, read);
+                    remaining -= read;
+                }
+                end = type == 0x49454E44; // IEND
+            }
+        }
+        if (frame != null) {
+            addDiskBytes(size);
+        }
+        return true;
+    }
+
+    /**
+     * 处理分块（重复帧只处理一次），完成后删除输入帧
+     */
+    private void processChunk(Path chunk) throws IOException {
+        Path inputDir = chunk.resolve("in");
+        Path outputDir = Files.createDirectories(chunk.resolve("out"));
+        long frameCount = countFiles(inputDir);
+        Map<String, String> duplicates = deduplicator != null ? deduplicator.deduplicate(inputDir) : Map.of();
+        if (!processor.process(inputDir, outputDir)) {
+            throw new IOException("分块处理失败: " + chunk.getFileName());
+        }
+        if (countFiles(outputDir) != frameCount - duplicates.size()) {
+            throw new IOException("分块输出帧数不一致: " + chunk.getFileName());
+        }
+        FrameDeduplicator.fanOut(outputDir, duplicates);
+        addDiskBytes(directorySize(outputDir));
+        addDiskBytes(-TempFiles.deleteDirectory(inputDir));
+    }
+
+    private void addDiskBytes(long bytes) {
+        long current = diskBytes.addAndGet(bytes);
+        peakDiskBytes.accumulateAndGet(current, Math::max);
+    }
+
+    private static List<Path> listFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(Files::isRegularFile).sorted().toList();
+        }
+    }
+
+    private static long countFiles(Path directory) throws IOException {
+        return listFiles(directory).size();
+    }
+
+    private static long directorySize(Path directory) throws IOException {
+        long size = 0;
+        for (Path file : listFiles(directory)) {
+            size += Files.size(file);
+        }
+        return size;
+    }
+
+}
@@ -0,0 +1,283 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 图片批量并行压缩
+ * 按图片头部估算的像素内存进行准入控制：内存预算不足时大图排队等待，小图可以继续执行，
+ * 避免多张超大图片同时解码导致内存溢出
+ */
+@Slf4j
+public class ImageBatchCompress {
+    /**
+     * 支持的图片扩展名
+     */
+    private static final Set<String> IMAGE_EXTENSIONS = Set.of("jpg", "jpeg", "png", "bmp", "gif");
+
+    /**
+     * 队首文件最多被后续文件越过的次数，超过后停止越过，防止大图饿死
+     */
+    private static final int MAX_BYPASS = 16;
+
+    /**
+     * 批量压缩配置
+     */
+    @Data
+    @NoArgsConstructor
+    public static class BatchConfig {
+        private Integer threads = Runtime.getRuntime().availableProcessors(); // 最大并行数
+        private Long memoryBudgetBytes = Runtime.getRuntime().maxMemory() / 4; // 像素内存预算
+        private Float quality = 0.75f;                                         // 压缩质量
+        private Integer maxWidth = 1920;                                       // 最大宽度
+        private Integer maxHeight = 1080;                                      // 最大高度
+    }
+
+    /**
+     * 单个文件的压缩结果
+     */
+    @Data
+    public static class FileResult {
+        private File source;
+        private File target;
+        private boolean success;
+        private long estimatedBytes; // 准入时预留的内存
+        private long inputBytes;
+        private long outputBytes;
+        private long elapsedMillis;
+    }
+
+    /**
+     * 批量压缩结果
+     */
+    @Data
+    public static class BatchResult {
+        private List<FileResult> files = new ArrayList<>();
+        private int succeeded;
+        private int failed;
+        private long inputBytes;
+        private long outputBytes;
+        private long elapsedMillis;
+        private double filesPerSecond;
+        private double inputMegabytesPerSecond;
+        private long peakReservedBytes; // 同时预留内存的峰值
+    }
+
+    /**
+     * 使用默认配置压缩目录下的所有图片
+     *
+     * @param sourceDir 源目录
+     * @param targetDir 目标目录
+     * @return 批量压缩结果
+     */
+    public static BatchResult compressDirectory(File sourceDir, File targetDir) {
+        return compressDirectory(sourceDir, targetDir, new BatchConfig());
+    }
+
+    /**
+     * 压缩目录下的所有图片（不递归）
+     *
+     * @param sourceDir 源目录
+     * @param targetDir 目标目录
+     * @param config    批量压缩配置
+     * @return 批量压缩结果
+     */
+    public static BatchResult compressDirectory(File sourceDir, File targetDir, BatchConfig config) {
+        File[] files = sourceDir.listFiles(file -> file.isFile() && isImageFile(file.getName()));
+        if (files == null) {
+            log.error("源目录不存在或不是目录: {}", sourceDir.getAbsolutePath());
+            return new BatchResult();
+        }
+        Arrays.sort(files, Comparator.comparing(File::getName));
+        return compressAll(Arrays.asList(files), targetDir, config);
+    }
+
+    /**
+     * 并行压缩一组图片，输出到目标目录，文件名保持不变
+     *
+     * @param sourceFiles 源图片文件
+     * @param targetDir   目标目录
+     * @param config      批量压缩配置
+     * @return 批量压缩结果，文件结果顺序与输入一致
+     */
+    public static BatchResult compressAll(List<File> sourceFiles, File targetDir, BatchConfig config) {
+        BatchResult batchResult = new BatchResult();
+        if (!targetDir.isDirectory() && !targetDir.mkdirs()) {
+            log.error("无法创建目标目录: {}", targetDir.getAbsolutePath());
+            return batchResult;
+        }
+
+        long start = System.nanoTime();
+        int threads = Math.max(1, config.getThreads());
+        MemoryBudget budget = new MemoryBudget(Math.max(1, config.getMemoryBudgetBytes()));
+
+        // 读取头部估算内存，不解码像素
+        List<FileResult> results = new ArrayList<>(sourceFiles.size());
+        Deque<FileResult> pending = new ArrayDeque<>();
+        for (File sourceFile : sourceFiles) {
+            FileResult result = new FileResult();
+            result.setSource(sourceFile);
+            result.setTarget(new File(targetDir, sourceFile.getName()));
+            result.setInputBytes(sourceFile.length());
+            long estimate = ImageCompress.estimateDecodeBytes(sourceFile, config.getMaxWidth(), config.getMaxHeight());
+            result.setEstimatedBytes(Math.max(estimate, sourceFile.length()));
+            results.add(result);
+            pending.add(result);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "image-batch-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            List<Future<?>> futures = new ArrayList<>(results.size());
+            while (!pending.isEmpty()) {
+                FileResult next = budget.admit(pending, threads);
+                futures.add(executor.submit(() -> {
+                    try {
+                        compressOne(next, config);
+                    } finally {
+                        budget.release(next.getEstimatedBytes());
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("批量压缩被中断", e);
+            executor.shutdownNow();
+        } catch (ExecutionException e) {
+            log.error("批量压缩任务异常", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        batchResult.setFiles(results);
+        for (FileResult result : results) {
+            if (result.isSuccess()) {
+                batchResult.setSucceeded(batchResult.getSucceeded() + 1);
+            } else {
+                batchResult.setFailed(batchResult.getFailed() + 1);
+            }
+            batchResult.setInputBytes(batchResult.getInputBytes() + result.getInputBytes());
+            batchResult.setOutputBytes(batchResult.getOutputBytes() + result.getOutputBytes());
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        double seconds = Math.max(elapsedNanos, 1) / 1_000_000_000.0;
+        batchResult.setElapsedMillis(TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        batchResult.setFilesPerSecond(results.size() / seconds);
+        batchResult.setInputMegabytesPerSecond(batchResult.getInputBytes() / 1024.0 / 1024.0 / seconds);
+        batchResult.setPeakReservedBytes(budget.getPeak());
+
+        log.info("批量压缩完成: 成功 {}, 失败 {}, 耗时 {} ms, {} 张/秒, 内存预留峰值 {} bytes",
+                batchResult.getSucceeded(), batchResult.getFailed(), batchResult.getElapsedMillis(),
+                String.format("%.2f", batchResult.getFilesPerSecond()), batchResult.getPeakReservedBytes());
+        return batchResult;
+    }
+
+    private static void compressOne(FileResult result, BatchConfig config) {
+        long start = System.nanoTime();
+        boolean success;
+        try {
+            success = ImageCompress.compress(result.getSource(), result.getTarget(),
+                    config.getQuality(), config.getMaxWidth(), config.getMaxHeight());
+        } catch (RuntimeException e) {
+            log.error("图片压缩异常: {}", result.getSource().getAbsolutePath(), e);
+            success = false;
+        }
+        result.setSuccess(success);
+        result.setOutputBytes(success ? result.getTarget().length() : 0);
+        result.setElapsedMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private static boolean isImageFile(String fileName) {
+        int index = fileName.lastIndexOf('.');
+        return index >= 0 && IMAGE_EXTENSIONS.contains(fileName.substring(index + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * 像素内存预算
+     * 单个文件的预估超过总预算时按总预算计，即独占执行
+     */
+    static class MemoryBudget {
+        private final long capacity;
+        private long reserved;
+        private long peak;
+        private int running;
+        private int headBypassed;
+
+        MemoryBudget(long capacity) {
+            this.capacity = capacity;
+        }
+
+        /**
+         * 从等待队列中取出下一个可执行的文件并预留内存，没有可执行的文件时阻塞等待
+         * 优先队首；队首内存不足时允许后面较小的文件越过，越过次数有上限
+         *
+         * @param pending    等待队列
+         * @param maxRunning 最大并行数
+         * @return 已预留内存的文件
+         */
+        synchronized FileResult admit(Deque<FileResult> pending, int maxRunning) throws InterruptedException {
+            while (true) {
+                if (running < maxRunning) {
+                    FileResult head = pending.peekFirst();
+                    if (tryReserve(head.getEstimatedBytes())) {
+                        headBypassed = 0;
+                        return pending.pollFirst();
+                    }
+                    if (headBypassed < MAX_BYPASS) {
+                        Iterator<FileResult> iterator = pending.iterator();
+                        iterator.next();
+                        while (iterator.hasNext()) {
+                            FileResult candidate = iterator.next();
+                            if (tryReserve(candidate.getEstimatedBytes())) {
+                                headBypassed++;
+                                iterator.remove();
+                                return candidate;
+                            }
+                        }
+                    }
+                }
+                wait();
+            }
+        }
+
+        synchronized void release(long bytes) {
+            reserved -= Math.min(bytes, capacity);
+            running--;
+            notifyAll();
+        }
+
+        synchronized long getPeak() {
+            return peak;
+        }
+
+        private boolean tryReserve(long bytes) {
+            long amount = Math.min(bytes, capacity);
+            if (reserved + amount > capacity) {
+                return false;
+            }
+            reserved += amount;
+            running++;
+            peak = Math.max(peak, reserved);
+            return true;
+        }
+    }
+
+}
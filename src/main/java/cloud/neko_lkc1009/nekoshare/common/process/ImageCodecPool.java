@@ -0,0 +1,289 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * ImageReader / ImageWriter 对象池
+ * 按格式分别维护有界池，避免每次编解码都进行 SPI 查找并创建新的编解码器。
+ * 池中实例都已借出时不等待，临时创建一个不入池的实例，归还时直接 dispose。
+ * 归还时调用 reset() 清理状态，失败的编解码器直接 dispose，不再复用。
+ */
+@Slf4j
+public class ImageCodecPool {
+    /**
+     * 默认每种格式的容量
+     */
+    private static final int DEFAULT_CAPACITY = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private static final ImageCodecPool SHARED = new ImageCodecPool(DEFAULT_CAPACITY);
+
+    private final int capacity;
+    private final ConcurrentMap<String, Slot<ImageReader>> readers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Slot<ImageWriter>> writers = new ConcurrentHashMap<>();
+
+    /**
+     * 池满时临时创建的实例，归还时直接 dispose，不占用名额
+     */
+    private final Set<Object> unpooled = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder overflows = new LongAdder();
+
+    /**
+     * 单个格式的池
+     */
+    private static class Slot<T> {
+        private final Semaphore permits;
+        private final ConcurrentLinkedDeque<T> idle = new ConcurrentLinkedDeque<>();
+
+        Slot(int capacity) {
+            this.permits = new Semaphore(capacity);
+        }
+    }
+
+    /**
+     * 编解码器创建函数
+     */
+    @FunctionalInterface
+    private interface CodecFactory<T> {
+        T create(String formatName) throws IOException;
+    }
+
+    /**
+     * 池统计信息
+     */
+    @Data
+    public static class PoolStats {
+        private long borrows;           // 借用次数
+        private long hits;              // 命中空闲实例次数
+        private long overflows;         // 池满时临时创建实例的次数（计为未命中）
+        private double hitRate;         // 命中率
+    }
+
+    /**
+     * @param capacity 每种格式最多缓存并同时借出的池内实例数
+     */
+    public ImageCodecPool(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * 全局共享的对象池
+     */
+    public static ImageCodecPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * 借用指定格式的 ImageReader
+     *
+     * @param formatName 图片格式
+     * @return 可用的 ImageReader
+     * @throws IOException 格式不支持
+     */
+    public ImageReader borrowReader(String formatName) throws IOException {
+        String format = normalizeFormat(formatName);
+        return borrow(readers.computeIfAbsent(format, key -> new Slot<>(capacity)), format, ImageCodecPool::createReader);
+    }
+
+    /**
+     * 归还 ImageReader
+     *
+     * @param formatName 图片格式
+     * @param reader     借出的 ImageReader
+     * @param reusable   是否可复用，使用过程中出错时应传 false
+     */
+    public void releaseReader(String formatName, ImageReader reader, boolean reusable) {
+        Slot<ImageReader> slot = readers.get(normalizeFormat(formatName));
+        if (slot == null || unpooled.remove(reader)) {
+            reader.dispose();
+            return;
+        }
+        if (reusable) {
+            try {
+                reader.reset();
+            } catch (RuntimeException e) {
+                log.warn("ImageReader 重置失败，丢弃: {}", e.getMessage());
+                reusable = false;
+            }
+        }
+        release(slot, reader, reusable, ImageReader::dispose);
+    }
+
+    /**
+     * 借用指定格式的 ImageWriter
+     *
+     * @param formatName 图片格式
+     * @return 可用的 ImageWriter
+     * @throws IOException 格式不支持
+     */
+    public ImageWriter borrowWriter(String formatName) throws IOException {
+        String format = normalizeFormat(formatName);
+        return borrow(writers.computeIfAbsent(format, key -> new Slot<>(capacity)), format, ImageCodecPool::createWriter);
+    }
+
+    /**
+     * 归还 ImageWriter
+     *
+     * @param formatName 图片格式
+     * @param writer     借出的 ImageWriter
+     * @param reusable   是否可复用，使用过程中出错时应传 false
+     */
+    public void releaseWriter(String formatName, ImageWriter writer, boolean reusable) {
+        Slot<ImageWriter> slot = writers.get(normalizeFormat(formatName));
+        if (slot == null || unpooled.remove(writer)) {
+            writer.dispose();
+            return;
+        }
+        if (reusable) {
+            try {
+                writer.reset();
+            } catch (RuntimeException e) {
+                log.warn("ImageWriter 重置失败，丢弃: {}", e.getMessage());
+                reusable = false;
+            }
+        }
+        release(slot, writer, reusable, ImageWriter::dispose);
+    }
+
+    /**
+     * 获取统计信息
+     */
+    public PoolStats getStats() {
+        PoolStats stats = new PoolStats();
+        long borrowCount = borrows.sum();
+        stats.setBorrows(borrowCount);
+        stats.setHits(hits.sum());
+        stats.setOverflows(overflows.sum());
+        stats.setHitRate(borrowCount == 0 ? 0 : (double) hits.sum() / borrowCount);
+        return stats;
+    }
+
+    private <T> T borrow(Slot<T> slot, String formatName, CodecFactory<T> factory) throws IOException {
+        if (!slot.permits.tryAcquire()) {
+            // 池内实例都已借出：临时创建，用完即丢弃，不让突发请求等待或失败
+            T codec = factory.create(formatName);
+            borrows.increment();
+            overflows.increment();
+            unpooled.add(codec);
+            return codec;
+        }
+
+        borrows.increment();
+        T codec = slot.idle.pollFirst();
+        if (codec != null) {
+            hits.increment();
+            return codec;
+        }
+        try {
+            return factory.create(formatName);
+        } catch (IOException | RuntimeException e) {
+            slot.permits.release();
+            throw e;
+        }
+    }
+
+    private <T> void release(Slot<T> slot, T codec, boolean reusable, Consumer<T> disposer) {
+        try {
+            if (reusable && slot.idle.size() < capacity) {
+                slot.idle.offerFirst(codec);
+            } else {
+                disposer.accept(codec);
+            }
+        } finally {
+            slot.permits.release();
+        }
+    }
+
+    private static ImageReader createReader(String formatName) throws IOException {
+        Iterator<ImageReader> iterator = ImageIO.getImageReadersByFormatName(formatName);
+        if (!iterator.hasNext()) {
+            throw new IIOException("不支持的图片格式: " + formatName);
+        }
+        return iterator.next();
+    }
+
+    private static ImageWriter createWriter(String formatName) throws IOException {
+        Iterator<ImageWriter> iterator = ImageIO.getImageWritersByFormatName(formatName);
+        if (!iterator.hasNext()) {
+            throw new IIOException("不支持的图片格式: " + formatName);
+        }
+        return iterator.next();
+    }
+
+    /**
+     * 统一格式名称，jpeg 统一为 jpg
+     */
+    static String normalizeFormat(String formatName) {
+        String format = formatName == null ? "" : formatName.toLowerCase(Locale.ROOT);
+        return "jpeg".equals(format) ? "jpg" : format;
+    }
+
+    /**
+     * 根据文件头魔数识别图片格式，不移动流位置
+     *
+     * @param inputStream 图片输入流
+     * @return 图片格式，无法识别时返回 null
+     */
+    static String sniffFormat(ImageInputStream inputStream) throws IOException {
+        byte[] header = new byte[12];
+        inputStream.mark();
+        int length;
+        try {
+            length = inputStream.read(header);
+        } finally {
+            inputStream.reset();
+        }
+        return sniffFormat(header, Math.max(length, 0));
+    }
+
+    /**
+     * 根据文件头魔数识别图片格式
+     *
+     * @param header 文件头字节
+     * @param length 有效长度
+     * @return 图片格式，无法识别时返回 null
+     */
+    static String sniffFormat(byte[] header, int length) {
+        if (length >= 3 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == 0xD8 && (header[2] & 0xFF) == 0xFF) {
+            return "jpg";
+        }
+        if (length >= 8 && (header[0] & 0xFF) == 0x89 && header[1] == 'P' && header[2] == 'N' && header[3] == 'G'
+                && header[4] == 0x0D && header[5] == 0x0A && header[6] == 0x1A && header[7] == 0x0A) {
+            return "png";
+        }
+        if (length >= 4 && header[0] == 'G' && header[1] == 'I' && header[2] == 'F' && header[3] == '8') {
+            return "gif";
+        }
+        if (length >= 2 && header[0] == 'B' && header[1] == 'M') {
+            return "bmp";
+        }
+        if (length >= 4 && ((header[0] == 'I' && header[1] == 'I' && header[2] == 42 && header[3] == 0)
+                || (header[0] == 'M' && header[1] == 'M' && header[2] == 0 && header[3] == 42))) {
+            return "tiff";
+        }
+        return null;
+    }
+
+}
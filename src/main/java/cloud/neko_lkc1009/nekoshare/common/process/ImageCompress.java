@@ -4,13 +4,19 @@ import lombok.extern.slf4j.Slf4j;
 
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.ImageOutputStream;
-import java.awt.*;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * 图片压缩工具类
@@ -38,6 +44,26 @@ public class ImageCompress {
      */
     private static final long DEFAULT_MAX_FILE_SIZE = 5 * 1024 * 1024;
 
+    /**
+     * 按大小压缩时的最低质量
+     */
+    private static final float MIN_QUALITY = 0.05f;
+
+    /**
+     * 按大小压缩时质量二分查找的次数
+     */
+    private static final int QUALITY_SEARCH_STEPS = 6;
+
+    /**
+     * 质量无法满足大小限制时，每轮缩小尺寸的比例
+     */
+    private static final double SIZE_SHRINK_RATIO = 0.8;
+
+    /**
+     * 按大小压缩时允许缩小到的最小边长 (像素)
+     */
+    private static final int MIN_DIMENSION = 32;
+
     /**
      * 使用默认配置压缩图片
      *
@@ -68,13 +94,25 @@ public class ImageCompress {
      * @return 是否压缩成功
      */
     public static boolean compressIfNeeded(File sourceFile, File targetFile) {
+        return compressIfNeeded(sourceFile, targetFile, FilePassthrough.Mode.COPY);
+    }
+
+    /**
+     * 根据文件大小自动判断是否需要压缩，未超过限制时按指定方式直通
+     *
+     * @param sourceFile      源图片文件
+     * @param targetFile      目标图片文件
+     * @param passthroughMode 未超过限制时的直通方式
+     * @return 是否压缩成功
+     */
+    public static boolean compressIfNeeded(File sourceFile, File targetFile, FilePassthrough.Mode passthroughMode) {
         if (sourceFile.length() > DEFAULT_MAX_FILE_SIZE) {
             log.info("文件大小超过限制，开始压缩: {} bytes", sourceFile.length());
-            return compress(sourceFile, targetFile);
+            return compressToSize(sourceFile, targetFile, DEFAULT_MAX_FILE_SIZE);
         } else {
             log.info("文件大小未超过限制，跳过压缩: {} bytes", sourceFile.length());
             try {
-                copyFile(sourceFile, targetFile);
+                FilePassthrough.transfer(sourceFile.toPath(), targetFile.toPath(), passthroughMode);
                 return true;
             } catch (IOException e) {
                 log.error("文件复制失败", e);
@@ -83,6 +121,75 @@ public class ImageCompress {
         }
     }
 
+    /**
+     * 压缩图片直到文件大小不超过限制
+     * 只解码一次，在内存中对缩放后的图片二分查找压缩质量；
+     * 最低质量仍超出限制时逐步缩小尺寸
+     *
+     * @param sourceFile 源图片文件
+     * @param targetFile 目标图片文件
+     * @param maxBytes   最大文件大小 (字节)
+     * @return 是否压缩成功并满足大小限制
+     */
+    public static boolean compressToSize(File sourceFile, File targetFile, long maxBytes) {
+        try (ImageInputStream inputStream = new FileImageInputStream(sourceFile)) {
+            BufferedImage scaledImage = readScaled(inputStream,
+                    (width, height) -> calculateNewSize(width, height, DEFAULT_MAX_WIDTH, DEFAULT_MAX_HEIGHT),
+                    ImageResampler.Strategy.AUTO);
+            if (scaledImage == null) {
+                log.error("无法读取图片文件: {}", sourceFile.getAbsolutePath());
+                return false;
+            }
+
+            ByteArrayOutputStream result = encodeToSize(scaledImage, getImageFormat(sourceFile), maxBytes);
+            if (result == null) {
+                log.error("无法将图片压缩到 {} bytes 以内: {}", maxBytes, sourceFile.getAbsolutePath());
+                return false;
+            }
+
+            try (OutputStream outputStream = new FileOutputStream(targetFile)) {
+                result.writeTo(outputStream);
+            }
+            log.info("按大小压缩完成: {} -> {} bytes", sourceFile.length(), result.size());
+            return true;
+
+        } catch (IOException e) {
+            log.error("图片按大小压缩失败: {}", sourceFile.getAbsolutePath(), e);
+            return false;
+        }
+    }
+
+    /**
+     * 压缩字节数组格式的图片直到大小不超过限制
+     *
+     * @param imageBytes 源图片字节数组
+     * @param formatName 图片格式
+     * @param maxBytes   最大大小 (字节)
+     * @return 压缩后的字节数组，无法满足限制时返回 null
+     */
+    public static byte[] compressToSize(byte[] imageBytes, String formatName, long maxBytes) {
+        try (ImageInputStream inputStream = new MemoryCacheImageInputStream(new ByteArrayInputStream(imageBytes))) {
+            BufferedImage scaledImage = readScaled(inputStream,
+                    (width, height) -> calculateNewSize(width, height, DEFAULT_MAX_WIDTH, DEFAULT_MAX_HEIGHT),
+                    ImageResampler.Strategy.AUTO);
+            if (scaledImage == null) {
+                log.error("无法读取图片字节数组");
+                return null;
+            }
+
+            ByteArrayOutputStream result = encodeToSize(scaledImage, formatName, maxBytes);
+            if (result == null) {
+                log.error("无法将图片压缩到 {} bytes 以内", maxBytes);
+                return null;
+            }
+            return result.toByteArray();
+
+        } catch (IOException e) {
+            log.error("图片按大小压缩失败", e);
+            return null;
+        }
+    }
+
     /**
      * 自定义压缩质量的压缩方法
      *
@@ -106,26 +213,38 @@ public class ImageCompress {
      * @return 是否压缩成功
      */
     public static boolean compress(File sourceFile, File targetFile, float quality, int maxWidth, int maxHeight) {
-        try (InputStream inputStream = new FileInputStream(sourceFile);
-             OutputStream outputStream = new FileOutputStream(targetFile)) {
+        return compress(sourceFile, targetFile, quality, maxWidth, maxHeight, ImageResampler.Strategy.AUTO);
+    }
 
-            BufferedImage sourceImage = ImageIO.read(inputStream);
-            if (sourceImage == null) {
+    /**
+     * 指定重采样策略的压缩方法
+     *
+     * @param sourceFile 源图片文件
+     * @param targetFile 目标图片文件
+     * @param quality    压缩质量 (0.0-1.0)
+     * @param maxWidth   最大宽度
+     * @param maxHeight  最大高度
+     * @param strategy   重采样策略
+     * @return 是否压缩成功
+     */
+    public static boolean compress(File sourceFile, File targetFile, float quality, int maxWidth, int maxHeight,
+                                   ImageResampler.Strategy strategy) {
+        try (ImageInputStream inputStream = new FileImageInputStream(sourceFile)) {
+            // 先读取头部尺寸，按目标尺寸子采样解码后再缩放
+            BufferedImage scaledImage = readScaled(inputStream,
+                    (width, height) -> calculateNewSize(width, height, maxWidth, maxHeight), strategy);
+            if (scaledImage == null) {
                 log.error("无法读取图片文件: {}", sourceFile.getAbsolutePath());
                 return false;
             }
 
-            // 计算压缩后的尺寸
-            int[] newSize = calculateNewSize(sourceImage.getWidth(), sourceImage.getHeight(), maxWidth, maxHeight);
-
-            // 缩放图片
-            BufferedImage scaledImage = scaleImage(sourceImage, newSize[0], newSize[1]);
-
             // 获取图片格式
-            String formatName = getImageFormat(sourceFile.getName());
+            String formatName = getImageFormat(sourceFile);
 
             // 压缩并写入文件
-            return compressAndWrite(scaledImage, outputStream, formatName, quality);
+            try (OutputStream outputStream = new FileOutputStream(targetFile)) {
+                return compressAndWrite(scaledImage, outputStream, formatName, quality);
+            }
 
         } catch (IOException e) {
             log.error("图片压缩失败: {}", sourceFile.getAbsolutePath(), e);
@@ -133,6 +252,32 @@ public class ImageCompress {
         }
     }
 
+    /**
+     * 使用衍生文件缓存的压缩方法，相同源文件和参数再次压缩时直接复制缓存结果
+     *
+     * @param sourceFile 源图片文件
+     * @param targetFile 目标图片文件
+     * @param quality    压缩质量 (0.0-1.0)
+     * @param maxWidth   最大宽度
+     * @param maxHeight  最大高度
+     * @param cache      衍生文件缓存
+     * @return 是否压缩成功
+     */
+    public static boolean compress(File sourceFile, File targetFile, float quality, int maxWidth, int maxHeight,
+                                   DerivativeCache cache) {
+        if (!sourceFile.isFile()) {
+            log.error("源文件不存在: {}", sourceFile.getAbsolutePath());
+            return false;
+        }
+        try {
+            return cache.getOrCreate(sourceFile.toPath(), "image-compress", List.of(quality, maxWidth, maxHeight),
+                    targetFile.toPath(), output -> compress(sourceFile, output.toFile(), quality, maxWidth, maxHeight));
+        } catch (IOException e) {
+            log.error("读写衍生文件缓存失败: {}", sourceFile.getAbsolutePath(), e);
+            return false;
+        }
+    }
+
     /**
      * 压缩字节数组格式的图片
      *
@@ -144,21 +289,33 @@ public class ImageCompress {
      * @return 压缩后的字节数组
      */
     public static byte[] compress(byte[] imageBytes, String formatName, float quality, int maxWidth, int maxHeight) {
-        try (ByteArrayInputStream inputStream = new ByteArrayInputStream(imageBytes);
+        return compress(imageBytes, formatName, quality, maxWidth, maxHeight, ImageResampler.Strategy.AUTO);
+    }
+
+    /**
+     * 指定重采样策略压缩字节数组格式的图片
+     *
+     * @param imageBytes 源图片字节数组
+     * @param formatName 图片格式
+     * @param quality    压缩质量 (0.0-1.0)
+     * @param maxWidth   最大宽度
+     * @param maxHeight  最大高度
+     * @param strategy   重采样策略
+     * @return 压缩后的字节数组
+     */
+    public static byte[] compress(byte[] imageBytes, String formatName, float quality, int maxWidth, int maxHeight,
+                                  ImageResampler.Strategy strategy) {
+        try (ImageInputStream inputStream = new MemoryCacheImageInputStream(new ByteArrayInputStream(imageBytes));
              ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
 
-            BufferedImage sourceImage = ImageIO.read(inputStream);
-            if (sourceImage == null) {
+            // 先读取头部尺寸，按目标尺寸子采样解码后再缩放
+            BufferedImage scaledImage = readScaled(inputStream,
+                    (width, height) -> calculateNewSize(width, height, maxWidth, maxHeight), strategy);
+            if (scaledImage == null) {
                 log.error("无法读取图片字节数组");
                 return null;
             }
 
-            // 计算压缩后的尺寸
-            int[] newSize = calculateNewSize(sourceImage.getWidth(), sourceImage.getHeight(), maxWidth, maxHeight);
-
-            // 缩放图片
-            BufferedImage scaledImage = scaleImage(sourceImage, newSize[0], newSize[1]);
-
             // 压缩并写入流
             if (compressAndWrite(scaledImage, outputStream, formatName, quality)) {
                 return outputStream.toByteArray();
@@ -180,22 +337,19 @@ public class ImageCompress {
      * @return 是否压缩成功
      */
     public static boolean compressByScale(File sourceFile, File targetFile, float scale) {
-        try (InputStream inputStream = new FileInputStream(sourceFile);
-             OutputStream outputStream = new FileOutputStream(targetFile)) {
-
-            BufferedImage sourceImage = ImageIO.read(inputStream);
-            if (sourceImage == null) {
+        try (ImageInputStream inputStream = new FileImageInputStream(sourceFile)) {
+            BufferedImage scaledImage = readScaled(inputStream,
+                    (width, height) -> new int[]{(int) (width * scale), (int) (height * scale)},
+                    ImageResampler.Strategy.AUTO);
+            if (scaledImage == null) {
                 log.error("无法读取图片文件: {}", sourceFile.getAbsolutePath());
                 return false;
             }
 
-            int newWidth = (int) (sourceImage.getWidth() * scale);
-            int newHeight = (int) (sourceImage.getHeight() * scale);
-
-            BufferedImage scaledImage = scaleImage(sourceImage, newWidth, newHeight);
-
-            String formatName = getImageFormat(sourceFile.getName());
-            return compressAndWrite(scaledImage, outputStream, formatName, DEFAULT_QUALITY);
+            String formatName = getImageFormat(sourceFile);
+            try (OutputStream outputStream = new FileOutputStream(targetFile)) {
+                return compressAndWrite(scaledImage, outputStream, formatName, DEFAULT_QUALITY);
+            }
 
         } catch (IOException e) {
             log.error("图片按比例压缩失败: {}", sourceFile.getAbsolutePath(), e);
@@ -212,7 +366,7 @@ public class ImageCompress {
      * @param maxHeight      最大高度
      * @return 新的尺寸 [宽度, 高度]
      */
-    private static int[] calculateNewSize(int originalWidth, int originalHeight, int maxWidth, int maxHeight) {
+    static int[] calculateNewSize(int originalWidth, int originalHeight, int maxWidth, int maxHeight) {
         int newWidth = originalWidth;
         int newHeight = originalHeight;
 
@@ -230,31 +384,142 @@ public class ImageCompress {
     }
 
     /**
-     * 缩放图片
+     * 目标尺寸计算函数
+     */
+    @FunctionalInterface
+    interface SizeCalculator {
+        /**
+         * @param width  原始宽度
+         * @param height 原始高度
+         * @return 目标尺寸 [宽度, 高度]
+         */
+        int[] calculate(int width, int height);
+    }
+
+    /**
+     * 读取并缩放图片
+     * 先从 ImageReader 头部读取原始尺寸，再按整数步长进行源子采样解码，
+     * 使解码后的尺寸不小于目标尺寸，最后重采样到目标尺寸。
+     * 大图只解码接近目标尺寸的像素，避免整张原图进入堆内存。
      *
-     * @param sourceImage  源图片
-     * @param targetWidth  目标宽度
-     * @param targetHeight 目标高度
-     * @return 缩放后的图片
+     * @param inputStream    图片输入流
+     * @param sizeCalculator 根据原始尺寸计算目标尺寸
+     * @param strategy       重采样策略
+     * @return 缩放后的图片，无法识别格式时返回 null
      */
-    private static BufferedImage scaleImage(BufferedImage sourceImage, int targetWidth, int targetHeight) {
-        // 如果尺寸相同，直接返回原图
-        if (sourceImage.getWidth() == targetWidth && sourceImage.getHeight() == targetHeight) {
-            return sourceImage;
+    static BufferedImage readScaled(ImageInputStream inputStream, SizeCalculator sizeCalculator,
+                                    ImageResampler.Strategy strategy) throws IOException {
+        if (inputStream == null) {
+            return null;
         }
 
-        BufferedImage scaledImage = new BufferedImage(targetWidth, targetHeight, BufferedImage.TYPE_INT_RGB);
-        Graphics2D graphics = scaledImage.createGraphics();
+        // 已知格式从对象池借用解码器
+        String formatName = ImageCodecPool.sniffFormat(inputStream);
+        if (formatName != null) {
+            ImageCodecPool codecPool = ImageCodecPool.shared();
+            ImageReader reader = codecPool.borrowReader(formatName);
+            boolean reusable = false;
+            Decoded decoded;
+            try {
+                decoded = decode(reader, inputStream, sizeCalculator);
+                reusable = true;
+            } finally {
+                // 解码完成即归还，重采样期间不占用解码器
+                codecPool.releaseReader(formatName, reader, reusable);
+            }
+            return ImageResampler.resample(decoded.image(), decoded.width(), decoded.height(), strategy);
+        }
 
-        // 设置高质量渲染
-        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-        graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        // 未知格式回退到 SPI 查找
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(inputStream);
+        if (!readers.hasNext()) {
+            return null;
+        }
+        ImageReader reader = readers.next();
+        Decoded decoded;
+        try {
+            decoded = decode(reader, inputStream, sizeCalculator);
+        } finally {
+            reader.dispose();
+        }
+        return ImageResampler.resample(decoded.image(), decoded.width(), decoded.height(), strategy);
+    }
+
+    /**
+     * 子采样解码后的图片及重采样的目标尺寸
+     */
+    private record Decoded(BufferedImage image, int width, int height) {
+    }
+
+    /**
+     * 使用指定解码器按目标尺寸子采样解码
+     */
+    private static Decoded decode(ImageReader reader, ImageInputStream inputStream,
+                                  SizeCalculator sizeCalculator) throws IOException {
+        reader.setInput(inputStream, true, true);
+        int sourceWidth = reader.getWidth(0);
+        int sourceHeight = reader.getHeight(0);
+        int[] newSize = sizeCalculator.calculate(sourceWidth, sourceHeight);
+
+        ImageReadParam param = reader.getDefaultReadParam();
+        int subsampling = calculateSubsampling(sourceWidth, sourceHeight, newSize[0], newSize[1]);
+        if (subsampling > 1) {
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+
+        return new Decoded(reader.read(0, param), newSize[0], newSize[1]);
+    }
+
+    /**
+     * 计算源子采样步长
+     * 取宽高两个方向可整除步长的较小值，保证子采样后的尺寸不小于目标尺寸
+     *
+     * @param sourceWidth  原始宽度
+     * @param sourceHeight 原始高度
+     * @param targetWidth  目标宽度
+     * @param targetHeight 目标高度
+     * @return 子采样步长，1 表示完整解码
+     */
+    static int calculateSubsampling(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight) {
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return 1;
+        }
+        return Math.max(1, Math.min(sourceWidth / targetWidth, sourceHeight / targetHeight));
+    }
 
-        graphics.drawImage(sourceImage, 0, 0, targetWidth, targetHeight, null);
-        graphics.dispose();
+    /**
+     * 根据图片头部估算压缩过程占用的像素内存
+     * 只读取头部尺寸，不解码像素
+     *
+     * @param sourceFile 源图片文件
+     * @param maxWidth   最大宽度
+     * @param maxHeight  最大高度
+     * @return 估算的字节数，无法读取头部时返回 -1
+     */
+    static long estimateDecodeBytes(File sourceFile, int maxWidth, int maxHeight) {
+        ImageMetadata.Info info = ImageMetadata.probe(sourceFile);
+        if (info == null) {
+            return -1;
+        }
+        return estimateDecodeBytes(info.getWidth(), info.getHeight(), maxWidth, maxHeight);
+    }
 
-        return scaledImage;
+    /**
+     * 根据原始尺寸估算压缩过程占用的像素内存
+     * 包括子采样解码结果、缩放结果以及缩放过程中的中间结果，按每像素 4 字节计算
+     *
+     * @param width     原始宽度
+     * @param height    原始高度
+     * @param maxWidth  最大宽度
+     * @param maxHeight 最大高度
+     * @return 估算的字节数
+     */
+    static long estimateDecodeBytes(int width, int height, int maxWidth, int maxHeight) {
+        int[] newSize = calculateNewSize(width, height, maxWidth, maxHeight);
+        int subsampling = calculateSubsampling(width, height, newSize[0], newSize[1]);
+        long decodedPixels = (long) ((width + subsampling - 1) / subsampling) * ((height + subsampling - 1) / subsampling);
+        long scaledPixels = (long) newSize[0] * newSize[1];
+        return (decodedPixels + scaledPixels * 2) * 4;
     }
 
     /**
@@ -266,86 +531,125 @@ public class ImageCompress {
      * @param quality      压缩质量 (0.0-1.0)
      * @return 是否成功
      */
-    private static boolean compressAndWrite(BufferedImage image, OutputStream outputStream,
-                                            String formatName, float quality) throws IOException {
-        // PNG格式不支持质量压缩，直接写入
-        if ("png".equalsIgnoreCase(formatName)) {
-            return ImageIO.write(image, formatName, outputStream);
-        }
+    static boolean compressAndWrite(BufferedImage image, OutputStream outputStream,
+                                    String formatName, float quality) throws IOException {
+        String format = ImageCodecPool.normalizeFormat(formatName);
+        ImageCodecPool codecPool = ImageCodecPool.shared();
+        ImageWriter writer = codecPool.borrowWriter(format);
+        boolean reusable = false;
+
+        try (ImageOutputStream imageOutputStream = new MemoryCacheImageOutputStream(outputStream)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+
+            // PNG格式不支持质量压缩，使用默认参数；JPG等格式使用质量压缩
+            if (!"png".equals(format) && param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(quality);
+            }
 
-        // 对于JPG等格式，使用质量压缩
-        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(formatName);
-        if (!writers.hasNext()) {
-            log.error("不支持的图片格式: {}", formatName);
-            return false;
+            writer.setOutput(imageOutputStream);
+            writer.write(null, new IIOImage(image, null, null), param);
+            reusable = true;
+            return true;
+        } finally {
+            // 失败的编码器直接释放，不再放回池中
+            codecPool.releaseWriter(format, writer, reusable);
         }
+    }
 
-        ImageWriter writer = writers.next();
-        ImageWriteParam param = writer.getDefaultWriteParam();
+    /**
+     * 在内存中编码，直到结果不超过大小限制
+     * 先以默认质量编码，超出时在 [MIN_QUALITY, DEFAULT_QUALITY] 内二分查找满足限制的最高质量；
+     * PNG 或最低质量仍超出时按比例缩小尺寸后重试。两个缓冲区交替复用，不重复解码。
+     *
+     * @param image      已缩放的图片
+     * @param formatName 图片格式
+     * @param maxBytes   最大大小 (字节)
+     * @return 满足限制的编码结果，尺寸缩小到下限仍无法满足时返回 null
+     */
+    private static ByteArrayOutputStream encodeToSize(BufferedImage image, String formatName, long maxBytes) throws IOException {
+        boolean qualityAdjustable = !"png".equals(ImageCodecPool.normalizeFormat(formatName));
+        ByteArrayOutputStream best = new ByteArrayOutputStream();
+        ByteArrayOutputStream attempt = new ByteArrayOutputStream();
+        BufferedImage current = image;
+
+        while (true) {
+            best.reset();
+            compressAndWrite(current, best, formatName, DEFAULT_QUALITY);
+            if (best.size() <= maxBytes) {
+                return best;
+            }
 
-        if (param.canWriteCompressed()) {
-            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-            param.setCompressionQuality(quality);
-        }
+            if (qualityAdjustable) {
+                best.reset();
+                compressAndWrite(current, best, formatName, MIN_QUALITY);
+                if (best.size() <= maxBytes) {
+                    // 二分查找满足限制的最高质量
+                    float low = MIN_QUALITY;
+                    float high = DEFAULT_QUALITY;
+                    for (int i = 0; i < QUALITY_SEARCH_STEPS; i++) {
+                        float quality = (low + high) / 2;
+                        attempt.reset();
+                        compressAndWrite(current, attempt, formatName, quality);
+                        if (attempt.size() <= maxBytes) {
+                            low = quality;
+                            ByteArrayOutputStream swap = best;
+                            best = attempt;
+                            attempt = swap;
+                        } else {
+                            high = quality;
+                        }
+                    }
+                    log.debug("按大小压缩: 尺寸 {}x{}, 质量 {}", current.getWidth(), current.getHeight(), low);
+                    return best;
+                }
+            }
 
-        try (ImageOutputStream imageOutputStream = ImageIO.createImageOutputStream(outputStream)) {
-            writer.setOutput(imageOutputStream);
-            writer.write(null, new IIOImage(image, null, null), param);
-            writer.dispose();
-            return true;
+            // 质量无法满足限制，缩小尺寸
+            int width = (int) (current.getWidth() * SIZE_SHRINK_RATIO);
+            int height = (int) (current.getHeight() * SIZE_SHRINK_RATIO);
+            if (width < MIN_DIMENSION || height < MIN_DIMENSION) {
+                return null;
+            }
+            current = ImageResampler.resample(current, width, height);
         }
     }
 
     /**
      * 获取图片格式
+     * 优先根据文件头魔数识别，无法识别时使用扩展名
      *
-     * @param fileName 文件名
+     * @param file 图片文件
      * @return 图片格式
      */
-    private static String getImageFormat(String fileName) {
+    private static String getImageFormat(File file) {
+        ImageMetadata.Info info = ImageMetadata.probe(file);
+        if (info != null) {
+            return info.getFormat();
+        }
+        String fileName = file.getName();
         String extension = fileName.substring(fileName.lastIndexOf('.') + 1).toLowerCase();
         // 将jpeg统一转换为jpg
         return "jpeg".equals(extension) ? "jpg" : extension;
     }
 
-    /**
-     * 复制文件
-     *
-     * @param source 源文件
-     * @param target 目标文件
-     */
-    private static void copyFile(File source, File target) throws IOException {
-        try (InputStream in = new FileInputStream(source);
-             OutputStream out = new FileOutputStream(target)) {
-            byte[] buffer = new byte[8192];
-            int length;
-            while ((length = in.read(buffer)) > 0) {
-                out.write(buffer, 0, length);
-            }
-        }
-    }
-
     /**
      * 获取图片信息
+     * 只读取文件头，不解码像素
      *
      * @param imageFile 图片文件
      * @return 图片信息字符串
      */
     public static String getImageInfo(File imageFile) {
-        try (InputStream inputStream = new FileInputStream(imageFile)) {
-            BufferedImage image = ImageIO.read(inputStream);
-            if (image == null) {
-                return "无法读取图片信息";
-            }
-            return String.format("文件大小: %d bytes, 宽度: %d, 高度: %d, 格式: %s",
-                    imageFile.length(),
-                    image.getWidth(),
-                    image.getHeight(),
-                    getImageFormat(imageFile.getName()));
-        } catch (IOException e) {
-            log.error("获取图片信息失败", e);
-            return "获取图片信息失败: " + e.getMessage();
+        ImageMetadata.Info info = ImageMetadata.probe(imageFile);
+        if (info == null) {
+            return "无法读取图片信息";
         }
+        return String.format("文件大小: %d bytes, 宽度: %d, 高度: %d, 格式: %s",
+                info.getFileSize(),
+                info.getWidth(),
+                info.getHeight(),
+                info.getFormat());
     }
 
 }
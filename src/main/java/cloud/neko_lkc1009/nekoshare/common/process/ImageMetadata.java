@@ -0,0 +1,153 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 图片元数据探测
+ * 只读取文件头获取宽高，格式根据魔数识别而不是扩展名；
+ * 结果按路径缓存，文件大小或修改时间变化后重新探测
+ */
+@Slf4j
+public class ImageMetadata {
+    /**
+     * 最多缓存的条目数
+     */
+    private static final int MAX_ENTRIES = 4096;
+
+    private static final Map<String, Info> CACHE = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Info> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            });
+
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+
+    /**
+     * 图片元数据
+     */
+    @Data
+    public static class Info {
+        private int width;
+        private int height;
+        private String format;      // 根据魔数识别的格式
+        private long fileSize;
+        private long lastModified;
+    }
+
+    /**
+     * 探测图片元数据，不解码像素
+     *
+     * @param imageFile 图片文件
+     * @return 元数据，文件不存在或无法识别时返回 null
+     */
+    public static Info probe(File imageFile) {
+        if (!imageFile.isFile()) {
+            return null;
+        }
+        String path = imageFile.getAbsolutePath();
+        long fileSize = imageFile.length();
+        long lastModified = imageFile.lastModified();
+
+        Info cached = CACHE.get(path);
+        if (cached != null && cached.getFileSize() == fileSize && cached.getLastModified() == lastModified) {
+            HITS.increment();
+            return cached;
+        }
+        MISSES.increment();
+
+        try (ImageInputStream inputStream = new FileImageInputStream(imageFile)) {
+            Info info = probe(inputStream);
+            if (info == null) {
+                return null;
+            }
+            info.setFileSize(fileSize);
+            info.setLastModified(lastModified);
+            CACHE.put(path, info);
+            return info;
+        } catch (IOException e) {
+            log.warn("读取图片头部失败: {}", path);
+            return null;
+        }
+    }
+
+    /**
+     * 从输入流读取图片头部
+     *
+     * @param inputStream 图片输入流
+     * @return 元数据（不含文件大小和修改时间），无法识别时返回 null
+     */
+    static Info probe(ImageInputStream inputStream) throws IOException {
+        String formatName = ImageCodecPool.sniffFormat(inputStream);
+        if (formatName != null) {
+            ImageCodecPool codecPool = ImageCodecPool.shared();
+            ImageReader reader = codecPool.borrowReader(formatName);
+            boolean reusable = false;
+            try {
+                Info info = readHeader(reader, inputStream, formatName);
+                reusable = true;
+                return info;
+            } finally {
+                codecPool.releaseReader(formatName, reader, reusable);
+            }
+        }
+
+        // 未知格式回退到 SPI 查找
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(inputStream);
+        if (!readers.hasNext()) {
+            return null;
+        }
+        ImageReader reader = readers.next();
+        try {
+            return readHeader(reader, inputStream, ImageCodecPool.normalizeFormat(reader.getFormatName()));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * 缓存命中次数
+     */
+    public static long getHits() {
+        return HITS.sum();
+    }
+
+    /**
+     * 缓存未命中次数
+     */
+    public static long getMisses() {
+        return MISSES.sum();
+    }
+
+    /**
+     * 清空缓存
+     */
+    public static void clearCache() {
+        CACHE.clear();
+    }
+
+    private static Info readHeader(ImageReader reader, ImageInputStream inputStream, String formatName) throws IOException {
+        reader.setInput(inputStream, true, true);
+        Info info = new Info();
+        info.setWidth(reader.getWidth(0));
+        info.setHeight(reader.getHeight(0));
+        info.setFormat(formatName);
+        return info;
+    }
+
+}
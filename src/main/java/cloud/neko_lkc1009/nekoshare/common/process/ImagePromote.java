@@ -4,18 +4,25 @@ import lombok.Data;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.io.BufferedReader;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 /**
  * 图片超分辨率提升工具类
@@ -24,12 +31,52 @@ import java.util.List;
 @Slf4j
 @Component
 public class ImagePromote {
+    /**
+     * 可用性检测超时时间 (毫秒)
+     */
+    private static final long AVAILABILITY_TIMEOUT_MILLIS = 10_000;
+
+    /**
+     * waifu2x 不可用时重新检测的间隔 (毫秒)
+     */
+    private static final long AVAILABILITY_RECHECK_MILLIS = 60_000;
+
     @Value("${waifu2x.executable.path:waifu2x-ncnn-vulkan}")
     private String waifu2xExecutablePath;
 
     @Value("${waifu2x.model.path:models}")
     private String modelPath;
 
+    @Value("${waifu2x.fallback.enabled:true}")
+    private boolean fallbackEnabled = true;
+
+    @Autowired(required = false)
+    private DerivativeCache derivativeCache;
+
+    private ProcessRunner processRunner = ProcessRunner.shared();
+
+    @Autowired(required = false)
+    private ProcessScheduler processScheduler;
+
+    @Autowired(required = false)
+    private Waifu2xTuner waifu2xTuner;
+
+    /**
+     * waifu2x 可用性检测结果：可用的结果一直保留；不可用时到 waifu2xRecheckAt 后重新检测，
+     * 避免一次偶发失败（驱动异常、检测超时）让节点永久使用兜底
+     */
+    private volatile boolean waifu2xAvailable;
+
+    /**
+     * 下次检测 waifu2x 可用性的时间 (System.currentTimeMillis)，0 表示尚未检测
+     */
+    private volatile long waifu2xRecheckAt;
+
+    /**
+     * waifu2x -v 模式下每个文件完成时的输出，第一组为输出路径
+     */
+    private static final Pattern DONE_PATTERN = Pattern.compile(".* -> (.+) done\\s*");
+
     /**
      * 降噪级别枚举
      */
@@ -58,8 +105,19 @@ public class ImagePromote {
         private Integer scale = 2;                          // 默认2倍放大
         private NoiseLevel noiseLevel = NoiseLevel.LOW; // 默认低降噪
         private Integer tileSize = 0;                       // 分块大小，0为自动
+        @DerivativeCache.IgnoredInKey
+        private String threads;                          // 线程布局 load:proc:save，为空时使用调优结果
+        @DerivativeCache.IgnoredInKey
+        private Integer gpuId;                           // 设备编号，-1 为 CPU，为空时使用调优结果
         private String format = "png";                   // 输出格式
+        @DerivativeCache.IgnoredInKey
         private Boolean verbose = false;                 // 是否输出详细日志
+        @DerivativeCache.IgnoredInKey
+        private Integer timeoutSeconds = 0;              // 超时时间（秒），0 表示不限制
+        @DerivativeCache.IgnoredInKey
+        private Integer priority = 0;                    // 排队优先级，越大越先执行
+        @DerivativeCache.IgnoredInKey
+        private String owner;                            // 请求方，排队时同一优先级内轮流执行
 
         public void setScale(Integer scale) {
             if (scale <= 0 || scale > 4) {
@@ -70,6 +128,137 @@ public class ImagePromote {
 
     }
 
+    /**
+     * 批量处理中单个文件的结果
+     */
+    @Data
+    public static class FileResult {
+        private Path input;
+        private Path output;
+        private boolean success;
+        private long elapsedMillis;    // 距上一个文件完成（或批次开始）的时间
+        private long finishedAtMillis; // 距批次开始的时间
+    }
+
+    /**
+     * 批量处理结果
+     */
+    @Data
+    public static class BatchResult {
+        private int total;
+        private int succeeded;
+        private int failed;
+        private long elapsedMillis;
+        private Map<String, FileResult> files = new LinkedHashMap<>(); // 按输入文件名，顺序与处理顺序一致
+    }
+
+    /**
+     * 批量处理实时进度
+     * 由处理线程更新，可在其他线程中读取；每个文件完成时回调监听器
+     */
+    public static class BatchProgress {
+        private final Consumer<FileResult> listener;
+        private final Map<Path, FileResult> results = new ConcurrentHashMap<>();
+        private final AtomicInteger succeeded = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private volatile List<Path> inputs = List.of();
+        private volatile boolean finished;
+        private long startNanos = System.nanoTime();
+        private long lastNanos = startNanos;
+
+        public BatchProgress() {
+            this(null);
+        }
+
+        /**
+         * @param listener 文件完成回调，在处理线程中执行
+         */
+        public BatchProgress(Consumer<FileResult> listener) {
+            this.listener = listener;
+        }
+
+        public int getTotal() {
+            return inputs.size();
+        }
+
+        public int getSucceeded() {
+            return succeeded.get();
+        }
+
+        public int getFailed() {
+            return failed.get();
+        }
+
+        public int getCompleted() {
+            return succeeded.get() + failed.get();
+        }
+
+        public boolean isFinished() {
+            return finished;
+        }
+
+        /**
+         * 已完成文件的结果快照
+         */
+        public List<FileResult> getResults() {
+            return new ArrayList<>(results.values());
+        }
+
+        synchronized void start(List<Path> inputs) {
+            this.inputs = List.copyOf(inputs);
+            this.startNanos = System.nanoTime();
+            this.lastNanos = startNanos;
+        }
+
+        boolean isReported(Path input) {
+            return results.containsKey(input);
+        }
+
+        synchronized void report(Path input, Path output, boolean success) {
+            if (results.containsKey(input)) {
+                return;
+            }
+            long now = System.nanoTime();
+            FileResult result = new FileResult();
+            result.setInput(input);
+            result.setOutput(output);
+            result.setSuccess(success);
+            result.setElapsedMillis(TimeUnit.NANOSECONDS.toMillis(now - lastNanos));
+            result.setFinishedAtMillis(TimeUnit.NANOSECONDS.toMillis(now - startNanos));
+            lastNanos = now;
+            results.put(input, result);
+            (success ? succeeded : failed).incrementAndGet();
+            if (listener != null) {
+                try {
+                    listener.accept(result);
+                } catch (RuntimeException e) {
+                    log.warn("批量进度回调异常", e);
+                }
+            }
+        }
+
+        /**
+         * 结束批次，未报告的文件记为失败
+         */
+        synchronized BatchResult finish() {
+            for (Path input : inputs) {
+                if (!results.containsKey(input)) {
+                    report(input, null, false);
+                }
+            }
+            finished = true;
+            BatchResult batchResult = new BatchResult();
+            batchResult.setTotal(inputs.size());
+            batchResult.setSucceeded(succeeded.get());
+            batchResult.setFailed(failed.get());
+            batchResult.setElapsedMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            for (Path input : inputs) {
+                batchResult.getFiles().put(input.getFileName().toString(), results.get(input));
+            }
+            return batchResult;
+        }
+    }
+
     /**
      * 使用默认配置提升图片质量
      * 默认：2倍放大 + 低降噪
@@ -91,6 +280,19 @@ public class ImagePromote {
      * @return 是否成功
      */
     public boolean promoteImage(String inputPath, String outputPath, PromoteConfig config) {
+        if (derivativeCache == null || !Files.exists(Paths.get(inputPath))) {
+            return runPromoteImage(inputPath, outputPath, config);
+        }
+        try {
+            return derivativeCache.getOrCreate(Paths.get(inputPath), cacheOperation(), config, Paths.get(outputPath),
+                    output -> runPromoteImage(inputPath, output.toString(), config));
+        } catch (IOException e) {
+            log.error("读写衍生文件缓存失败", e);
+            return false;
+        }
+    }
+
+    private boolean runPromoteImage(String inputPath, String outputPath, PromoteConfig config) {
         try {
             // 验证输入文件
             Path input = Paths.get(inputPath);
@@ -103,45 +305,30 @@ public class ImagePromote {
             Path output = Paths.get(outputPath);
             Files.createDirectories(output.getParent());
 
+            // waifu2x 不可用时使用 Java 插值放大
+            if (useFallback()) {
+                return promoteWithFallback(input, output, config);
+            }
+
             // 构建命令
             List<String> command = buildCommand(inputPath, outputPath, config);
 
             log.info("执行 waifu2x 命令: {}", String.join(" ", command));
 
             // 执行命令
-            ProcessBuilder processBuilder = new ProcessBuilder(command);
-            processBuilder.redirectErrorStream(true);
-            Process process = processBuilder.start();
-
-            // 读取输出
-            try (BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    if (config.getVerbose()) {
-                        log.info("waifu2x: {}", line);
-                    }
-                }
-            }
-
-            // 等待完成
-            int exitCode = process.waitFor();
+            ProcessRunner.ProcessResult result = runScheduled(newSpec(command, config));
 
-            if (exitCode == 0) {
+            if (result.isSuccess()) {
                 log.info("图片提升成功: {} -> {}", inputPath, outputPath);
                 return true;
             } else {
-                log.error("图片提升失败，退出码: {}", exitCode);
+                log.error("图片提升失败，退出码: {}", result.getExitCode());
                 return false;
             }
 
         } catch (IOException e) {
             log.error("执行 waifu2x 时发生 IO 错误", e);
             return false;
-        } catch (InterruptedException e) {
-            log.error("waifu2x 进程被中断", e);
-            Thread.currentThread().interrupt();
-            return false;
         }
     }
 
@@ -154,67 +341,204 @@ public class ImagePromote {
      * @return 成功处理的文件数量
      */
     public int promoteBatch(String inputDir, String outputDir, PromoteConfig config) {
+        return promoteBatch(inputDir, outputDir, config, null).getSucceeded();
+    }
+
+    /**
+     * 批量提升图片质量，逐个文件报告结果
+     * waifu2x 以 -v 运行，每输出一个文件打印一行 "输入 -> 输出 done"，据此记录每个文件的完成时间；
+     * 进程失败时已完成的文件仍然标记为成功，可以直接复用
+     *
+     * @param inputDir  输入目录
+     * @param outputDir 输出目录
+     * @param config    提升配置
+     * @param progress  实时进度，可为 null
+     * @return 每个文件的处理结果
+     */
+    public BatchResult promoteBatch(String inputDir, String outputDir, PromoteConfig config, BatchProgress progress) {
+        BatchProgress tracker = progress != null ? progress : new BatchProgress();
         try {
             Path input = Paths.get(inputDir);
             if (!Files.exists(input) || !Files.isDirectory(input)) {
                 log.error("输入目录不存在或不是目录: {}", inputDir);
-                return 0;
+                tracker.start(List.of());
+                return tracker.finish();
             }
 
             // 确保输出目录存在
-            Files.createDirectories(Paths.get(outputDir));
+            Path output = Paths.get(outputDir);
+            Files.createDirectories(output);
 
-            // 构建命令（使用目录模式）
+            List<Path> inputs;
+            try (Stream<Path> files = Files.list(input)) {
+                inputs = files.filter(Files::isRegularFile).sorted().toList();
+            }
+            tracker.start(inputs);
+
+            // waifu2x 目录模式输出文件名为 文件名去扩展名.格式
+            Map<String, List<Path>> byOutput = new LinkedHashMap<>();
+            for (Path file : inputs) {
+                byOutput.computeIfAbsent(outputName(file, config), name -> new ArrayList<>()).add(file);
+            }
+            Map<String, Path> expected = new LinkedHashMap<>();
+            for (Map.Entry<String, List<Path>> entry : byOutput.entrySet()) {
+                if (entry.getValue().size() == 1) {
+                    expected.put(entry.getKey(), entry.getValue().get(0));
+                    continue;
+                }
+                // 仅扩展名不同的文件（如 a.jpg、a.png）会写入同一个输出文件，无法区分结果，全部记为失败
+                log.error("输出文件名冲突 {}: {}", entry.getKey(), entry.getValue());
+                entry.getValue().forEach(file -> tracker.report(file, null, false));
+            }
+
+            // waifu2x 不可用时逐个使用 Java 插值放大
+            if (useFallback()) {
+                for (Map.Entry<String, Path> entry : expected.entrySet()) {
+                    Path target = output.resolve(entry.getKey());
+                    boolean success;
+                    try {
+                        success = promoteWithFallback(entry.getValue(), target, config);
+                    } catch (IOException e) {
+                        log.error("图片提升失败 (Java 插值): {}", entry.getValue(), e);
+                        success = false;
+                    }
+                    tracker.report(entry.getValue(), target, success);
+                }
+                return tracker.finish();
+            }
+
+            // 构建命令（使用目录模式），-v 用于逐个文件输出完成信息
             List<String> command = buildBatchCommand(inputDir, outputDir, config);
+            if (!command.contains("-v")) {
+                command.add("-v");
+            }
 
             log.info("执行批量 waifu2x 命令: {}", String.join(" ", command));
 
-            // 执行命令
-            ProcessBuilder processBuilder = new ProcessBuilder(command);
-            processBuilder.redirectErrorStream(true);
-            Process process = processBuilder.start();
-
-            // 读取输出
-            int processedCount = 0;
-            try (BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    if (config.getVerbose()) {
-                        log.info("waifu2x: {}", line);
-                    }
-                    // 简单计数（实际可根据输出优化）
-                    if (line.contains("done")) {
-                        processedCount++;
+            ProcessRunner.ProcessSpec spec = newSpec(command, config);
+            spec.setLineHandler(line -> {
+                Matcher matcher = DONE_PATTERN.matcher(line);
+                if (matcher.matches()) {
+                    String name = fileName(matcher.group(1));
+                    Path file = expected.get(name);
+                    if (file != null) {
+                        tracker.report(file, output.resolve(name), true);
                     }
                 }
+            });
+            ProcessRunner.ProcessResult result = runScheduled(spec);
+
+            // 未输出完成信息的文件：进程正常退出且输出存在时视为成功，否则可能只写入了一部分
+            for (Map.Entry<String, Path> entry : expected.entrySet()) {
+                Path target = output.resolve(entry.getKey());
+                if (!tracker.isReported(entry.getValue())) {
+                    tracker.report(entry.getValue(), target,
+                            result.isSuccess() && Files.isRegularFile(target) && Files.size(target) > 0);
+                }
             }
 
-            // 等待完成
-            int exitCode = process.waitFor();
-
-            if (exitCode == 0) {
-                log.info("批量图片提升成功，处理文件数: {}", processedCount);
-                return processedCount;
+            if (result.isSuccess()) {
+                log.info("批量图片提升成功，处理文件数: {}/{}", tracker.getSucceeded(), tracker.getTotal());
             } else {
-                log.error("批量图片提升失败，退出码: {}", exitCode);
-                return 0;
+                log.error("批量图片提升失败，退出码: {}，已完成 {}/{}", result.getExitCode(),
+                        tracker.getSucceeded(), tracker.getTotal());
             }
+            return tracker.finish();
 
         } catch (IOException e) {
             log.error("执行批量 waifu2x 时发生 IO 错误", e);
-            return 0;
-        } catch (InterruptedException e) {
-            log.error("waifu2x 批量进程被中断", e);
-            Thread.currentThread().interrupt();
-            return 0;
+            return tracker.finish();
+        }
+    }
+
+    /**
+     * 目录模式下的输出文件名
+     */
+    private static String outputName(Path file, PromoteConfig config) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return (dot > 0 ? name.substring(0, dot) : name) + "." + config.getFormat();
+    }
+
+    private static String fileName(String path) {
+        String trimmed = path.trim();
+        return trimmed.substring(Math.max(trimmed.lastIndexOf('/'), trimmed.lastIndexOf('\\')) + 1);
+    }
+
+    /**
+     * 衍生文件缓存的操作名，区分 waifu2x 模型和 Java 插值兜底
+     */
+    String cacheOperation() {
+        return useFallback() ? "lanczos" : "waifu2x:" + modelPath;
+    }
+
+    /**
+     * 是否使用 Java 插值兜底
+     */
+    private boolean useFallback() {
+        if (!fallbackEnabled) {
+            return false;
+        }
+        if (waifu2xAvailable) {
+            return false;
         }
+        long now = System.currentTimeMillis();
+        if (now < waifu2xRecheckAt) {
+            return true;
+        }
+        synchronized (this) {
+            if (!waifu2xAvailable && now >= waifu2xRecheckAt) {
+                waifu2xAvailable = isWaifu2xAvailable();
+                waifu2xRecheckAt = System.currentTimeMillis() + AVAILABILITY_RECHECK_MILLIS;
+                if (!waifu2xAvailable) {
+                    log.warn("waifu2x 不可用，使用 Java Lanczos 插值放大，{} 秒后重新检测", AVAILABILITY_RECHECK_MILLIS / 1000);
+                }
+            }
+        }
+        return !waifu2xAvailable;
+    }
+
+    /**
+     * 使用 Java Lanczos 插值放大图片（不降噪）
+     */
+    private boolean promoteWithFallback(Path input, Path output, PromoteConfig config) throws IOException {
+        BufferedImage image = ImageIO.read(input.toFile());
+        if (image == null) {
+            log.error("无法读取图片文件: {}", input);
+            return false;
+        }
+        BufferedImage upscaled = ImageUpscaler.upscale(image, config.getScale(), config.getTileSize());
+        if (!ImageIO.write(upscaled, config.getFormat(), output.toFile())) {
+            log.error("不支持的输出格式: {}", config.getFormat());
+            return false;
+        }
+        log.info("图片提升成功 (Java 插值): {} -> {}", input, output);
+        return true;
+    }
+
+    /**
+     * 创建 waifu2x 进程执行参数
+     */
+    private ProcessRunner.ProcessSpec newSpec(List<String> command, PromoteConfig config) {
+        ProcessRunner.ProcessSpec spec = new ProcessRunner.ProcessSpec(command, "waifu2x");
+        spec.setVerbose(config.getVerbose());
+        spec.setTimeoutMillis(TimeUnit.SECONDS.toMillis(config.getTimeoutSeconds()));
+        spec.setPriority(config.getPriority());
+        spec.setOwner(config.getOwner());
+        return spec;
+    }
+
+    /**
+     * 执行 waifu2x 进程，存在调度器时排队等待执行槽
+     */
+    private ProcessRunner.ProcessResult runScheduled(ProcessRunner.ProcessSpec spec) throws IOException {
+        return processScheduler != null ? processScheduler.run(spec) : processRunner.run(spec);
     }
 
     /**
      * 构建单文件处理命令
      */
-    private List<String> buildCommand(String inputPath, String outputPath, PromoteConfig config) {
+    List<String> buildCommand(String inputPath, String outputPath, PromoteConfig config) {
         List<String> command = new ArrayList<>();
         command.add(waifu2xExecutablePath);
         command.add("-i");
@@ -230,11 +554,9 @@ public class ImagePromote {
             command.add(String.valueOf(config.getNoiseLevel().getValue()));
         }
 
-        // 分块大小
-        if (config.getTileSize() > 0) {
-            command.add("-t");
-            command.add(String.valueOf(config.getTileSize()));
-        }
+        // 分块大小、线程布局和设备，未指定时使用调优结果
+        Waifu2xTuner.appendOptions(command, waifu2xTuner != null ? waifu2xTuner.getProfile() : null,
+                config.getTileSize(), config.getThreads(), config.getGpuId());
 
         // 输出格式
         command.add("-f");
@@ -260,7 +582,7 @@ public class ImagePromote {
     /**
      * 构建批量处理命令
      */
-    private List<String> buildBatchCommand(String inputDir, String outputDir, PromoteConfig config) {
+    List<String> buildBatchCommand(String inputDir, String outputDir, PromoteConfig config) {
         List<String> command = new ArrayList<>();
         command.add(waifu2xExecutablePath);
         command.add("-i");
@@ -276,11 +598,9 @@ public class ImagePromote {
             command.add(String.valueOf(config.getNoiseLevel().getValue()));
         }
 
-        // 分块大小
-        if (config.getTileSize() > 0) {
-            command.add("-t");
-            command.add(String.valueOf(config.getTileSize()));
-        }
+        // 分块大小、线程布局和设备，未指定时使用调优结果
+        Waifu2xTuner.appendOptions(command, waifu2xTuner != null ? waifu2xTuner.getProfile() : null,
+                config.getTileSize(), config.getThreads(), config.getGpuId());
 
         // 输出格式
         command.add("-f");
@@ -310,11 +630,12 @@ public class ImagePromote {
      */
     public boolean isWaifu2xAvailable() {
         try {
-            ProcessBuilder processBuilder = new ProcessBuilder(waifu2xExecutablePath, "-h");
-            Process process = processBuilder.start();
-            int exitCode = process.waitFor();
-            return exitCode == 0 || exitCode == 1; // 帮助命令可能返回 0 或 1
-        } catch (IOException | InterruptedException e) {
+            ProcessRunner.ProcessSpec spec = new ProcessRunner.ProcessSpec(List.of(waifu2xExecutablePath, "-h"), "waifu2x");
+            spec.setTimeoutMillis(AVAILABILITY_TIMEOUT_MILLIS);
+            ProcessRunner.ProcessResult result = processRunner.run(spec);
+            int exitCode = result.getExitCode();
+            return !result.isTimedOut() && (exitCode == 0 || exitCode == 1); // 帮助命令可能返回 0 或 1
+        } catch (IOException e) {
             log.warn("waifu2x 不可用: {}", e.getMessage());
             return false;
         }
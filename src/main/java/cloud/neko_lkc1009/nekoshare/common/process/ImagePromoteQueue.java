@@ -0,0 +1,335 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import jakarta.annotation.PreDestroy;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 图片超分请求合批队列
+ * 在短时间窗口内收集配置相同的单图请求，放入临时目录后以目录模式执行一次 waifu2x，
+ * 避免每张图片都重新启动进程并加载模型；
+ * 优先级和请求方不同的请求分开合批，保持调度器的排队顺序；已有衍生文件缓存的请求直接复制结果
+ */
+@Slf4j
+@Component
+public class ImagePromoteQueue {
+    private final ImagePromote imagePromote;
+
+    @Autowired(required = false)
+    private DerivativeCache derivativeCache;
+
+    @Value("${waifu2x.queue.window-millis:50}")
+    private long windowMillis = 50;
+
+    @Value("${waifu2x.queue.max-batch-size:32}")
+    private int maxBatchSize = 32;
+
+    /**
+     * 等待合批的请求，按合批键分组
+     */
+    private final Map<String, Batch> pending = new HashMap<>();
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+            runnable -> newDaemonThread(runnable, "image-promote-timer"));
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(
+            runnable -> newDaemonThread(runnable, "image-promote-worker"));
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * 单个超分请求
+     */
+    private static class Job {
+        private final Path input;
+        private final Path output;
+        private final ImagePromote.PromoteConfig config;
+        private final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+        Job(Path input, Path output, ImagePromote.PromoteConfig config) {
+            this.input = input;
+            this.output = output;
+            this.config = config;
+        }
+    }
+
+    /**
+     * 合批键相同的一批请求
+     */
+    private static class Batch {
+        private final List<Job> jobs = new ArrayList<>();
+    }
+
+    /**
+     * 队列统计信息
+     */
+    @Data
+    public static class QueueStats {
+        private long submitted;          // 提交的请求数
+        private long batches;            // 执行的 waifu2x 次数
+        private long failures;           // 失败的请求数
+        private double averageBatchSize; // 平均每次处理的图片数
+    }
+
+    public ImagePromoteQueue(ImagePromote imagePromote) {
+        this.imagePromote = imagePromote;
+    }
+
+    /**
+     * 使用默认配置提交超分请求
+     *
+     * @param inputPath  输入文件路径
+     * @param outputPath 输出文件路径
+     * @return 完成后返回是否成功
+     */
+    public CompletableFuture<Boolean> submit(String inputPath, String outputPath) {
+        return submit(inputPath, outputPath, new ImagePromote.PromoteConfig());
+    }
+
+    /**
+     * 提交超分请求，配置相同的请求会在时间窗口内合并执行
+     *
+     * @param inputPath  输入文件路径
+     * @param outputPath 输出文件路径
+     * @param config     提升配置
+     * @return 完成后返回是否成功
+     */
+    public CompletableFuture<Boolean> submit(String inputPath, String outputPath, ImagePromote.PromoteConfig config) {
+        submitted.increment();
+        Job job = new Job(Paths.get(inputPath), Paths.get(outputPath), config);
+        if (!Files.isRegularFile(job.input)) {
+            log.error("输入文件不存在: {}", inputPath);
+            failures.increment();
+            job.future.complete(false);
+            return job.future;
+        }
+
+        String key = batchKey(config);
+        Batch full = null;
+        synchronized (pending) {
+            Batch batch = pending.get(key);
+            if (batch == null) {
+                Batch created = new Batch();
+                pending.put(key, created);
+                timer.schedule(() -> flush(key, created), windowMillis, TimeUnit.MILLISECONDS);
+                batch = created;
+            }
+            batch.jobs.add(job);
+            if (batch.jobs.size() >= maxBatchSize) {
+                pending.remove(key);
+                full = batch;
+            }
+        }
+        if (full != null) {
+            dispatch(full);
+        }
+        return job.future;
+    }
+
+    /**
+     * 获取统计信息
+     */
+    public QueueStats getStats() {
+        QueueStats stats = new QueueStats();
+        long jobCount = submitted.sum();
+        long batchCount = batches.sum();
+        stats.setSubmitted(jobCount);
+        stats.setBatches(batchCount);
+        stats.setFailures(failures.sum());
+        stats.setAverageBatchSize(batchCount == 0 ? 0 : (double) jobCount / batchCount);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+        worker.shutdown();
+    }
+
+    /**
+     * 时间窗口结束，批次仍在等待（未因达到上限提前执行）时执行
+     */
+    private void flush(String key, Batch batch) {
+        synchronized (pending) {
+            if (!pending.remove(key, batch)) {
+                return;
+            }
+        }
+        dispatch(batch);
+    }
+
+    private void dispatch(Batch batch) {
+        try {
+            worker.execute(() -> run(batch));
+        } catch (RejectedExecutionException e) {
+            batch.jobs.forEach(job -> job.future.complete(false));
+        }
+    }
+
+    /**
+     * 合批键：影响输出的参数（放大倍数、降噪、格式、分块；模型由 ImagePromote 统一配置）、
+     * 决定命令行的线程布局和设备，以及排队用的优先级和请求方
+     */
+    static String batchKey(ImagePromote.PromoteConfig config) {
+        return config.getScale() + "|" + config.getNoiseLevel() + "|" + config.getFormat() + "|" + config.getTileSize()
+                + "|" + config.getThreads() + "|" + config.getGpuId() + "|" + config.getPriority() + "|" + config.getOwner();
+    }
+
+    /**
+     * 整批使用的配置：合批键中的参数各请求相同；超时取最短的非零值，任一请求要求时输出详细日志
+     */
+    static ImagePromote.PromoteConfig batchConfig(List<Job> jobs) {
+        ImagePromote.PromoteConfig first = jobs.get(0).config;
+        ImagePromote.PromoteConfig config = new ImagePromote.PromoteConfig();
+        config.setScale(first.getScale());
+        config.setNoiseLevel(first.getNoiseLevel());
+        config.setFormat(first.getFormat());
+        config.setTileSize(first.getTileSize());
+        config.setThreads(first.getThreads());
+        config.setGpuId(first.getGpuId());
+        config.setPriority(first.getPriority());
+        config.setOwner(first.getOwner());
+        int timeoutSeconds = 0;
+        boolean verbose = false;
+        for (Job job : jobs) {
+            Integer timeout = job.config.getTimeoutSeconds();
+            if (timeout != null && timeout > 0 && (timeoutSeconds == 0 || timeout < timeoutSeconds)) {
+                timeoutSeconds = timeout;
+            }
+            verbose |= Boolean.TRUE.equals(job.config.getVerbose());
+        }
+        config.setTimeoutSeconds(timeoutSeconds);
+        config.setVerbose(verbose);
+        return config;
+    }
+
+    /**
+     * 执行一批请求
+     * 只有一张图片时直接使用单文件模式（自行查找缓存）；否则先复制已缓存的结果，其余的合并执行
+     */
+    private void run(Batch batch) {
+        if (batch.jobs.size() == 1) {
+            batches.increment();
+            Job job = batch.jobs.get(0);
+            complete(job, imagePromote.promoteImage(job.input.toString(), job.output.toString(), job.config));
+            return;
+        }
+
+        String operation = imagePromote.cacheOperation();
+        List<Job> jobs = new ArrayList<>();
+        for (Job job : batch.jobs) {
+            if (copyFromCache(job, operation)) {
+                complete(job, true);
+            } else {
+                jobs.add(job);
+            }
+        }
+        if (jobs.isEmpty()) {
+            return;
+        }
+        batches.increment();
+        ImagePromote.PromoteConfig config = batchConfig(jobs);
+
+        Path stageDir = null;
+        try {
+            stageDir = Files.createTempDirectory("nekoshare_promote_batch_");
+            Path inputDir = Files.createDirectories(stageDir.resolve("in"));
+            Path outputDir = Files.createDirectories(stageDir.resolve("out"));
+
+            // 按序号暂存输入，结果按暂存文件名返回
+            List<String> stagedNames = new ArrayList<>(jobs.size());
+            for (int i = 0; i < jobs.size(); i++) {
+                Job job = jobs.get(i);
+                String name = String.format("%06d", i) + extensionOf(job.input);
+                FilePassthrough.transfer(job.input, inputDir.resolve(name), FilePassthrough.Mode.LINK);
+                stagedNames.add(name);
+            }
+
+            log.info("合批执行 waifu2x: {} 张图片", jobs.size());
+            ImagePromote.BatchResult result = imagePromote.promoteBatch(inputDir.toString(), outputDir.toString(),
+                    config, null);
+
+            // 进程失败时已完成的文件仍然返回给对应的请求
+            for (int i = 0; i < jobs.size(); i++) {
+                Job job = jobs.get(i);
+                ImagePromote.FileResult fileResult = result.getFiles().get(stagedNames.get(i));
+                if (fileResult == null || !fileResult.isSuccess()) {
+                    log.error("图片提升失败，未生成输出: {}", job.input);
+                    complete(job, false);
+                    continue;
+                }
+                try {
+                    FilePassthrough.transfer(fileResult.getOutput(), job.output, FilePassthrough.Mode.MOVE);
+                    putToCache(job, operation);
+                    complete(job, true);
+                } catch (IOException e) {
+                    log.error("移动输出文件失败: {}", job.output, e);
+                    complete(job, false);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("合批执行 waifu2x 失败", e);
+            jobs.forEach(job -> complete(job, false));
+        } finally {
+            if (stageDir != null) {
+                TempFiles.deleteDirectory(stageDir);
+            }
+        }
+    }
+
+    private boolean copyFromCache(Job job, String operation) {
+        if (derivativeCache == null) {
+            return false;
+        }
+        try {
+            return derivativeCache.copyIfCached(job.input, operation, job.config, job.output);
+        } catch (IOException e) {
+            log.warn("读取衍生文件缓存失败: {}", job.input, e);
+            return false;
+        }
+    }
+
+    private void putToCache(Job job, String operation) {
+        if (derivativeCache == null) {
+            return;
+        }
+        try {
+            derivativeCache.put(job.input, operation, job.config, job.output);
+        } catch (IOException e) {
+            log.warn("写入衍生文件缓存失败: {}", job.input, e);
+        }
+    }
+
+    private void complete(Job job, boolean success) {
+        if (!success) {
+            failures.increment();
+        }
+        job.future.complete(success);
+    }
+
+    private static String extensionOf(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 ? name.substring(dot) : "";
+    }
+
+    private static Thread newDaemonThread(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+}
@@ -0,0 +1,219 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 图片多尺寸输出
+ * 只解码一次（按最大尺寸子采样），从大到小逐级缩放，各尺寸并行编码
+ */
+@Slf4j
+public class ImageRendition {
+
+    private static final ExecutorService ENCODE_EXECUTOR = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), new ThreadFactory() {
+                private final AtomicInteger counter = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "image-rendition-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * 输出尺寸规格
+     */
+    @Data
+    @NoArgsConstructor
+    public static class Spec {
+        private String name;              // 名称，如 thumbnail、card、full
+        private Integer maxWidth = 1920;  // 最大宽度
+        private Integer maxHeight = 1080; // 最大高度
+        private Float quality = 0.75f;    // 压缩质量
+        private String format;            // 输出格式，为空时与源图片一致
+
+        public static Spec of(String name, int maxWidth, int maxHeight) {
+            Spec spec = new Spec();
+            spec.setName(name);
+            spec.setMaxWidth(maxWidth);
+            spec.setMaxHeight(maxHeight);
+            return spec;
+        }
+    }
+
+    /**
+     * 单个尺寸的输出
+     */
+    @Data
+    public static class Rendition {
+        private Spec spec;
+        private int width;
+        private int height;
+        private byte[] bytes;      // 编码结果
+        private File file;         // 写入的文件，仅输出到目录时有值
+        private long scaleMillis;  // 缩放耗时
+        private long encodeMillis; // 编码耗时
+    }
+
+    /**
+     * 多尺寸输出结果
+     */
+    @Data
+    public static class RenditionResult {
+        private int sourceWidth;
+        private int sourceHeight;
+        private long decodeMillis;
+        private long totalMillis;
+        private List<Rendition> renditions = new ArrayList<>(); // 顺序与输入规格一致
+    }
+
+    /**
+     * 生成多个尺寸，结果保存在内存中
+     *
+     * @param sourceFile 源图片文件
+     * @param specs      尺寸规格
+     * @return 输出结果，失败时返回 null
+     */
+    public static RenditionResult renditions(File sourceFile, List<Spec> specs) {
+        return renditions(sourceFile, specs, null);
+    }
+
+    /**
+     * 生成多个尺寸并写入目标目录，文件名为 源文件名_规格名.格式
+     *
+     * @param sourceFile 源图片文件
+     * @param specs      尺寸规格
+     * @param targetDir  目标目录，为 null 时只保存在内存中
+     * @return 输出结果，失败时返回 null
+     */
+    public static RenditionResult renditions(File sourceFile, List<Spec> specs, File targetDir) {
+        if (specs == null || specs.isEmpty()) {
+            log.error("未指定输出尺寸");
+            return null;
+        }
+        if (targetDir != null && !targetDir.isDirectory() && !targetDir.mkdirs()) {
+            log.error("无法创建目标目录: {}", targetDir.getAbsolutePath());
+            return null;
+        }
+        ImageMetadata.Info info = ImageMetadata.probe(sourceFile);
+        if (info == null) {
+            log.error("无法读取图片文件: {}", sourceFile.getAbsolutePath());
+            return null;
+        }
+
+        long start = System.nanoTime();
+        RenditionResult result = new RenditionResult();
+        result.setSourceWidth(info.getWidth());
+        result.setSourceHeight(info.getHeight());
+
+        // 各规格的目标尺寸，按面积从大到小处理
+        int count = specs.size();
+        int[][] sizes = new int[count][];
+        for (int i = 0; i < count; i++) {
+            Spec spec = specs.get(i);
+            sizes[i] = ImageCompress.calculateNewSize(info.getWidth(), info.getHeight(), spec.getMaxWidth(), spec.getMaxHeight());
+        }
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong((Integer i) -> (long) sizes[i][0] * sizes[i][1]).reversed());
+        int[] largest = sizes[order[0]];
+
+        try {
+            // 只解码一次，子采样到最大尺寸
+            BufferedImage current;
+            try (ImageInputStream inputStream = new FileImageInputStream(sourceFile)) {
+                current = ImageCompress.readScaled(inputStream, (width, height) -> largest, ImageResampler.Strategy.AUTO);
+            }
+            if (current == null) {
+                log.error("无法读取图片文件: {}", sourceFile.getAbsolutePath());
+                return null;
+            }
+            result.setDecodeMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+            // 逐级缩放，每得到一个尺寸就提交编码
+            Rendition[] renditions = new Rendition[count];
+            List<Future<Boolean>> futures = new ArrayList<>(count);
+            for (int index : order) {
+                Spec spec = specs.get(index);
+                long scaleStart = System.nanoTime();
+                if (current.getWidth() != sizes[index][0] || current.getHeight() != sizes[index][1]) {
+                    current = ImageResampler.resample(current, sizes[index][0], sizes[index][1]);
+                }
+                Rendition rendition = new Rendition();
+                rendition.setSpec(spec);
+                rendition.setWidth(current.getWidth());
+                rendition.setHeight(current.getHeight());
+                rendition.setScaleMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - scaleStart));
+                renditions[index] = rendition;
+
+                BufferedImage image = current;
+                String format = spec.getFormat() != null ? spec.getFormat() : info.getFormat();
+                futures.add(ENCODE_EXECUTOR.submit(() -> encode(image, rendition, format, sourceFile, targetDir)));
+            }
+
+            boolean success = true;
+            for (Future<Boolean> future : futures) {
+                success &= future.get();
+            }
+            if (!success) {
+                return null;
+            }
+            result.setRenditions(new ArrayList<>(Arrays.asList(renditions)));
+            result.setTotalMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            log.info("多尺寸输出完成: {}, {} 个尺寸, 解码 {} ms, 总耗时 {} ms", sourceFile.getName(), count,
+                    result.getDecodeMillis(), result.getTotalMillis());
+            return result;
+
+        } catch (IOException e) {
+            log.error("多尺寸输出失败: {}", sourceFile.getAbsolutePath(), e);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("多尺寸输出被中断: {}", sourceFile.getAbsolutePath());
+            return null;
+        } catch (ExecutionException e) {
+            log.error("多尺寸编码异常: {}", sourceFile.getAbsolutePath(), e.getCause());
+            return null;
+        }
+    }
+
+    private static boolean encode(BufferedImage image, Rendition rendition, String format,
+                                  File sourceFile, File targetDir) throws IOException {
+        long start = System.nanoTime();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        if (!ImageCompress.compressAndWrite(image, outputStream, format, rendition.getSpec().getQuality())) {
+            return false;
+        }
+        rendition.setBytes(outputStream.toByteArray());
+        if (targetDir != null) {
+            String name = sourceFile.getName();
+            int dot = name.lastIndexOf('.');
+            String baseName = dot > 0 ? name.substring(0, dot) : name;
+            File file = new File(targetDir, baseName + "_" + rendition.getSpec().getName() + "." + format);
+            try (OutputStream fileOutputStream = new FileOutputStream(file)) {
+                outputStream.writeTo(fileOutputStream);
+            }
+            rendition.setFile(file);
+        }
+        rendition.setEncodeMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return true;
+    }
+
+}
@@ -0,0 +1,162 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import lombok.Getter;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * 图片重采样引擎
+ * 根据缩放比例选择重采样策略，也支持按调用指定策略
+ */
+public class ImageResampler {
+    /**
+     * 超过该缩放比例时使用逐级减半
+     */
+    private static final double PROGRESSIVE_RATIO = 2.0;
+
+    /**
+     * 超过该缩放比例时先做最近邻预缩放
+     */
+    private static final double PREPASS_RATIO = 8.0;
+
+    /**
+     * 最近邻预缩放的目标倍数（相对最终尺寸）
+     */
+    private static final int PREPASS_FACTOR = 4;
+
+    /**
+     * 重采样策略
+     */
+    @Getter
+    public enum Strategy {
+        AUTO("按缩放比例自动选择"),
+        DIRECT("单次双三次插值"),
+        PROGRESSIVE("逐级减半双线性插值，最后一步双三次"),
+        FAST_PREPASS("最近邻预缩放后逐级减半");
+
+        private final String description;
+
+        Strategy(String description) {
+            this.description = description;
+        }
+
+    }
+
+    /**
+     * 使用自动策略重采样
+     *
+     * @param sourceImage  源图片
+     * @param targetWidth  目标宽度
+     * @param targetHeight 目标高度
+     * @return 重采样后的图片
+     */
+    public static BufferedImage resample(BufferedImage sourceImage, int targetWidth, int targetHeight) {
+        return resample(sourceImage, targetWidth, targetHeight, Strategy.AUTO);
+    }
+
+    /**
+     * 使用指定策略重采样
+     *
+     * @param sourceImage  源图片
+     * @param targetWidth  目标宽度
+     * @param targetHeight 目标高度
+     * @param strategy     重采样策略，null 视为 AUTO
+     * @return 重采样后的图片
+     */
+    public static BufferedImage resample(BufferedImage sourceImage, int targetWidth, int targetHeight, Strategy strategy) {
+        // 如果尺寸相同，直接返回原图
+        if (sourceImage.getWidth() == targetWidth && sourceImage.getHeight() == targetHeight) {
+            return sourceImage;
+        }
+
+        if (strategy == null || strategy == Strategy.AUTO) {
+            strategy = selectStrategy(sourceImage.getWidth(), sourceImage.getHeight(), targetWidth, targetHeight);
+        }
+
+        switch (strategy) {
+            case PROGRESSIVE:
+                return progressive(sourceImage, targetWidth, targetHeight);
+            case FAST_PREPASS:
+                return fastPrepass(sourceImage, targetWidth, targetHeight);
+            default:
+                return draw(sourceImage, targetWidth, targetHeight, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        }
+    }
+
+    /**
+     * 根据缩放比例选择策略
+     * 放大或小比例缩小直接双三次；2 倍以上逐级减半；8 倍以上先最近邻预缩放
+     *
+     * @param sourceWidth  原始宽度
+     * @param sourceHeight 原始高度
+     * @param targetWidth  目标宽度
+     * @param targetHeight 目标高度
+     * @return 具体策略（不会返回 AUTO）
+     */
+    public static Strategy selectStrategy(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight) {
+        double ratio = Math.min((double) sourceWidth / Math.max(1, targetWidth),
+                (double) sourceHeight / Math.max(1, targetHeight));
+        if (ratio >= PREPASS_RATIO) {
+            return Strategy.FAST_PREPASS;
+        }
+        if (ratio >= PROGRESSIVE_RATIO) {
+            return Strategy.PROGRESSIVE;
+        }
+        return Strategy.DIRECT;
+    }
+
+    /**
+     * 逐级减半缩小
+     * 每次缩小一半时双线性插值恰好等价于 2x2 均值，可有效抑制混叠
+     */
+    private static BufferedImage progressive(BufferedImage sourceImage, int targetWidth, int targetHeight) {
+        BufferedImage current = sourceImage;
+        int width = current.getWidth();
+        int height = current.getHeight();
+
+        while (width / 2 >= targetWidth && height / 2 >= targetHeight) {
+            width /= 2;
+            height /= 2;
+            current = draw(current, width, height, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        }
+
+        if (width == targetWidth && height == targetHeight) {
+            return current;
+        }
+        return draw(current, targetWidth, targetHeight, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+    }
+
+    /**
+     * 最近邻预缩放到目标尺寸的若干倍，再逐级减半
+     */
+    private static BufferedImage fastPrepass(BufferedImage sourceImage, int targetWidth, int targetHeight) {
+        int prepassWidth = targetWidth * PREPASS_FACTOR;
+        int prepassHeight = targetHeight * PREPASS_FACTOR;
+        BufferedImage current = sourceImage;
+        if (sourceImage.getWidth() > prepassWidth && sourceImage.getHeight() > prepassHeight) {
+            current = draw(sourceImage, prepassWidth, prepassHeight,
+                    RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        }
+        return progressive(current, targetWidth, targetHeight);
+    }
+
+    /**
+     * 使用指定插值方式绘制到新图片
+     */
+    private static BufferedImage draw(BufferedImage sourceImage, int targetWidth, int targetHeight, Object interpolation) {
+        BufferedImage scaledImage = new BufferedImage(targetWidth, targetHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaledImage.createGraphics();
+
+        // 设置渲染参数
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+        graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+        graphics.drawImage(sourceImage, 0, 0, targetWidth, targetHeight, null);
+        graphics.dispose();
+
+        return scaledImage;
+    }
+
+}
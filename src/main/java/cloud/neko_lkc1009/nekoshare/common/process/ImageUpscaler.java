@@ -0,0 +1,223 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 纯 Java 图片放大
+ * 可分离 Lanczos-3 插值，输出按分块在 ForkJoinPool 上并行计算；
+ * 每个分块读取源图时带上卷积核半径的重叠区域，分块边界处结果与整图计算一致。
+ * 用于 waifu2x 不可用时的兜底
+ */
+public class ImageUpscaler {
+    /**
+     * Lanczos 窗口半径 (源像素)
+     */
+    private static final int RADIUS = 3;
+
+    /**
+     * 默认分块边长 (输出像素)
+     */
+    private static final int DEFAULT_TILE_SIZE = 256;
+
+    /**
+     * 使用公共 ForkJoinPool 放大图片
+     *
+     * @param source   源图片
+     * @param scale    放大倍数
+     * @param tileSize 分块边长 (输出像素)，0 为自动
+     * @return 放大后的图片
+     */
+    public static BufferedImage upscale(BufferedImage source, int scale, int tileSize) {
+        return upscale(source, scale, tileSize, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 放大图片
+     *
+     * @param source   源图片
+     * @param scale    放大倍数
+     * @param tileSize 分块边长 (输出像素)，0 为自动
+     * @param pool     执行分块计算的线程池
+     * @return 放大后的图片
+     */
+    public static BufferedImage upscale(BufferedImage source, int scale, int tileSize, ForkJoinPool pool) {
+        if (scale < 1) {
+            throw new IllegalArgumentException("Scale must be positive");
+        }
+        int width = source.getWidth();
+        int height = source.getHeight();
+        boolean alpha = source.getColorModel().hasAlpha();
+        int[] pixels = source.getRGB(0, 0, width, height, null, 0, width);
+
+        int outWidth = width * scale;
+        int outHeight = height * scale;
+        BufferedImage output = new BufferedImage(outWidth, outHeight,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        if (scale == 1) {
+            output.setRGB(0, 0, width, height, pixels, 0, width);
+            return output;
+        }
+        int[] outPixels = ((DataBufferInt) output.getRaster().getDataBuffer()).getData();
+
+        Kernel kernel = new Kernel(scale);
+        int tile = tileSize > 0 ? tileSize : DEFAULT_TILE_SIZE;
+        int tilesX = (outWidth + tile - 1) / tile;
+        int tilesY = (outHeight + tile - 1) / tile;
+        pool.invoke(new TileTask(new Job(pixels, width, height, outPixels, outWidth, outHeight, tile, tilesX, kernel, alpha),
+                0, tilesX * tilesY));
+        return output;
+    }
+
+    /**
+     * 按相位预计算的 Lanczos 权重
+     * 整数倍放大时输出坐标对应的源坐标小数部分只有 scale 种
+     */
+    private static class Kernel {
+        private final int scale;
+        private final int[] offsets;    // 每个相位第一个采样点相对 x / scale 的偏移
+        private final float[][] weights; // 每个相位 2 * RADIUS 个权重
+
+        Kernel(int scale) {
+            this.scale = scale;
+            this.offsets = new int[scale];
+            this.weights = new float[scale][2 * RADIUS];
+            for (int phase = 0; phase < scale; phase++) {
+                double center = (phase + 0.5) / scale - 0.5;
+                int first = (int) Math.floor(center) - RADIUS + 1;
+                offsets[phase] = first;
+                double sum = 0;
+                for (int i = 0; i < 2 * RADIUS; i++) {
+                    double weight = lanczos(center - (first + i));
+                    weights[phase][i] = (float) weight;
+                    sum += weight;
+                }
+                for (int i = 0; i < 2 * RADIUS; i++) {
+                    weights[phase][i] /= (float) sum;
+                }
+            }
+        }
+
+        private static double lanczos(double x) {
+            if (x == 0) {
+                return 1;
+            }
+            if (Math.abs(x) >= RADIUS) {
+                return 0;
+            }
+            double px = Math.PI * x;
+            return RADIUS * Math.sin(px) * Math.sin(px / RADIUS) / (px * px);
+        }
+    }
+
+    /**
+     * 放大任务的共享参数
+     */
+    private record Job(int[] pixels, int width, int height, int[] outPixels, int outWidth, int outHeight,
+                       int tile, int tilesX, Kernel kernel, boolean alpha) {
+    }
+
+    /**
+     * 按分块序号区间递归拆分的任务
+     */
+    private static class TileTask extends RecursiveAction {
+        private final Job job;
+        private final int from;
+        private final int to;
+
+        TileTask(Job job, int from, int to) {
+            this.job = job;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                for (int index = from; index < to; index++) {
+                    renderTile(job, index % job.tilesX, index / job.tilesX);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new TileTask(job, from, middle), new TileTask(job, middle, to));
+        }
+    }
+
+    /**
+     * 计算一个输出分块：先对所需源行做水平插值，再做垂直插值
+     */
+    private static void renderTile(Job job, int tileX, int tileY) {
+        Kernel kernel = job.kernel;
+        int scale = kernel.scale;
+        int x0 = tileX * job.tile;
+        int y0 = tileY * job.tile;
+        int x1 = Math.min(x0 + job.tile, job.outWidth);
+        int y1 = Math.min(y0 + job.tile, job.outHeight);
+        int tileWidth = x1 - x0;
+
+        // 分块需要的源行范围（含卷积核重叠区域）
+        int sourceY0 = Math.floorDiv(y0, scale) + kernel.offsets[Math.floorMod(y0, scale)];
+        int sourceY1 = Math.floorDiv(y1 - 1, scale) + kernel.offsets[Math.floorMod(y1 - 1, scale)] + 2 * RADIUS - 1;
+        int rows = sourceY1 - sourceY0 + 1;
+        int channels = 4;
+        float[] horizontal = new float[rows * tileWidth * channels];
+
+        for (int row = 0; row < rows; row++) {
+            int sy = clamp(sourceY0 + row, job.height - 1);
+            int rowOffset = sy * job.width;
+            int base = row * tileWidth * channels;
+            for (int x = x0; x < x1; x++) {
+                int phase = x % scale;
+                int first = x / scale + kernel.offsets[phase];
+                float[] weights = kernel.weights[phase];
+                float a = 0, r = 0, g = 0, b = 0;
+                for (int i = 0; i < weights.length; i++) {
+                    int argb = job.pixels[rowOffset + clamp(first + i, job.width - 1)];
+                    float weight = weights[i];
+                    a += weight * (argb >>> 24);
+                    r += weight * ((argb >> 16) & 0xFF);
+                    g += weight * ((argb >> 8) & 0xFF);
+                    b += weight * (argb & 0xFF);
+                }
+                int index = base + (x - x0) * channels;
+                horizontal[index] = a;
+                horizontal[index + 1] = r;
+                horizontal[index + 2] = g;
+                horizontal[index + 3] = b;
+            }
+        }
+
+        for (int y = y0; y < y1; y++) {
+            int phase = y % scale;
+            int firstRow = y / scale + kernel.offsets[phase] - sourceY0;
+            float[] weights = kernel.weights[phase];
+            int outOffset = y * job.outWidth;
+            for (int x = 0; x < tileWidth; x++) {
+                float a = 0, r = 0, g = 0, b = 0;
+                for (int i = 0; i < weights.length; i++) {
+                    int index = ((firstRow + i) * tileWidth + x) * channels;
+                    float weight = weights[i];
+                    a += weight * horizontal[index];
+                    r += weight * horizontal[index + 1];
+                    g += weight * horizontal[index + 2];
+                    b += weight * horizontal[index + 3];
+                }
+                int alpha = job.alpha ? toByte(a) : 0xFF;
+                job.outPixels[outOffset + x0 + x] = alpha << 24 | toByte(r) << 16 | toByte(g) << 8 | toByte(b);
+            }
+        }
+    }
+
+    private static int clamp(int value, int max) {
+        return value < 0 ? 0 : Math.min(value, max);
+    }
+
+    private static int toByte(float value) {
+        int rounded = Math.round(value);
+        return rounded < 0 ? 0 : Math.min(rounded, 255);
+    }
+
+}
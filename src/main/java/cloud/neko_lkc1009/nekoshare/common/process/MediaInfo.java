@@ -0,0 +1,342 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 媒体信息探测
+ * 每个文件只运行一次 probe（JSON 输出），获取时长、码率、各路流的编码、分辨率、帧率、帧数，
+ * 并读取开头一段的视频包估算关键帧间隔；
+ * 结果按路径缓存，文件大小或修改时间变化后重新探测，并发探测同一文件时只运行一次
+ */
+@Slf4j
+@Component
+public class MediaInfo {
+    /**
+     * 探测超时时间 (毫秒)
+     */
+    private static final long PROBE_TIMEOUT_MILLIS = 30_000;
+
+    /**
+     * 估算关键帧间隔时读取的时长 (秒)
+     */
+    private static final int KEYFRAME_SCAN_SECONDS = 30;
+
+    /**
+     * 最多缓存的条目数
+     */
+    private static final int MAX_ENTRIES = 1024;
+
+    /**
+     * 判断 faststart 时最多读取的顶层 box 数
+     */
+    private static final int MAX_TOP_LEVEL_BOXES = 64;
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @Value("${probe.executable.path}")
+    private String probePath;
+
+    private ProcessRunner processRunner = ProcessRunner.shared();
+
+    @Autowired(required = false)
+    private ProcessScheduler processScheduler;
+
+    private final Map<String, Info> cache = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Info> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            });
+
+    private final SingleFlight<String, Info> inFlight = new SingleFlight<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * 媒体文件信息
+     */
+    @Data
+    public static class Info {
+        private String path;
+        private long fileSize;
+        private long lastModified;
+        private String formatName;          // 封装格式，如 mov,mp4,m4a,3gp,3g2,mj2
+        private double durationSeconds;     // 时长
+        private long bitRate;               // 总码率 (bit/s)
+        private List<StreamInfo> streams = new ArrayList<>();
+        private Double keyframeIntervalSeconds; // 视频关键帧平均间隔，只统计开头一段，无法估算时为 null
+        private Boolean faststart;          // MP4/MOV 的 moov 是否位于 mdat 之前，其他封装为 null
+
+        /**
+         * 第一路视频流，没有时返回 null
+         */
+        public StreamInfo getVideo() {
+            return streams.stream().filter(stream -> "video".equals(stream.getCodecType())).findFirst().orElse(null);
+        }
+
+        /**
+         * 第一路音频流，没有时返回 null
+         */
+        public StreamInfo getAudio() {
+            return streams.stream().filter(stream -> "audio".equals(stream.getCodecType())).findFirst().orElse(null);
+        }
+
+        public boolean hasAudio() {
+            return getAudio() != null;
+        }
+
+        /**
+         * 视频帧数：优先使用封装中记录的帧数，否则按时长和帧率估算；没有视频流时为 0
+         */
+        public long getFrameCount() {
+            StreamInfo video = getVideo();
+            if (video == null) {
+                return 0;
+            }
+            if (video.getFrameCount() > 0) {
+                return video.getFrameCount();
+            }
+            double duration = video.getDurationSeconds() > 0 ? video.getDurationSeconds() : durationSeconds;
+            return Math.round(duration * video.getFps());
+        }
+    }
+
+    /**
+     * 单路流的信息
+     */
+    @Data
+    public static class StreamInfo {
+        private int index;
+        private String codecType;           // video / audio / subtitle / data
+        private String codecName;           // 如 h264、aac
+        private String pixelFormat;         // 如 yuv420p，音频流为 null
+        private int width;
+        private int height;
+        private double fps;                 // 平均帧率，无法获取时使用 r_frame_rate
+        private String frameRate;           // fps 对应的原始分数形式，如 30000/1001，无法获取时为 null
+        private long bitRate;
+        private long frameCount;            // 封装中记录的帧数，未记录时为 0
+        private double durationSeconds;
+        private int sampleRate;
+        private int channels;
+    }
+
+    /**
+     * 探测媒体文件信息
+     *
+     * @param file 媒体文件
+     * @return 媒体信息，文件不存在或探测失败时返回 null
+     */
+    public Info probe(Path file) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            String path = file.toAbsolutePath().toString();
+            long fileSize = Files.size(file);
+            long lastModified = Files.getLastModifiedTime(file).toMillis();
+            Info cached = cache.get(path);
+            if (cached != null && cached.getFileSize() == fileSize && cached.getLastModified() == lastModified) {
+                hits.increment();
+                return cached;
+            }
+            return inFlight.execute(path + "|" + fileSize + "|" + lastModified, () -> {
+                misses.increment();
+                Info info = runProbe(file);
+                if (info != null) {
+                    info.setPath(path);
+                    info.setFileSize(fileSize);
+                    info.setLastModified(lastModified);
+                    info.setFaststart(detectFaststart(file));
+                    cache.put(path, info);
+                }
+                return info;
+            });
+        } catch (IOException e) {
+            log.error("探测媒体信息失败: {}", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * 缓存命中次数
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * 实际运行 probe 的次数
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * 构建探测命令：格式和全部流的信息，外加开头一段的视频包（时间戳和关键帧标记）
+     */
+    List<String> buildProbeCommand(String inputPath) {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(probePath);
+        cmd.add("-v");
+        cmd.add("error");
+        cmd.add("-print_format");
+        cmd.add("json");
+        cmd.add("-show_format");
+        cmd.add("-show_streams");
+        cmd.add("-show_entries");
+        cmd.add("packet=stream_index,pts_time,flags");
+        cmd.add("-read_intervals");
+        cmd.add("%+" + KEYFRAME_SCAN_SECONDS);
+        cmd.add(inputPath);
+        return cmd;
+    }
+
+    private Info runProbe(Path file) throws IOException {
+        ProcessRunner.ProcessSpec spec = new ProcessRunner.ProcessSpec(buildProbeCommand(file.toString()), "probe");
+        spec.setTimeoutMillis(PROBE_TIMEOUT_MILLIS);
+        AtomicReference<JsonNode> json = new AtomicReference<>();
+        spec.setOutputHandler(inputStream -> json.set(OBJECT_MAPPER.readTree(inputStream)));
+        ProcessRunner.ProcessResult result = processScheduler != null ? processScheduler.run(spec) : processRunner.run(spec);
+        if (!result.isSuccess() || json.get() == null) {
+            log.error("probe 执行失败: {}, 退出码 {}, 输出 {}", file, result.getExitCode(), result.getOutputTail());
+            return null;
+        }
+        return parse(json.get());
+    }
+
+    /**
+     * 解析 probe 的 JSON 输出
+     */
+    static Info parse(JsonNode root) {
+        Info info = new Info();
+        JsonNode format = root.path("format");
+        info.setFormatName(format.path("format_name").asText(null));
+        info.setDurationSeconds(format.path("duration").asDouble(0));
+        info.setBitRate(format.path("bit_rate").asLong(0));
+
+        for (JsonNode node : root.path("streams")) {
+            StreamInfo stream = new StreamInfo();
+            stream.setIndex(node.path("index").asInt());
+            stream.setCodecType(node.path("codec_type").asText(null));
+            stream.setCodecName(node.path("codec_name").asText(null));
+            stream.setPixelFormat(node.path("pix_fmt").asText(null));
+            stream.setWidth(node.path("width").asInt(0));
+            stream.setHeight(node.path("height").asInt(0));
+            String frameRate = node.path("avg_frame_rate").asText(null);
+            if (parseRate(frameRate) <= 0) {
+                frameRate = node.path("r_frame_rate").asText(null);
+            }
+            double fps = parseRate(frameRate);
+            stream.setFps(fps);
+            stream.setFrameRate(fps > 0 ? frameRate : null);
+            stream.setBitRate(node.path("bit_rate").asLong(0));
+            stream.setFrameCount(node.path("nb_frames").asLong(0));
+            stream.setDurationSeconds(node.path("duration").asDouble(0));
+            stream.setSampleRate(node.path("sample_rate").asInt(0));
+            stream.setChannels(node.path("channels").asInt(0));
+            info.getStreams().add(stream);
+        }
+
+        StreamInfo video = info.getVideo();
+        if (video != null) {
+            List<Double> keyframes = new ArrayList<>();
+            for (JsonNode packet : root.path("packets")) {
+                if (packet.path("stream_index").asInt(-1) == video.getIndex()
+                        && packet.path("flags").asText("").startsWith("K") && packet.hasNonNull("pts_time")) {
+                    keyframes.add(packet.path("pts_time").asDouble());
+                }
+            }
+            if (keyframes.size() >= 2) {
+                Collections.sort(keyframes);
+                info.setKeyframeIntervalSeconds((keyframes.get(keyframes.size() - 1) - keyframes.get(0)) / (keyframes.size() - 1));
+            }
+        }
+        return info;
+    }
+
+    /**
+     * 读取 MP4/MOV 顶层 box，判断 moov 是否位于 mdat 之前（可边下载边播放）
+     *
+     * @return 不是 MP4/MOV 或无法判断时返回 null
+     */
+    static Boolean detectFaststart(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(16);
+            long position = 0;
+            for (int i = 0; i < MAX_TOP_LEVEL_BOXES && position + 8 <= channel.size(); i++) {
+                header.clear().limit(16);
+                channel.read(header, position);
+                if (header.position() < 8) {
+                    return null;
+                }
+                long size = Integer.toUnsignedLong(header.getInt(0));
+                String type = new String(header.array(), 4, 4, StandardCharsets.ISO_8859_1);
+                if (i == 0 && !"ftyp".equals(type)) {
+                    return null;
+                }
+                if ("moov".equals(type)) {
+                    return true;
+                }
+                if ("mdat".equals(type)) {
+                    return false;
+                }
+                if (size == 1) {
+                    // 64 位长度
+                    if (header.position() < 16) {
+                        return null;
+                    }
+                    size = header.getLong(8);
+                } else if (size == 0) {
+                    // 延伸到文件末尾
+                    return null;
+                }
+                if (size < 8) {
+                    return null;
+                }
+                position += size;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 解析帧率，如 30000/1001、25/1、0/0
+     */
+    static double parseRate(String value) {
+        if (value == null || value.isEmpty()) {
+            return 0;
+        }
+        try {
+            int slash = value.indexOf('/');
+            if (slash < 0) {
+                return Double.parseDouble(value);
+            }
+            double denominator = Double.parseDouble(value.substring(slash + 1));
+            return denominator == 0 ? 0 : Double.parseDouble(value.substring(0, slash)) / denominator;
+        } catch (NumberFormatException e) {
+            log.warn("解析帧率失败: {}", value);
+            return 0;
+        }
+    }
+
+}
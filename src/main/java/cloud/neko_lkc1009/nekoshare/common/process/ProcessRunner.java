@@ -0,0 +1,318 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 外部进程执行器
+ * 进程输出在独立的 IO 线程池中读取，结果通过 CompletableFuture 返回；
+ * 支持超时和取消，超时或取消时结束整个进程树
+ */
+@Slf4j
+public class ProcessRunner {
+    /**
+     * 默认常驻 IO 线程数；超出时临时增加线程，空闲 60 秒后回收
+     */
+    private static final int DEFAULT_IO_THREADS = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+
+    private static final ProcessRunner SHARED = new ProcessRunner(DEFAULT_IO_THREADS);
+
+    private final ExecutorService ioPool;
+    private final ScheduledExecutorService watchdog;
+
+    /**
+     * 读取进程标准输出
+     */
+    @FunctionalInterface
+    public interface OutputHandler {
+        void handle(InputStream inputStream) throws IOException;
+    }
+
+    /**
+     * 向进程标准输入写入数据
+     */
+    @FunctionalInterface
+    public interface InputWriter {
+        void write(OutputStream outputStream) throws IOException;
+    }
+
+    /**
+     * 进程执行参数
+     */
+    @Data
+    @NoArgsConstructor
+    public static class ProcessSpec {
+        private List<String> command;
+        private String tag = "process";           // 日志标识
+        private long timeoutMillis = 0;           // 超时时间，0 表示不限制
+        private boolean verbose = false;          // 是否逐行输出日志
+        private boolean redirectErrorStream = true;
+        private Path workingDirectory;
+        private int tailLines = 20;               // 结果中保留的最后输出行数
+        private Consumer<String> lineHandler;     // 每行输出回调
+        private int priority = 0;                 // 调度优先级，越大越先执行
+        private String owner;                     // 调度时的请求方，用于公平分配
+        private OutputHandler outputHandler;      // 处理标准输出原始数据，设置后标准错误单独按行读取
+        private InputWriter inputWriter;          // 写入标准输入，返回后关闭
+
+        public ProcessSpec(List<String> command, String tag) {
+            this.command = command;
+            this.tag = tag;
+        }
+    }
+
+    /**
+     * 进程执行结果
+     */
+    @Data
+    public static class ProcessResult {
+        private List<String> command;
+        private int exitCode = -1;
+        private boolean timedOut;
+        private boolean cancelled;
+        private long elapsedMillis;
+        private List<String> outputTail = new ArrayList<>(); // 最后若干行输出
+        private String error;                                // 输出处理失败的原因
+
+        /**
+         * 正常退出、退出码为 0 且输出处理成功
+         */
+        public boolean isSuccess() {
+            return exitCode == 0 && !timedOut && !cancelled && error == null;
+        }
+    }
+
+    /**
+     * 读取输出的线程会阻塞到进程结束，线程数按需增加且不设上限，避免互相等待的进程（如管道两端）因线程不足而卡住；
+     * 同时运行的进程数由 {@link ProcessScheduler} 限制，本执行器不做准入控制
+     *
+     * @param ioThreads 常驻 IO 线程数
+     */
+    public ProcessRunner(int ioThreads) {
+        AtomicInteger counter = new AtomicInteger();
+        this.ioPool = new ThreadPoolExecutor(ioThreads, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "process-io-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "process-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 全局共享的执行器
+     */
+    public static ProcessRunner shared() {
+        return SHARED;
+    }
+
+    /**
+     * 异步执行进程
+     * 取消返回的 Future 会结束整个进程树
+     *
+     * @param spec 执行参数
+     * @return 执行结果，进程无法启动时异常完成
+     */
+    public CompletableFuture<ProcessResult> execute(ProcessSpec spec) {
+        CompletableFuture<ProcessResult> future = new CompletableFuture<>();
+        ProcessBuilder processBuilder = new ProcessBuilder(spec.getCommand());
+        processBuilder.redirectErrorStream(spec.isRedirectErrorStream() && spec.getOutputHandler() == null);
+        if (!spec.isRedirectErrorStream()) {
+            processBuilder.redirectError(ProcessBuilder.Redirect.DISCARD);
+        }
+        if (spec.getWorkingDirectory() != null) {
+            processBuilder.directory(spec.getWorkingDirectory().toFile());
+        }
+
+        long start = System.nanoTime();
+        Process process;
+        try {
+            process = processBuilder.start();
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        AtomicBoolean timedOut = new AtomicBoolean();
+        ScheduledFuture<?> timeout = spec.getTimeoutMillis() > 0
+                ? watchdog.schedule(() -> {
+                    timedOut.set(true);
+                    log.error("{} 执行超时 ({} ms)，结束进程", spec.getTag(), spec.getTimeoutMillis());
+                    destroyTree(process);
+                }, spec.getTimeoutMillis(), TimeUnit.MILLISECONDS)
+                : null;
+
+        future.whenComplete((result, error) -> {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            if (future.isCancelled()) {
+                log.warn("{} 已取消，结束进程", spec.getTag());
+                destroyTree(process);
+            }
+        });
+
+        // 线程池不设上限，不会拒绝任务
+        if (spec.getInputWriter() != null) {
+            ioPool.execute(() -> writeInput(spec, process, future));
+        }
+        ioPool.execute(() -> drain(spec, process, start, timedOut, future));
+        return future;
+    }
+
+    /**
+     * 同步执行进程，当前线程被中断时结束进程树
+     *
+     * @param spec 执行参数
+     * @return 执行结果
+     * @throws IOException 进程无法启动
+     */
+    public ProcessResult run(ProcessSpec spec) throws IOException {
+        return await(spec, execute(spec));
+    }
+
+    /**
+     * 等待执行结果，当前线程被中断时取消
+     * 进程无法启动时抛出 IOException，其他运行时异常原样抛出
+     */
+    static ProcessResult await(ProcessSpec spec, CompletableFuture<ProcessResult> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return cancelledResult(spec);
+        } catch (CancellationException e) {
+            return cancelledResult(spec);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * 按行读取输出：记录最后若干行，按需输出日志和回调
+     */
+    private static void readLines(ProcessSpec spec, Process process, InputStream inputStream, Deque<String> tail) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (spec.isVerbose()) {
+                    log.info("{}: {}", spec.getTag(), line);
+                }
+                if (spec.getTailLines() > 0) {
+                    if (tail.size() == spec.getTailLines()) {
+                        tail.pollFirst();
+                    }
+                    tail.addLast(line);
+                }
+                if (spec.getLineHandler() != null) {
+                    spec.getLineHandler().accept(line);
+                }
+            }
+        } catch (IOException e) {
+            // 进程被结束时流会关闭
+            log.debug("{} 输出读取结束: {}", spec.getTag(), e.getMessage());
+        } catch (RuntimeException e) {
+            log.error("{} 输出处理异常", spec.getTag(), e);
+            destroyTree(process);
+        }
+    }
+
+    /**
+     * 写入标准输入，写入失败时结束进程，避免进程把不完整的输入当作正常结束
+     */
+    private static void writeInput(ProcessSpec spec, Process process, CompletableFuture<ProcessResult> future) {
+        try (OutputStream outputStream = process.getOutputStream()) {
+            spec.getInputWriter().write(outputStream);
+        } catch (IOException | RuntimeException e) {
+            if (process.isAlive() && !future.isDone()) {
+                log.error("{} 写入输入失败", spec.getTag(), e);
+            }
+            destroyTree(process);
+        }
+    }
+
+    private static ProcessResult cancelledResult(ProcessSpec spec) {
+        ProcessResult result = new ProcessResult();
+        result.setCommand(spec.getCommand());
+        result.setCancelled(true);
+        return result;
+    }
+
+    /**
+     * 结束进程及其所有子进程
+     */
+    static void destroyTree(Process process) {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
+    private void drain(ProcessSpec spec, Process process, long start, AtomicBoolean timedOut,
+                       CompletableFuture<ProcessResult> future) {
+        ProcessResult result = new ProcessResult();
+        result.setCommand(spec.getCommand());
+        Deque<String> tail = new ArrayDeque<>();
+        if (spec.getOutputHandler() == null) {
+            readLines(spec, process, process.getInputStream(), tail);
+        } else {
+            // 标准输出交给处理器，标准错误按行读取
+            Future<?> errors = spec.isRedirectErrorStream()
+                    ? ioPool.submit(() -> readLines(spec, process, process.getErrorStream(), tail))
+                    : null;
+            try (InputStream inputStream = process.getInputStream()) {
+                spec.getOutputHandler().handle(inputStream);
+            } catch (IOException | RuntimeException e) {
+                if (!timedOut.get() && !future.isDone()) {
+                    log.error("{} 输出处理失败", spec.getTag(), e);
+                }
+                result.setError(String.valueOf(e.getMessage()));
+                destroyTree(process);
+            }
+            if (errors != null) {
+                try {
+                    errors.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException ignored) {
+                }
+            }
+        }
+
+        try {
+            result.setExitCode(process.waitFor());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            destroyTree(process);
+        }
+        result.setTimedOut(timedOut.get());
+        result.setCancelled(future.isCancelled());
+        result.setElapsedMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        result.setOutputTail(new ArrayList<>(tail));
+        if (!result.isSuccess() && !result.isCancelled()) {
+            log.error("{} 退出码: {}{}", spec.getTag(), result.getExitCode(), result.isTimedOut() ? " (超时)" : "");
+        }
+        future.complete(result);
+    }
+
+}
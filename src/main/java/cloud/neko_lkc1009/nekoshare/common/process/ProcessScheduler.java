@@ -0,0 +1,393 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 外部进程调度器
+ * 按工具（ProcessSpec 的 tag，如 ffmpeg、waifu2x）限制同时运行的进程数，超出的请求排队等待：
+ * 优先级高的先执行，同一优先级内按请求方轮流执行，避免单个用户的大量请求占满执行槽；
+ * 等待数达到上限时立即拒绝
+ */
+@Slf4j
+@Component
+public class ProcessScheduler {
+
+    @Value("${process.scheduler.slots.ffmpeg:2}")
+    private int ffmpegSlots = 2;
+
+    @Value("${process.scheduler.slots.waifu2x:1}")
+    private int waifu2xSlots = 1;
+
+    @Value("${process.scheduler.slots.pipeline:2}")
+    private int pipelineSlots = 2;
+
+    @Value("${process.scheduler.default-slots:2}")
+    private int defaultSlots = 2;
+
+    @Value("${process.scheduler.max-queued:64}")
+    private int maxQueued = 64;
+
+    private final ProcessRunner processRunner;
+
+    /**
+     * 指定了执行槽数的工具，其余工具使用 defaultSlots
+     */
+    private final Map<String, Integer> slotOverrides = new HashMap<>();
+
+    private final Map<String, Lane> lanes = new HashMap<>();
+
+    /**
+     * 单个工具的执行槽和等待队列，访问时持有调度器的锁
+     */
+    private static class Lane {
+        private final String tool;
+        private final int slots;
+        private int running;
+        private int queued;
+        // 优先级（从高到低） -> 请求方（按轮转顺序） -> 等待的任务
+        private final TreeMap<Integer, LinkedHashMap<String, ArrayDeque<Task>>> waiting = new TreeMap<>(Comparator.reverseOrder());
+
+        private long submitted;
+        private long started;
+        private long rejected;
+        private long completed;
+        private long totalWaitNanos;
+        private long maxWaitNanos;
+        private long busyNanos;
+
+        Lane(String tool, int slots) {
+            this.tool = tool;
+            this.slots = slots;
+        }
+    }
+
+    /**
+     * 占用执行槽期间运行的逻辑
+     */
+    @FunctionalInterface
+    public interface Job<T> {
+        T call() throws IOException;
+    }
+
+    /**
+     * 等待或运行中的进程
+     */
+    private static class Task {
+        private final ProcessRunner.ProcessSpec spec;
+        private final Supplier<CompletableFuture<ProcessRunner.ProcessResult>> launcher; // 为 null 时按 spec 启动进程
+        private final String owner;
+        private final CompletableFuture<ProcessRunner.ProcessResult> future = new CompletableFuture<>();
+        private final long enqueuedNanos = System.nanoTime();
+        private long startedNanos;
+        private volatile CompletableFuture<ProcessRunner.ProcessResult> process;
+
+        Task(ProcessRunner.ProcessSpec spec, Supplier<CompletableFuture<ProcessRunner.ProcessResult>> launcher) {
+            this.spec = spec;
+            this.launcher = launcher;
+            this.owner = spec.getOwner() != null ? spec.getOwner() : "";
+        }
+    }
+
+    /**
+     * 单个工具的调度统计
+     */
+    @Data
+    public static class ToolStats {
+        private String tool;
+        private int slots;               // 执行槽数
+        private int running;             // 运行中的进程数
+        private int queued;              // 等待中的请求数
+        private long submitted;          // 提交的请求数
+        private long rejected;           // 因队列已满被拒绝的请求数
+        private long completed;          // 已结束的进程数
+        private double averageWaitMillis; // 平均等待时间
+        private long maxWaitMillis;      // 最长等待时间
+        private long busyMillis;         // 执行槽累计占用时间
+    }
+
+    public ProcessScheduler() {
+        this(ProcessRunner.shared());
+    }
+
+    public ProcessScheduler(ProcessRunner processRunner) {
+        this.processRunner = processRunner;
+    }
+
+    /**
+     * @param processRunner 进程执行器
+     * @param slots         各工具的执行槽数
+     * @param defaultSlots  未指定工具的执行槽数
+     * @param maxQueued     每个工具最多等待的请求数
+     */
+    public ProcessScheduler(ProcessRunner processRunner, Map<String, Integer> slots, int defaultSlots, int maxQueued) {
+        this(processRunner);
+        this.slotOverrides.putAll(slots);
+        this.defaultSlots = defaultSlots;
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * 提交进程，有空闲执行槽时立即启动，否则排队
+     * 取消返回的 Future：排队中的请求直接移出队列，运行中的进程结束整个进程树
+     *
+     * @param spec 执行参数，tag 作为工具名，priority 和 owner 用于排队顺序
+     * @return 执行结果；队列已满时以 RejectedExecutionException 异常完成
+     */
+    public CompletableFuture<ProcessRunner.ProcessResult> execute(ProcessRunner.ProcessSpec spec) {
+        return submit(new Task(spec, null));
+    }
+
+    /**
+     * 同步执行进程，当前线程被中断时取消
+     *
+     * @param spec 执行参数
+     * @return 执行结果
+     * @throws IOException                进程无法启动
+     * @throws RejectedExecutionException 等待队列已满
+     */
+    public ProcessRunner.ProcessResult run(ProcessRunner.ProcessSpec spec) throws IOException {
+        return ProcessRunner.await(spec, execute(spec));
+    }
+
+    /**
+     * 占用指定工具的一个执行槽运行一段逻辑，逻辑返回后释放执行槽
+     * 用于整体限制由多个长时间运行的进程组成的任务（如流式超分流水线），排队规则与进程相同
+     *
+     * @param tool     工具名，即执行槽分组
+     * @param priority 排队优先级
+     * @param owner    请求方
+     * @param job      占用执行槽期间运行的逻辑
+     * @return 逻辑的返回值；排队时被中断返回 null 并保留中断状态
+     * @throws RejectedExecutionException 等待队列已满
+     */
+    public <T> T runJob(String tool, int priority, String owner, Job<T> job) throws IOException {
+        ProcessRunner.ProcessSpec spec = new ProcessRunner.ProcessSpec(List.of(), tool);
+        spec.setPriority(priority);
+        spec.setOwner(owner);
+        CompletableFuture<Void> admitted = new CompletableFuture<>();
+        CompletableFuture<ProcessRunner.ProcessResult> finished = new CompletableFuture<>();
+        Task task = new Task(spec, () -> {
+            admitted.complete(null);
+            return finished;
+        });
+        submit(task).whenComplete((result, error) -> {
+            if (error != null) {
+                admitted.completeExceptionally(error);
+            }
+        });
+        try {
+            try {
+                admitted.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                throw new IOException(e.getCause());
+            }
+            return job.call();
+        } finally {
+            ProcessRunner.ProcessResult result = new ProcessRunner.ProcessResult();
+            result.setCommand(spec.getCommand());
+            result.setExitCode(0);
+            finished.complete(result);
+            // 仍在排队时移出队列
+            task.future.cancel(true);
+        }
+    }
+
+    private CompletableFuture<ProcessRunner.ProcessResult> submit(Task task) {
+        ProcessRunner.ProcessSpec spec = task.spec;
+        boolean start = false;
+        synchronized (this) {
+            Lane lane = lane(spec.getTag());
+            lane.submitted++;
+            if (lane.running < lane.slots && lane.queued == 0) {
+                lane.running++;
+                start = true;
+            } else if (lane.queued >= maxQueued) {
+                lane.rejected++;
+                log.warn("{} 等待队列已满 ({})，拒绝执行", lane.tool, lane.queued);
+                task.future.completeExceptionally(new RejectedExecutionException(
+                        "队列已满: " + lane.tool + " 正在运行 " + lane.running + " 个进程，等待 " + lane.queued + " 个"));
+                return task.future;
+            } else {
+                lane.waiting.computeIfAbsent(spec.getPriority(), priority -> new LinkedHashMap<>())
+                        .computeIfAbsent(task.owner, owner -> new ArrayDeque<>())
+                        .addLast(task);
+                lane.queued++;
+            }
+        }
+
+        task.future.whenComplete((result, error) -> {
+            if (task.future.isCancelled()) {
+                cancel(task);
+            }
+        });
+        if (start) {
+            start(task);
+        }
+        return task.future;
+    }
+
+    /**
+     * 获取各工具的调度统计
+     */
+    public synchronized Map<String, ToolStats> getStats() {
+        Map<String, ToolStats> stats = new TreeMap<>();
+        for (Lane lane : lanes.values()) {
+            ToolStats toolStats = new ToolStats();
+            toolStats.setTool(lane.tool);
+            toolStats.setSlots(lane.slots);
+            toolStats.setRunning(lane.running);
+            toolStats.setQueued(lane.queued);
+            toolStats.setSubmitted(lane.submitted);
+            toolStats.setRejected(lane.rejected);
+            toolStats.setCompleted(lane.completed);
+            toolStats.setAverageWaitMillis(lane.started == 0 ? 0 : lane.totalWaitNanos / 1e6 / lane.started);
+            toolStats.setMaxWaitMillis(TimeUnit.NANOSECONDS.toMillis(lane.maxWaitNanos));
+            toolStats.setBusyMillis(TimeUnit.NANOSECONDS.toMillis(lane.busyNanos));
+            stats.put(lane.tool, toolStats);
+        }
+        return stats;
+    }
+
+    /**
+     * 获取工具的并发执行槽数
+     */
+    public synchronized int getSlots(String tool) {
+        return lane(tool).slots;
+    }
+
+    private Lane lane(String tool) {
+        return lanes.computeIfAbsent(tool, name -> new Lane(name, Math.max(1, slotsFor(name))));
+    }
+
+    private int slotsFor(String tool) {
+        Integer slots = slotOverrides.get(tool);
+        if (slots != null) {
+            return slots;
+        }
+        return switch (tool) {
+            case "ffmpeg" -> ffmpegSlots;
+            case "waifu2x" -> waifu2xSlots;
+            case "pipeline" -> pipelineSlots;
+            default -> defaultSlots;
+        };
+    }
+
+    /**
+     * 启动已占用执行槽的任务
+     */
+    private void start(Task task) {
+        long waitNanos;
+        synchronized (this) {
+            Lane lane = lane(task.spec.getTag());
+            task.startedNanos = System.nanoTime();
+            waitNanos = task.startedNanos - task.enqueuedNanos;
+            lane.started++;
+            lane.totalWaitNanos += waitNanos;
+            lane.maxWaitNanos = Math.max(lane.maxWaitNanos, waitNanos);
+        }
+        if (waitNanos > TimeUnit.SECONDS.toNanos(1)) {
+            log.info("{} 排队 {} ms 后开始执行", task.spec.getTag(), TimeUnit.NANOSECONDS.toMillis(waitNanos));
+        }
+
+        CompletableFuture<ProcessRunner.ProcessResult> process;
+        try {
+            process = task.launcher != null ? task.launcher.get() : processRunner.execute(task.spec);
+        } catch (RuntimeException e) {
+            process = CompletableFuture.failedFuture(e);
+        }
+        task.process = process;
+        process.whenComplete((result, error) -> {
+            release(task);
+            if (error != null) {
+                task.future.completeExceptionally(error);
+            } else {
+                task.future.complete(result);
+            }
+        });
+        // 启动前已被取消
+        if (task.future.isCancelled()) {
+            process.cancel(true);
+        }
+    }
+
+    /**
+     * 释放执行槽，并启动下一个等待的任务
+     */
+    private void release(Task task) {
+        List<Task> next = new ArrayList<>();
+        synchronized (this) {
+            Lane lane = lane(task.spec.getTag());
+            lane.running--;
+            lane.completed++;
+            lane.busyNanos += System.nanoTime() - task.startedNanos;
+            while (lane.running < lane.slots && lane.queued > 0) {
+                lane.running++;
+                next.add(poll(lane));
+            }
+        }
+        next.forEach(this::start);
+    }
+
+    /**
+     * 取出下一个任务：最高优先级中轮到的请求方的第一个任务，该请求方随后移到队尾
+     */
+    private Task poll(Lane lane) {
+        Map.Entry<Integer, LinkedHashMap<String, ArrayDeque<Task>>> level = lane.waiting.firstEntry();
+        LinkedHashMap<String, ArrayDeque<Task>> owners = level.getValue();
+        Iterator<Map.Entry<String, ArrayDeque<Task>>> iterator = owners.entrySet().iterator();
+        Map.Entry<String, ArrayDeque<Task>> first = iterator.next();
+        Task task = first.getValue().pollFirst();
+        iterator.remove();
+        if (!first.getValue().isEmpty()) {
+            owners.put(first.getKey(), first.getValue());
+        }
+        if (owners.isEmpty()) {
+            lane.waiting.remove(level.getKey());
+        }
+        lane.queued--;
+        return task;
+    }
+
+    /**
+     * 取消任务：排队中的移出队列，运行中的结束进程
+     */
+    private void cancel(Task task) {
+        synchronized (this) {
+            Lane lane = lane(task.spec.getTag());
+            LinkedHashMap<String, ArrayDeque<Task>> owners = lane.waiting.get(task.spec.getPriority());
+            ArrayDeque<Task> tasks = owners != null ? owners.get(task.owner) : null;
+            if (tasks != null && tasks.remove(task)) {
+                lane.queued--;
+                if (tasks.isEmpty()) {
+                    owners.remove(task.owner);
+                    if (owners.isEmpty()) {
+                        lane.waiting.remove(task.spec.getPriority());
+                    }
+                }
+                return;
+            }
+        }
+        CompletableFuture<ProcessRunner.ProcessResult> process = task.process;
+        if (process != null) {
+            process.cancel(true);
+        }
+    }
+
+}
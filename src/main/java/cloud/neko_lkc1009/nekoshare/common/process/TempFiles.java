@@ -0,0 +1,46 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * 临时文件工具类
+ */
+@Slf4j
+public class TempFiles {
+
+    /**
+     * 删除目录及其中的所有文件，目录不存在时直接返回
+     * 单个文件删除失败时跳过，尽量删除其余文件
+     *
+     * @param directory 目录，可以为 null
+     * @return 删除的文件总大小
+     */
+    public static long deleteDirectory(Path directory) {
+        if (directory == null || !Files.exists(directory)) {
+            return 0;
+        }
+        long[] size = {0};
+        try (Stream<Path> paths = Files.walk(directory)) {
+            // 先删文件再删目录
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    long fileSize = Files.isRegularFile(path) ? Files.size(path) : 0;
+                    if (Files.deleteIfExists(path)) {
+                        size[0] += fileSize;
+                    }
+                } catch (IOException ignored) {
+                }
+            });
+        } catch (IOException e) {
+            log.warn("删除临时目录失败: {}", directory);
+        }
+        return size[0];
+    }
+
+}
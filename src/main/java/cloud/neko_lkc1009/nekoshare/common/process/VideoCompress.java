@@ -3,29 +3,50 @@ package cloud.neko_lkc1009.nekoshare.common.process;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 /**
  * 视频压缩工具类
- * 基于 ffmpeg 实现
+ * 基于 ffmpeg 实现；长视频可开启分段模式，多个 ffmpeg 进程并行编码各分段；
+ * 输入已满足要求时跳过编码，直接复制或只重新封装；也可一次解码输出多码率 HLS
  */
 @Slf4j
 @Component
 public class VideoCompress {
+    /**
+     * 可用性检测超时时间 (毫秒)
+     */
+    private static final long AVAILABILITY_TIMEOUT_MILLIS = 10_000;
+
     @Value("${ffmpeg.executable.path}")
     private String ffmpegPath;
 
+    private ProcessRunner processRunner = ProcessRunner.shared();
+
+    @Autowired(required = false)
+    private ProcessScheduler processScheduler;
+
+    @Autowired(required = false)
+    private DerivativeCache derivativeCache;
+
+    @Autowired(required = false)
+    private MediaInfo mediaInfo;
+
     /**
      * 压缩配置
      */
@@ -41,7 +62,62 @@ public class VideoCompress {
         private Integer targetBitrateKbps = null; // 目标码率（kbps），优先于CRF
         private Boolean copyAudio = true;      // 是否拷贝音频编码
         private Boolean twoPass = false;       // 是否开启双 pass（仅在指定码率时常用）
+        @DerivativeCache.IgnoredInKey
         private Boolean verbose = false;       // 是否输出详细日志
+        @DerivativeCache.IgnoredInKey
+        private Integer timeoutSeconds = 0;    // 超时时间（秒），0 表示不限制
+        @DerivativeCache.IgnoredInKey
+        private Integer priority = 0;          // 排队优先级，越大越先执行
+        @DerivativeCache.IgnoredInKey
+        private String owner;                  // 请求方，排队时同一优先级内轮流执行
+        private Boolean segmented = false;     // 分段并行编码：在关键帧处切分，各段同时编码后无损拼接（不支持双 pass）
+        private Integer segmentSeconds = 30;   // 分段时长（秒），实际在其后的第一个关键帧处切分
+        @DerivativeCache.IgnoredInKey
+        private Integer parallelSegments = 0;  // 同时编码的分段数，0 表示按 CPU 核数自动选择；另受调度器 ffmpeg 执行槽限制
+        private Boolean passthrough = true;    // 输入已满足编码、像素格式、分辨率和码率要求时不重新编码，直接复制或只重新封装
+        private Double passthroughBitsPerPixel = 0.1; // 未指定目标码率时可直接复制的码率上限（CRF 23 时每像素每帧的比特数），0 表示不限制
+        @DerivativeCache.IgnoredInKey
+        private Integer hlsSegmentSeconds = 6; // HLS 输出的分片时长（秒），各档位在相同时间点强制关键帧
+    }
+
+    /**
+     * HLS 码率档位
+     */
+    @Data
+    @NoArgsConstructor
+    public static class Rendition {
+        private String name;                   // 档位名称，同时作为子目录名，如 720p
+        private Integer maxWidth;              // 最大宽度，保持比例缩放，不放大
+        private Integer maxHeight;             // 最大高度，保持比例缩放，不放大
+        private Integer videoBitrateKbps;      // 视频码率（kbps）
+        private Integer audioBitrateKbps = 128;// 音频码率（kbps）
+
+        public Rendition(String name, int maxWidth, int maxHeight, int videoBitrateKbps) {
+            this.name = name;
+            this.maxWidth = maxWidth;
+            this.maxHeight = maxHeight;
+            this.videoBitrateKbps = videoBitrateKbps;
+        }
+    }
+
+    /**
+     * 默认码率阶梯
+     */
+    public static List<Rendition> defaultLadder() {
+        return List.of(
+                new Rendition("1080p", 1920, 1080, 5000),
+                new Rendition("720p", 1280, 720, 2800),
+                new Rendition("480p", 854, 480, 1400),
+                new Rendition("360p", 640, 360, 800));
+    }
+
+    /**
+     * 压缩方式
+     */
+    enum Decision {
+        SKIP,       // 输入已满足要求，直接复制
+        REMUX,      // 视频流满足要求，流复制到新封装（或补上 faststart）
+        TRANSCODE   // 重新编码
     }
 
     /**
@@ -55,6 +131,19 @@ public class VideoCompress {
      * 使用自定义配置压缩
      */
     public boolean compress(String inputPath, String outputPath, CompressConfig config) {
+        if (derivativeCache == null || !Files.exists(Paths.get(inputPath))) {
+            return runCompress(inputPath, outputPath, config);
+        }
+        try {
+            return derivativeCache.getOrCreate(Paths.get(inputPath), "video-compress", config, Paths.get(outputPath),
+                    output -> runCompress(inputPath, output.toString(), config));
+        } catch (IOException e) {
+            log.error("读写衍生文件缓存失败", e);
+            return false;
+        }
+    }
+
+    private boolean runCompress(String inputPath, String outputPath, CompressConfig config) {
         try {
             Path in = Paths.get(inputPath);
             if (!Files.exists(in)) {
@@ -64,46 +153,228 @@ public class VideoCompress {
             Path out = Paths.get(outputPath);
             Files.createDirectories(out.getParent());
 
-            // 构建压缩命令
-            List<String> command = buildCompressCommand(inputPath, outputPath, config);
-            log.info("执行 ffmpeg 命令: {}", String.join(" ", command));
-
-            if (Boolean.TRUE.equals(config.getTwoPass()) && config.getTargetBitrateKbps() != null) {
-                // 两遍编码
-                List<String> pass1 = new ArrayList<>(command);
-                // 将输出文件改为 NUL 丢弃（Windows），或 /dev/null（非Windows），这里假设 Windows
-                pass1.add(0, ffmpegPath);
-                int outIndex = pass1.lastIndexOf(outputPath);
-                if (outIndex >= 0) pass1.set(outIndex, "NUL");
-                pass1.add("-pass");
-                pass1.add("1");
-
-                List<String> pass2 = new ArrayList<>(command);
-                pass2.add(0, ffmpegPath);
-                pass2.add("-pass");
-                pass2.add("2");
-
-                if (!runProcess(pass1, config.getVerbose())) return false;
-                return runProcess(pass2, config.getVerbose());
-            } else {
-                command.add(0, ffmpegPath);
-                return runProcess(command, config.getVerbose());
+            long start = System.nanoTime();
+            boolean segmented = Boolean.TRUE.equals(config.getSegmented()) && !isTwoPass(config);
+            boolean passthrough = Boolean.TRUE.equals(config.getPassthrough());
+            MediaInfo.Info info = (segmented || passthrough) && mediaInfo != null ? mediaInfo.probe(in) : null;
+            if (passthrough && info != null) {
+                Decision decision = decide(info, outputPath, config);
+                if (decision == Decision.SKIP) {
+                    FilePassthrough.transfer(in, out, FilePassthrough.Mode.COPY);
+                    log.info("输入已满足要求，跳过压缩: {}", inputPath);
+                    return true;
+                }
+                if (decision == Decision.REMUX) {
+                    List<String> remux = buildRemuxCommand(inputPath, outputPath);
+                    log.info("输入已满足编码要求，只重新封装: {}", String.join(" ", remux));
+                    if (runProcess(remux, config)) {
+                        log.info("视频重新封装完成: {}, 耗时 {} ms", inputPath, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                        return true;
+                    }
+                    log.warn("重新封装失败，改为重新编码: {}", inputPath);
+                }
             }
+            if (info != null && info.getDurationSeconds() > 0 && info.getDurationSeconds() < 2.0 * Math.max(1, config.getSegmentSeconds())) {
+                // 不足两个分段，切分和拼接的开销得不到回报
+                log.info("视频时长 {} 秒，不足两个分段，改为单进程编码: {}", String.format("%.1f", info.getDurationSeconds()), inputPath);
+                segmented = false;
+            }
+            boolean success = segmented ? compressSegmented(inputPath, outputPath, config, info) : compressWhole(inputPath, outputPath, config);
+            log.info("视频压缩{}（{}）: {}, 耗时 {} ms", success ? "完成" : "失败", segmented ? "分段并行" : "单进程",
+                    inputPath, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return success;
         } catch (IOException e) {
             log.error("视频压缩 IO 异常", e);
             return false;
         }
     }
 
+    /**
+     * 根据探测结果选择压缩方式：视频流满足要求时，封装一致（MP4/MOV 还要求 faststart）则直接复制，否则只重新封装
+     *
+     * @param info       输入的媒体信息
+     * @param outputPath 输出路径，按扩展名判断封装
+     */
+    static Decision decide(MediaInfo.Info info, String outputPath, CompressConfig config) {
+        String reason = transcodeReason(info, config);
+        if (reason != null) {
+            log.info("需要重新编码: {}", reason);
+            return Decision.TRANSCODE;
+        }
+        String container = outputContainer(outputPath);
+        if (container == null || info.getFormatName() == null || !Arrays.asList(info.getFormatName().split(",")).contains(container)) {
+            return Decision.REMUX;
+        }
+        if ("mp4".equals(container) && !Boolean.TRUE.equals(info.getFaststart())) {
+            return Decision.REMUX;
+        }
+        return Decision.SKIP;
+    }
+
+    /**
+     * 视频和音频流不满足配置的原因，满足时返回 null
+     */
+    private static String transcodeReason(MediaInfo.Info info, CompressConfig config) {
+        MediaInfo.StreamInfo video = info.getVideo();
+        if (video == null) {
+            return "没有视频流";
+        }
+        String codec = codecName(config.getVideoCodec());
+        if (!codec.equals(video.getCodecName())) {
+            return "视频编码 " + video.getCodecName() + " 不是 " + codec;
+        }
+        if (!config.getPixelFormat().equals(video.getPixelFormat())) {
+            return "像素格式 " + video.getPixelFormat() + " 不是 " + config.getPixelFormat();
+        }
+        if (video.getWidth() <= 0 || video.getHeight() <= 0
+                || video.getWidth() > config.getMaxWidth() || video.getHeight() > config.getMaxHeight()) {
+            return "分辨率 " + video.getWidth() + "x" + video.getHeight() + " 超出 " + config.getMaxWidth() + "x" + config.getMaxHeight();
+        }
+        long maxBitRate = config.getTargetBitrateKbps() != null && config.getTargetBitrateKbps() > 0
+                ? config.getTargetBitrateKbps() * 1000L
+                : crfMaxBitRate(video, config);
+        if (maxBitRate > 0) {
+            long bitRate = video.getBitRate() > 0 ? video.getBitRate() : info.getBitRate();
+            if (bitRate <= 0 || bitRate > maxBitRate) {
+                return "码率 " + (bitRate > 0 ? bitRate / 1000 + " kbps" : "未知") + " 高于 " + maxBitRate / 1000 + " kbps";
+            }
+        }
+        MediaInfo.StreamInfo audio = info.getAudio();
+        if (audio != null && !Boolean.TRUE.equals(config.getCopyAudio()) && !"aac".equals(audio.getCodecName())) {
+            return "音频编码 " + audio.getCodecName() + " 不是 aac";
+        }
+        return null;
+    }
+
+    /**
+     * CRF 模式下可直接复制的码率上限 (bit/s)：按分辨率和帧率（未知时按 30）估算，
+     * CRF 23 时为 passthroughBitsPerPixel，CRF 每增加 6 减半；未配置时返回 0，表示不限制
+     */
+    static long crfMaxBitRate(MediaInfo.StreamInfo video, CompressConfig config) {
+        if (config.getPassthroughBitsPerPixel() == null || config.getPassthroughBitsPerPixel() <= 0) {
+            return 0;
+        }
+        double fps = video.getFps() > 0 ? video.getFps() : 30;
+        int crf = config.getCrf() != null ? config.getCrf() : 23;
+        double bitsPerPixel = config.getPassthroughBitsPerPixel() * Math.pow(2, (23 - crf) / 6.0);
+        return Math.round((double) video.getWidth() * video.getHeight() * fps * bitsPerPixel);
+    }
+
+    /**
+     * 编码器对应的编码名称，如 libx264 -> h264
+     */
+    private static String codecName(String encoder) {
+        String name = encoder.toLowerCase(Locale.ROOT);
+        if (name.contains("264")) return "h264";
+        if (name.contains("265") || name.contains("hevc")) return "hevc";
+        if (name.contains("vp9")) return "vp9";
+        if (name.contains("av1")) return "av1";
+        return name;
+    }
+
+    /**
+     * 输出扩展名对应的封装（probe 的 format_name 中的名称），未知时返回 null
+     */
+    private static String outputContainer(String outputPath) {
+        String name = Paths.get(outputPath).getFileName().toString().toLowerCase(Locale.ROOT);
+        String extension = name.substring(name.lastIndexOf('.') + 1);
+        return switch (extension) {
+            case "mp4", "m4v", "mov" -> "mp4";
+            case "mkv" -> "matroska";
+            case "webm" -> "webm";
+            default -> null;
+        };
+    }
+
+    /**
+     * 构建重新封装命令：流复制第一路视频和音频，MP4/MOV 输出将 moov 移到文件开头
+     */
+    List<String> buildRemuxCommand(String inputPath, String outputPath) {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(ffmpegPath);
+        cmd.add("-y");
+        cmd.add("-i");
+        cmd.add(inputPath);
+        cmd.add("-map");
+        cmd.add("0:v:0");
+        cmd.add("-map");
+        cmd.add("0:a:0?");
+        cmd.add("-c");
+        cmd.add("copy");
+        if ("mp4".equals(outputContainer(outputPath))) {
+            cmd.add("-movflags");
+            cmd.add("+faststart");
+        }
+        cmd.add(outputPath);
+        return cmd;
+    }
+
+    private static boolean isTwoPass(CompressConfig config) {
+        return Boolean.TRUE.equals(config.getTwoPass()) && config.getTargetBitrateKbps() != null;
+    }
+
+    /**
+     * 单个 ffmpeg 进程编码整个文件
+     */
+    private boolean compressWhole(String inputPath, String outputPath, CompressConfig config) throws IOException {
+        // 构建压缩命令
+        List<String> command = buildCompressCommand(inputPath, outputPath, config);
+        log.info("执行 ffmpeg 命令: {}", String.join(" ", command));
+
+        if (isTwoPass(config)) {
+            // 两遍编码
+            List<String> pass1 = new ArrayList<>(command);
+            // 将输出文件改为 NUL 丢弃（Windows），或 /dev/null（非Windows），这里假设 Windows
+            pass1.add(0, ffmpegPath);
+            int outIndex = pass1.lastIndexOf(outputPath);
+            if (outIndex >= 0) pass1.set(outIndex, "NUL");
+            pass1.add("-pass");
+            pass1.add("1");
+
+            List<String> pass2 = new ArrayList<>(command);
+            pass2.add(0, ffmpegPath);
+            pass2.add("-pass");
+            pass2.add("2");
+
+            if (!runProcess(pass1, config)) return false;
+            return runProcess(pass2, config);
+        } else {
+            command.add(0, ffmpegPath);
+            return runProcess(command, config);
+        }
+    }
+
     /**
      * 构建 ffmpeg 压缩命令（不包含可执行文件名）
      */
-    private List<String> buildCompressCommand(String inputPath, String outputPath, CompressConfig config) {
+    List<String> buildCompressCommand(String inputPath, String outputPath, CompressConfig config) {
         List<String> cmd = new ArrayList<>();
         cmd.add("-y");
         cmd.add("-i");
         cmd.add(inputPath);
 
+        appendVideoOptions(cmd, config);
+
+        // 音频处理
+        if (Boolean.TRUE.equals(config.getCopyAudio())) {
+            cmd.add("-c:a");
+            cmd.add("copy");
+        } else {
+            // 也可指定重新编码参数：例如 aac 128k
+            cmd.add("-c:a");
+            cmd.add("aac");
+            cmd.add("-b:a");
+            cmd.add("128k");
+        }
+
+        cmd.add(outputPath);
+        return cmd;
+    }
+
+    /**
+     * 添加视频参数：缩放、编码器、码率或 CRF、预设、像素格式
+     */
+    private void appendVideoOptions(List<String> cmd, CompressConfig config) {
         // 限制分辨率但不放大，保持比例
         String scaleExpr = String.format("scale='min(iw, %d)':'min(ih, %d)':force_original_aspect_ratio=decrease",
                 Math.max(1, config.getMaxWidth()), Math.max(1, config.getMaxHeight()));
@@ -127,58 +398,388 @@ public class VideoCompress {
 
         cmd.add("-pix_fmt");
         cmd.add(config.getPixelFormat());
+    }
 
-        // 音频处理
+    /**
+     * 分段并行编码：
+     * 1) 在关键帧处切分视频流（流复制，不重新编码）
+     * 2) 单独提取音频
+     * 3) 以相同配置同时编码多个分段
+     * 4) concat 分离器拼接分段并合入音频（流复制）
+     *
+     * @param info 媒体信息，未知时为 null
+     */
+    private boolean compressSegmented(String inputPath, String outputPath, CompressConfig config, MediaInfo.Info info) throws IOException {
+        // 名称唯一，同时开始的任务不会共用工作目录
+        Path workDir = Files.createTempDirectory("nekoshare_segments_");
+        try {
+            // 1) 切分
+            List<String> split = buildSplitCommand(inputPath, workDir.toString(), config);
+            log.info("分段命令: {}", String.join(" ", split));
+            if (!runProcess(split, config)) return false;
+            List<Path> segments = listFiles(workDir, "seg_");
+            if (segments.isEmpty()) {
+                log.error("未切分出视频分段: {}", inputPath);
+                return false;
+            }
+
+            // 2) 音频，已知没有音轨时跳过；原视频没有音轨时 ffmpeg 会失败，按无音频处理
+            Path audio = workDir.resolve("audio.mka");
+            boolean hasAudio = (info == null || info.hasAudio())
+                    && runProcess(buildAudioCommand(inputPath, audio.toString(), config), config)
+                    && Files.exists(audio) && Files.size(audio) > 0;
+            if (!hasAudio) {
+                log.info("未提取到音频，输出不含音轨: {}", inputPath);
+            }
+
+            // 3) 并行编码
+            if (!encodeSegments(segments, workDir, config)) return false;
+
+            // 4) 拼接
+            Path list = workDir.resolve("segments.txt");
+            StringBuilder content = new StringBuilder();
+            for (Path encoded : listFiles(workDir, "enc_")) {
+                content.append("file '").append(encoded.getFileName()).append("'\n");
+            }
+            Files.writeString(list, content);
+            List<String> concat = buildConcatCommand(list.toString(), hasAudio ? audio.toString() : null, outputPath);
+            log.info("拼接命令: {}", String.join(" ", concat));
+            return runProcess(concat, config);
+        } finally {
+            TempFiles.deleteDirectory(workDir);
+        }
+    }
+
+    /**
+     * 同时编码多个分段，任一分段失败时取消其余分段
+     */
+    private boolean encodeSegments(List<Path> segments, Path workDir, CompressConfig config) throws IOException {
+        int parallel = segmentParallelism(config, segments.size());
+        // 各 ffmpeg 进程平分 CPU 核数，避免编码线程过度争抢
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / parallel);
+        log.info("并行编码 {} 个分段，同时 {} 个，每个 {} 线程", segments.size(), parallel, threads);
+
+        List<ProcessRunner.ProcessSpec> specs = new ArrayList<>();
+        List<CompletableFuture<ProcessRunner.ProcessResult>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < segments.size(); i++) {
+                // 同时运行的分段达到上限时，等待最早提交的分段完成
+                if (i >= parallel && !ProcessRunner.await(specs.get(i - parallel), futures.get(i - parallel)).isSuccess()) {
+                    log.error("分段编码失败: {}", segments.get(i - parallel).getFileName());
+                    return false;
+                }
+                Path segment = segments.get(i);
+                String output = workDir.resolve(segment.getFileName().toString().replace("seg_", "enc_")).toString();
+                ProcessRunner.ProcessSpec spec = buildSpec(buildSegmentCommand(segment.toString(), output, threads, config), config);
+                specs.add(spec);
+                futures.add(processScheduler != null ? processScheduler.execute(spec) : processRunner.execute(spec));
+            }
+            for (int i = Math.max(0, segments.size() - parallel); i < segments.size(); i++) {
+                if (!ProcessRunner.await(specs.get(i), futures.get(i)).isSuccess()) {
+                    log.error("分段编码失败: {}", segments.get(i).getFileName());
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            // 已完成的 Future 不受影响，只会取消失败后仍在运行或排队的分段
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+
+    int segmentParallelism(CompressConfig config, int segments) {
+        int parallel = config.getParallelSegments() != null && config.getParallelSegments() > 0
+                ? config.getParallelSegments()
+                : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        if (processScheduler != null) {
+            // 超出执行槽的分段只会排队，按实际同时运行的进程数分配线程
+            parallel = Math.min(parallel, processScheduler.getSlots("ffmpeg"));
+        }
+        return Math.max(1, Math.min(parallel, segments));
+    }
+
+    private static List<Path> listFiles(Path directory, String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith(prefix)).sorted().toList();
+        }
+    }
+
+    /**
+     * 构建切分命令：只取视频流，流复制到分段文件，切点落在关键帧上
+     */
+    List<String> buildSplitCommand(String inputPath, String workDir, CompressConfig config) {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(ffmpegPath);
+        cmd.add("-y");
+        cmd.add("-i");
+        cmd.add(inputPath);
+        cmd.add("-map");
+        cmd.add("0:v:0");
+        cmd.add("-c");
+        cmd.add("copy");
+        cmd.add("-f");
+        cmd.add("segment");
+        cmd.add("-segment_time");
+        cmd.add(String.valueOf(Math.max(1, config.getSegmentSeconds())));
+        cmd.add("-reset_timestamps");
+        cmd.add("1");
+        cmd.add(Paths.get(workDir, "seg_%05d.mkv").toString());
+        return cmd;
+    }
+
+    /**
+     * 构建音频提取命令
+     */
+    List<String> buildAudioCommand(String inputPath, String audioPath, CompressConfig config) {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(ffmpegPath);
+        cmd.add("-y");
+        cmd.add("-i");
+        cmd.add(inputPath);
+        cmd.add("-map");
+        cmd.add("0:a:0");
+        cmd.add("-vn");
         if (Boolean.TRUE.equals(config.getCopyAudio())) {
             cmd.add("-c:a");
             cmd.add("copy");
         } else {
-            // 也可指定重新编码参数：例如 aac 128k
             cmd.add("-c:a");
             cmd.add("aac");
             cmd.add("-b:a");
             cmd.add("128k");
         }
+        cmd.add(audioPath);
+        return cmd;
+    }
 
+    /**
+     * 构建单个分段的编码命令
+     */
+    List<String> buildSegmentCommand(String segmentPath, String outputPath, int threads, CompressConfig config) {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(ffmpegPath);
+        cmd.add("-y");
+        cmd.add("-i");
+        cmd.add(segmentPath);
+        cmd.add("-an");
+        appendVideoOptions(cmd, config);
+        cmd.add("-threads");
+        cmd.add(String.valueOf(threads));
         cmd.add(outputPath);
         return cmd;
     }
 
     /**
-     * 运行进程
+     * 构建拼接命令：concat 分离器读取分段列表，流复制输出
+     *
+     * @param audioPath 音频文件，为 null 时输出不含音轨
      */
-    private boolean runProcess(List<String> command, boolean verbose) throws IOException {
-        ProcessBuilder pb = new ProcessBuilder(command);
-        pb.redirectErrorStream(true);
-        Process p = pb.start();
-        try (BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
-            String line;
-            while ((line = r.readLine()) != null) {
-                if (verbose) log.info("ffmpeg: {}", line);
-            }
+    List<String> buildConcatCommand(String listPath, String audioPath, String outputPath) {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(ffmpegPath);
+        cmd.add("-y");
+        cmd.add("-f");
+        cmd.add("concat");
+        cmd.add("-i");
+        cmd.add(listPath);
+        if (audioPath != null) {
+            cmd.add("-i");
+            cmd.add(audioPath);
+        }
+        cmd.add("-map");
+        cmd.add("0:v");
+        if (audioPath != null) {
+            cmd.add("-map");
+            cmd.add("1:a");
         }
+        cmd.add("-c");
+        cmd.add("copy");
+        cmd.add(outputPath);
+        return cmd;
+    }
+
+    /**
+     * 使用默认码率阶梯输出 HLS
+     */
+    public boolean compressHls(String inputPath, String outputDir) {
+        return compressHls(inputPath, outputDir, defaultLadder(), new CompressConfig());
+    }
+
+    /**
+     * 输出多码率 HLS：只解码一次，滤镜图将画面分给各档位分别缩放编码，
+     * 每个档位写入 outputDir/名称/index.m3u8 及分片，主播放列表为 outputDir/master.m3u8
+     *
+     * @param renditions 码率档位；探测到源分辨率时，超出源分辨率的档位合并为一个原分辨率档位
+     * @param config     编码器、预设、像素格式、分片时长及调度参数
+     */
+    public boolean compressHls(String inputPath, String outputDir, List<Rendition> renditions, CompressConfig config) {
         try {
-            int code = p.waitFor();
-            if (code != 0) {
-                log.error("ffmpeg 退出码: {}", code);
+            Path in = Paths.get(inputPath);
+            if (!Files.exists(in)) {
+                log.error("输入文件不存在: {}", inputPath);
+                return false;
+            }
+            MediaInfo.Info info = mediaInfo != null ? mediaInfo.probe(in) : null;
+            List<Rendition> selected = selectRenditions(renditions, info);
+            if (selected.isEmpty()) {
+                log.error("没有可输出的码率档位: {}", inputPath);
+                return false;
+            }
+            // ffmpeg 不会为各档位创建子目录
+            for (Rendition rendition : selected) {
+                Files.createDirectories(Paths.get(outputDir, rendition.getName()));
             }
-            return code == 0;
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            log.error("ffmpeg 进程被中断", e);
+            boolean hasAudio = info == null || info.hasAudio();
+            List<String> command = buildHlsCommand(inputPath, outputDir, selected, hasAudio, config);
+            log.info("HLS 命令: {}", String.join(" ", command));
+
+            long start = System.nanoTime();
+            boolean success = runProcess(command, config);
+            log.info("HLS 输出{}: {} -> {}, {} 个档位, 耗时 {} ms", success ? "完成" : "失败", inputPath, outputDir,
+                    selected.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return success;
+        } catch (IOException e) {
+            log.error("HLS 输出 IO 异常", e);
             return false;
         }
     }
 
+    /**
+     * 去掉宽高都超出源分辨率的档位（缩放不放大，输出会与原分辨率重复），保留其中最低的一个作为原分辨率档位
+     */
+    static List<Rendition> selectRenditions(List<Rendition> renditions, MediaInfo.Info info) {
+        MediaInfo.StreamInfo video = info != null ? info.getVideo() : null;
+        if (video == null || video.getWidth() <= 0 || video.getHeight() <= 0) {
+            return renditions;
+        }
+        List<Rendition> selected = new ArrayList<>();
+        Rendition source = null;
+        for (Rendition rendition : renditions) {
+            if (rendition.getMaxWidth() >= video.getWidth() && rendition.getMaxHeight() >= video.getHeight()) {
+                if (source == null || rendition.getVideoBitrateKbps() < source.getVideoBitrateKbps()) {
+                    source = rendition;
+                }
+            } else {
+                selected.add(rendition);
+            }
+        }
+        if (source != null) {
+            selected.add(0, source);
+        }
+        return selected;
+    }
+
+    /**
+     * 构建 HLS 命令：split 滤镜复制解码后的画面，各档位独立缩放和编码，
+     * 按分片时长强制关键帧使各档位的分片边界一致，便于播放器切换
+     */
+    List<String> buildHlsCommand(String inputPath, String outputDir, List<Rendition> renditions, boolean hasAudio, CompressConfig config) {
+        int count = renditions.size();
+        int segmentSeconds = Math.max(1, config.getHlsSegmentSeconds());
+        StringBuilder filter = new StringBuilder("[0:v]split=").append(count);
+        for (int i = 0; i < count; i++) {
+            filter.append("[s").append(i).append("]");
+        }
+        for (int i = 0; i < count; i++) {
+            Rendition rendition = renditions.get(i);
+            filter.append(String.format(";[s%d]scale=w='min(iw,%d)':h='min(ih,%d)':force_original_aspect_ratio=decrease:force_divisible_by=2[v%d]",
+                    i, rendition.getMaxWidth(), rendition.getMaxHeight(), i));
+        }
+
+        List<String> cmd = new ArrayList<>();
+        cmd.add(ffmpegPath);
+        cmd.add("-y");
+        cmd.add("-i");
+        cmd.add(inputPath);
+        cmd.add("-filter_complex");
+        cmd.add(filter.toString());
+        for (int i = 0; i < count; i++) {
+            cmd.add("-map");
+            cmd.add("[v" + i + "]");
+            if (hasAudio) {
+                cmd.add("-map");
+                cmd.add("0:a:0");
+            }
+        }
+
+        cmd.add("-c:v");
+        cmd.add(config.getVideoCodec());
+        cmd.add("-preset");
+        cmd.add(config.getPreset());
+        cmd.add("-pix_fmt");
+        cmd.add(config.getPixelFormat());
+        for (int i = 0; i < count; i++) {
+            int kbps = renditions.get(i).getVideoBitrateKbps();
+            cmd.add("-b:v:" + i);
+            cmd.add(kbps + "k");
+            cmd.add("-maxrate:v:" + i);
+            cmd.add(kbps * 107 / 100 + "k");
+            cmd.add("-bufsize:v:" + i);
+            cmd.add(kbps * 3 / 2 + "k");
+        }
+        cmd.add("-force_key_frames");
+        cmd.add("expr:gte(t,n_forced*" + segmentSeconds + ")");
+        if (hasAudio) {
+            cmd.add("-c:a");
+            cmd.add("aac");
+            for (int i = 0; i < count; i++) {
+                cmd.add("-b:a:" + i);
+                cmd.add(renditions.get(i).getAudioBitrateKbps() + "k");
+            }
+        }
+
+        StringBuilder streamMap = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) streamMap.append(' ');
+            streamMap.append("v:").append(i);
+            if (hasAudio) streamMap.append(",a:").append(i);
+            streamMap.append(",name:").append(renditions.get(i).getName());
+        }
+        cmd.add("-f");
+        cmd.add("hls");
+        cmd.add("-hls_time");
+        cmd.add(String.valueOf(segmentSeconds));
+        cmd.add("-hls_playlist_type");
+        cmd.add("vod");
+        cmd.add("-hls_flags");
+        cmd.add("independent_segments");
+        cmd.add("-hls_segment_filename");
+        cmd.add(Paths.get(outputDir, "%v", "seg_%05d.ts").toString());
+        cmd.add("-master_pl_name");
+        cmd.add("master.m3u8");
+        cmd.add("-var_stream_map");
+        cmd.add(streamMap.toString());
+        cmd.add(Paths.get(outputDir, "%v", "index.m3u8").toString());
+        return cmd;
+    }
+
+    /**
+     * 运行进程
+     */
+    boolean runProcess(List<String> command, CompressConfig config) throws IOException {
+        ProcessRunner.ProcessSpec spec = buildSpec(command, config);
+        ProcessRunner.ProcessResult result = processScheduler != null ? processScheduler.run(spec) : processRunner.run(spec);
+        return result.isSuccess();
+    }
+
+    private static ProcessRunner.ProcessSpec buildSpec(List<String> command, CompressConfig config) {
+        ProcessRunner.ProcessSpec spec = new ProcessRunner.ProcessSpec(command, "ffmpeg");
+        spec.setVerbose(config.getVerbose());
+        spec.setTimeoutMillis(TimeUnit.SECONDS.toMillis(config.getTimeoutSeconds()));
+        spec.setPriority(config.getPriority());
+        spec.setOwner(config.getOwner());
+        return spec;
+    }
+
     /**
      * 可用性检测
      */
     public boolean isFfmpegAvailable() {
         try {
-            Process p = new ProcessBuilder(ffmpegPath, "-version").start();
-            int code = p.waitFor();
-            return code == 0;
-        } catch (IOException | InterruptedException e) {
+            ProcessRunner.ProcessSpec spec = new ProcessRunner.ProcessSpec(List.of(ffmpegPath, "-version"), "ffmpeg");
+            spec.setTimeoutMillis(AVAILABILITY_TIMEOUT_MILLIS);
+            return processRunner.run(spec).isSuccess();
+        } catch (IOException e) {
             log.warn("ffmpeg 不可用: {}", e.getMessage());
             return false;
         }
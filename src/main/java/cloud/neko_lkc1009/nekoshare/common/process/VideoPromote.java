@@ -3,19 +3,26 @@ package cloud.neko_lkc1009.nekoshare.common.process;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.time.Instant;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * 视频超分工具类
@@ -23,28 +30,75 @@ import java.util.List;
  * 1) ffmpeg 抽帧到临时目录
  * 2) 使用 waifu2x-ncnn-vulkan 对帧图批处理放大与降噪
  * 3) ffmpeg 将处理后的帧回封装为视频并复用原音频
+ * 默认以分块流式处理（streaming）：帧经管道进出 ffmpeg，临时目录只保留少量分块，不再落盘全部帧；
+ * 可恢复模式（resumable）下各分块编码为分段文件，最后无损拼接，失败时保留工作目录供重试
  */
 @Slf4j
 @Component
 public class VideoPromote {
+    /**
+     * 可用性检测命令超时时间 (毫秒)
+     */
+    private static final long PROBE_TIMEOUT_MILLIS = 30_000;
+
+    /**
+     * 流式超分流水线在调度器中的执行槽分组
+     */
+    static final String PIPELINE_TOOL = "pipeline";
+
+    /**
+     * 可恢复任务工作目录（位于 java.io.tmpdir）的名称前缀
+     */
+    static final String WORK_DIR_PREFIX = "nekoshare_promote_";
+
+    /**
+     * 扫描过期工作目录的最小间隔 (毫秒)
+     */
+    private static final long CLEANUP_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
     @Value("${ffmpeg.executable.path:ffmpeg}")
     private String ffmpegPath;
 
-    @Value("${probe.executable.path}")
-    private String probePath;
-
     @Value("${waifu2x.executable.path:waifu2x-ncnn-vulkan}")
     private String waifu2xPath;
 
     @Value("${waifu2x.model.path:models}")
     private String modelPath;
 
+    @Value("${video.promote.work-dir-ttl-hours:72}")
+    private long workDirTtlHours = 72;
+
+    @Autowired(required = false)
+    private DerivativeCache derivativeCache;
+
+    private ProcessRunner processRunner = ProcessRunner.shared();
+
+    @Autowired(required = false)
+    private ProcessScheduler processScheduler;
+
+    @Autowired(required = false)
+    private Waifu2xTuner waifu2xTuner;
+
+    @Autowired(required = false)
+    private MediaInfo mediaInfo;
+
+    /**
+     * 本进程中正在使用的可恢复任务工作目录，相同任务按目录排队执行
+     */
+    private final Map<Path, ReentrantLock> workDirLocks = new ConcurrentHashMap<>();
+
+    private volatile long nextCleanupAt;
+
     @Data
     @NoArgsConstructor
     public static class PromoteConfig {
         private Integer scale = 2;                 // 放大倍数 1-4
         private Integer noiseLevel = 0;            // 降噪级别 -1~3（-1表示不降噪）
         private Integer tileSize = 0;              // 分块大小，0 自动
+        @DerivativeCache.IgnoredInKey
+        private String threads;                    // waifu2x 线程布局 load:proc:save，为空时使用调优结果
+        @DerivativeCache.IgnoredInKey
+        private Integer gpuId;                     // waifu2x 设备编号，-1 为 CPU，为空时使用调优结果
         private String frameFormat = "png";        // 帧图片格式：png/jpg
         private String videoCodec = "libx264";    // 输出视频编码
         private String pixelFormat = "yuv420p";   // 输出像素格式
@@ -52,8 +106,24 @@ public class VideoPromote {
         private String preset = "slow";           // 编码预设
         private Integer fps = 0;                   // 0=自动检测；否则固定帧率
         private Boolean copyAudio = true;          // 复用原音频
+        @DerivativeCache.IgnoredInKey
         private Boolean keepTemp = false;          // 是否保留临时目录
+        @DerivativeCache.IgnoredInKey
+        private Boolean streaming = true;          // 分块流式处理，帧经管道进出 ffmpeg，临时文件只与分块大小有关（帧固定为 png）
+        @DerivativeCache.IgnoredInKey
+        private Integer chunkFrames = 64;          // 流式处理时每个分块的帧数
+        private Boolean dedupFrames = true;        // 重复帧只超分一次（动画中常见一帧保持 2~3 帧）
+        private Double dedupThreshold = 0.0;       // 去重阈值：0 只去除完全相同的帧；大于 0 时按分块平均亮度的最大差异（0~1）判断相似
+        @DerivativeCache.IgnoredInKey
+        private Boolean resumable = true;          // 流式处理时每个分块单独编码并记录进度，中断后重新执行从已完成的分块继续
+        @DerivativeCache.IgnoredInKey
         private Boolean verbose = false;           // 详细日志
+        @DerivativeCache.IgnoredInKey
+        private Integer timeoutSeconds = 0;        // 单个进程超时时间（秒），0 表示不限制
+        @DerivativeCache.IgnoredInKey
+        private Integer priority = 0;              // 排队优先级，越大越先执行
+        @DerivativeCache.IgnoredInKey
+        private String owner;                      // 请求方，排队时同一优先级内轮流执行
     }
 
     /**
@@ -67,6 +137,19 @@ public class VideoPromote {
      * 使用指定配置进行视频超分
      */
     public boolean promote(String inputPath, String outputPath, PromoteConfig config) {
+        if (derivativeCache == null || !Files.exists(Paths.get(inputPath))) {
+            return runPromote(inputPath, outputPath, config);
+        }
+        try {
+            return derivativeCache.getOrCreate(Paths.get(inputPath), "video-promote:" + modelPath, config, Paths.get(outputPath),
+                    output -> runPromote(inputPath, output.toString(), config));
+        } catch (IOException e) {
+            log.error("读写衍生文件缓存失败", e);
+            return false;
+        }
+    }
+
+    private boolean runPromote(String inputPath, String outputPath, PromoteConfig config) {
         try {
             Path in = Paths.get(inputPath);
             if (!Files.exists(in)) {
@@ -76,32 +159,37 @@ public class VideoPromote {
             Path out = Paths.get(outputPath);
             Files.createDirectories(out.getParent());
 
-            // 临时目录
-            String base = System.getProperty("java.io.tmpdir");
-            String stamp = String.valueOf(Instant.now().toEpochMilli());
-            Path framesDir = Paths.get(base, "nekoshare_frames_" + stamp);
-            Path upFramesDir = Paths.get(base, "nekoshare_frames_up_" + stamp);
-            Files.createDirectories(framesDir);
-            Files.createDirectories(upFramesDir);
+            if (Boolean.TRUE.equals(config.getStreaming())) {
+                return runPromoteStreaming(inputPath, outputPath, config);
+            }
+
+            // 临时目录，名称唯一，同时开始的任务不会共用
+            Path framesDir = Files.createTempDirectory("nekoshare_frames_");
+            Path upFramesDir = Files.createTempDirectory("nekoshare_frames_up_");
 
             try {
                 // 1) 抽帧
                 if (!extractFrames(inputPath, framesDir.toString(), config)) return false;
 
-                // 2) 超分帧
-                if (!promoteFrames(framesDir.toString(), upFramesDir.toString(), config)) return false;
+                // 2) 超分帧，重复帧只处理一次
+                FrameDeduplicator deduplicator = deduplicator(config);
+                Map<String, String> duplicates = deduplicator != null ? deduplicator.deduplicate(framesDir) : Map.of();
+                if (deduplicator != null) {
+                    log.info("跳过重复帧 {}/{} ({}%)", deduplicator.getSkipped(), deduplicator.getFrames(),
+                            String.format("%.1f", deduplicator.getSkippedRatio() * 100));
+                }
+                if (!promoteFrames(framesDir.toString(), upFramesDir.toString(), config, config.getFrameFormat())) return false;
+                FrameDeduplicator.fanOut(upFramesDir, duplicates);
 
                 // 3) 回封装
-                Integer fps = config.getFps() != null && config.getFps() > 0 ? config.getFps() : detectFps(inputPath);
-                if (fps == null || fps <= 0) fps = 30; // 兜底
-                if (!assembleVideo(inputPath, upFramesDir.toString(), outputPath, fps, config)) return false;
+                if (!assembleVideo(inputPath, upFramesDir.toString(), outputPath, frameRate(inputPath, config), config)) return false;
 
                 log.info("视频超分成功: {} -> {}", inputPath, outputPath);
                 return true;
             } finally {
                 if (!Boolean.TRUE.equals(config.getKeepTemp())) {
-                    safeDeleteDirectory(framesDir);
-                    safeDeleteDirectory(upFramesDir);
+                    TempFiles.deleteDirectory(framesDir);
+                    TempFiles.deleteDirectory(upFramesDir);
                 } else {
                     log.info("保留临时目录: {}, {}", framesDir, upFramesDir);
                 }
@@ -112,7 +200,246 @@ public class VideoPromote {
         }
     }
 
+    /**
+     * 分块流式超分：ffmpeg 解码输出 PNG 图片流，按分块交给 waifu2x，结果经管道写入 ffmpeg 编码
+     */
+    private boolean runPromoteStreaming(String inputPath, String outputPath, PromoteConfig config) throws IOException {
+        if (Boolean.TRUE.equals(config.getResumable())) {
+            return runPromoteResumable(inputPath, outputPath, config);
+        }
+        String frameRate = frameRate(inputPath, config);
+
+        Path workDir = Files.createTempDirectory("nekoshare_stream_");
+        ProcessRunner.ProcessSpec decoder = new ProcessRunner.ProcessSpec(buildStreamExtractCommand(inputPath), "ffmpeg");
+        decoder.setVerbose(config.getVerbose());
+        ProcessRunner.ProcessSpec encoder = new ProcessRunner.ProcessSpec(
+                buildStreamAssembleCommand(inputPath, outputPath, frameRate, config), "ffmpeg");
+        encoder.setVerbose(config.getVerbose());
+        log.info("流式超分: 解码 {}, 编码 {}", String.join(" ", decoder.getCommand()), String.join(" ", encoder.getCommand()));
+
+        FramePipeline pipeline = new FramePipeline(processRunner, workDir, config.getChunkFrames(),
+                (inputDir, outputDir) -> promoteFrames(inputDir.toString(), outputDir.toString(), config, "png"));
+        pipeline.setDeduplicator(deduplicator(config));
+        try {
+            if (!Boolean.TRUE.equals(runPipelineJob(config, () -> pipeline.run(decoder, encoder)))) {
+                log.error("流式视频超分失败: {}", inputPath);
+                return false;
+            }
+            log.info("视频超分成功: {} -> {}", inputPath, outputPath);
+            return true;
+        } finally {
+            if (!Boolean.TRUE.equals(config.getKeepTemp())) {
+                TempFiles.deleteDirectory(workDir);
+            } else {
+                log.info("保留临时目录: {}", workDir);
+            }
+        }
+    }
+
+    /**
+     * 可恢复的分块超分：工作目录由源文件和配置决定，进度记录在清单中；
+     * 每个分块超分后立即编码为分段文件并删除帧，全部完成后拼接分段并复用原音频。
+     * 相同任务（源文件和影响输出的配置相同）同时执行时后来者等待前一个完成；
+     * 成功后删除工作目录，失败时保留供重试，超过 video.promote.work-dir-ttl-hours 未更新的由 {@link #cleanupStaleWorkDirs} 清理
+     */
+    private boolean runPromoteResumable(String inputPath, String outputPath, PromoteConfig config) throws IOException {
+        Path tempDir = Paths.get(System.getProperty("java.io.tmpdir"));
+        cleanupStaleWorkDirs(tempDir);
+        String frameRate = frameRate(inputPath, config);
+
+        Path workDir = tempDir.resolve(WORK_DIR_PREFIX + ChunkManifest.jobKey(Paths.get(inputPath), config));
+        ReentrantLock localLock = lockWorkDir(workDir);
+        if (localLock == null) {
+            log.error("等待相同的视频超分任务时被中断: {}", inputPath);
+            return false;
+        }
+        boolean success = false;
+        try {
+            while (true) {
+                Files.createDirectories(workDir);
+                Path lockFile = workDir.resolve(".lock");
+                // 文件锁等待其他进程中的相同任务
+                try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                     FileLock lock = channel.lock()) {
+                    if (!Files.exists(lockFile)) {
+                        // 等待期间其他进程完成了相同任务并删除了工作目录，重新创建
+                        continue;
+                    }
+                    success = runResumableInWorkDir(inputPath, outputPath, frameRate, workDir, config);
+                    return success;
+                }
+            }
+        } finally {
+            // 文件锁已释放；只在成功后清理，失败时保留已完成的分块供下次继续
+            if (success && !Boolean.TRUE.equals(config.getKeepTemp())) {
+                TempFiles.deleteDirectory(workDir);
+            }
+            unlockWorkDir(workDir, localLock);
+        }
+    }
+
+    private boolean runResumableInWorkDir(String inputPath, String outputPath, String frameRate, Path workDir, PromoteConfig config) throws IOException {
+        int chunkFrames = Math.max(1, config.getChunkFrames());
+        ChunkManifest manifest = ChunkManifest.load(workDir, chunkFrames);
+        MediaInfo.Info info = mediaInfo != null ? mediaInfo.probe(Paths.get(inputPath)) : null;
+        if (info != null && info.getFrameCount() > 0) {
+            log.info("预计 {} 帧, {} 个分块", info.getFrameCount(), (info.getFrameCount() + chunkFrames - 1) / chunkFrames);
+        }
+        if (manifest.getEncodedChunks() > 0) {
+            log.info("从上次进度继续: 已编码 {} 个分块, 工作目录 {}", manifest.getEncodedChunks(), workDir);
+        }
+
+        ProcessRunner.ProcessSpec decoder = new ProcessRunner.ProcessSpec(buildStreamExtractCommand(inputPath), "ffmpeg");
+        decoder.setVerbose(config.getVerbose());
+        FramePipeline pipeline = new FramePipeline(processRunner, workDir, chunkFrames,
+                (inputDir, outputDir) -> promoteFrames(inputDir.toString(), outputDir.toString(), config, "png"));
+        pipeline.setDeduplicator(deduplicator(config));
+        List<Path> segments = runPipelineJob(config, () -> pipeline.runResumable(decoder,
+                (framesDir, segment) -> runProcess(buildSegmentCommand(framesDir.toString(), segment.toString(), frameRate, config), config, "ffmpeg"),
+                manifest));
+        if (segments == null || segments.isEmpty()) {
+            log.error("视频超分失败，已保留进度: {}", workDir);
+            return false;
+        }
+
+        Path list = workDir.resolve("segments.txt");
+        StringBuilder content = new StringBuilder();
+        for (Path segment : segments) {
+            content.append("file '").append(segment.getFileName()).append("'\n");
+        }
+        Files.writeString(list, content);
+        List<String> concat = buildConcatCommand(list.toString(), inputPath, outputPath, config);
+        log.info("拼接命令: {}", String.join(" ", concat));
+        boolean success = runProcess(concat, config, "ffmpeg");
+        if (success) {
+            log.info("视频超分成功: {} -> {}", inputPath, outputPath);
+        } else {
+            log.error("拼接分段失败，已保留进度: {}", workDir);
+        }
+        return success;
+    }
+
+    /**
+     * 独占本进程中的工作目录，相同任务正在执行时等待
+     *
+     * @return 已持有的锁，等待时被中断返回 null
+     */
+    ReentrantLock lockWorkDir(Path workDir) {
+        while (true) {
+            ReentrantLock lock = workDirLocks.computeIfAbsent(workDir, key -> new ReentrantLock());
+            if (!lock.tryLock()) {
+                log.info("相同的视频超分任务正在执行，等待完成: {}", workDir);
+                try {
+                    lock.lockInterruptibly();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            if (workDirLocks.get(workDir) == lock) {
+                return lock;
+            }
+            // 等待期间前一个任务已移除该锁，重新获取
+            lock.unlock();
+        }
+    }
+
+    void unlockWorkDir(Path workDir, ReentrantLock lock) {
+        // 没有等待者时移除，锁的数量不随历史任务增长
+        workDirLocks.computeIfPresent(workDir, (key, current) -> current == lock && !lock.hasQueuedThreads() ? null : current);
+        lock.unlock();
+    }
+
+    /**
+     * 删除超过保留时间未更新的工作目录（失败后没有再重试的任务），每小时最多扫描一次；
+     * 本进程或其他进程正在使用（持有文件锁）的目录跳过
+     *
+     * @param tempDir 工作目录所在的目录
+     */
+    void cleanupStaleWorkDirs(Path tempDir) {
+        long now = System.currentTimeMillis();
+        if (workDirTtlHours <= 0 || now < nextCleanupAt) {
+            return;
+        }
+        nextCleanupAt = now + CLEANUP_INTERVAL_MILLIS;
+        long expireBefore = now - TimeUnit.HOURS.toMillis(workDirTtlHours);
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(tempDir, WORK_DIR_PREFIX + "*")) {
+            for (Path dir : dirs) {
+                if (!Files.isDirectory(dir) || Files.getLastModifiedTime(dir).toMillis() >= expireBefore) {
+                    continue;
+                }
+                ReentrantLock lock = workDirLocks.computeIfAbsent(dir, key -> new ReentrantLock());
+                if (lock.isHeldByCurrentThread() || !lock.tryLock()) {
+                    continue;
+                }
+                try {
+                    if (workDirLocks.get(dir) == lock && !lockedByOtherProcess(dir)) {
+                        log.info("删除过期的视频超分工作目录: {}", dir);
+                        TempFiles.deleteDirectory(dir);
+                    }
+                } finally {
+                    unlockWorkDir(dir, lock);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("清理视频超分工作目录失败: {}", tempDir, e);
+        }
+    }
+
+    private static boolean lockedByOtherProcess(Path workDir) {
+        Path lockFile = workDir.resolve(".lock");
+        if (!Files.exists(lockFile)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.WRITE);
+             FileLock lock = channel.tryLock()) {
+            return lock == null;
+        } catch (IOException | OverlappingFileLockException e) {
+            return true;
+        }
+    }
+
+    /**
+     * 整条流水线占用一个 pipeline 执行槽，限制同时运行的流水线数。
+     * 解码、编码进程在流水线期间一直等待分块，不单独占用 ffmpeg 执行槽，否则会与分块编码互相等待；
+     * waifu2x 和分块编码仍在各自的执行槽中排队
+     */
+    private <T> T runPipelineJob(PromoteConfig config, ProcessScheduler.Job<T> job) throws IOException {
+        if (processScheduler == null) {
+            return job.call();
+        }
+        return processScheduler.runJob(PIPELINE_TOOL, config.getPriority(), config.getOwner(), job);
+    }
+
+    private static FrameDeduplicator deduplicator(PromoteConfig config) {
+        if (!Boolean.TRUE.equals(config.getDedupFrames())) {
+            return null;
+        }
+        return new FrameDeduplicator(config.getDedupThreshold() != null ? config.getDedupThreshold() : 0);
+    }
+
     private boolean extractFrames(String inputPath, String framesDir, PromoteConfig config) throws IOException {
+        List<String> cmd = buildExtractCommand(inputPath, framesDir, config);
+        log.info("抽帧命令: {}", String.join(" ", cmd));
+        return runProcess(cmd, config, "ffmpeg");
+    }
+
+    private boolean promoteFrames(String inputDir, String outputDir, PromoteConfig config, String frameFormat) throws IOException {
+        List<String> cmd = buildPromoteFramesCommand(inputDir, outputDir, config, frameFormat);
+        log.info("waifu2x 批量命令: {}", String.join(" ", cmd));
+        return runProcess(cmd, config, "waifu2x");
+    }
+
+    private boolean assembleVideo(String inputVideo, String framesDir, String outputPath, String frameRate, PromoteConfig config) throws IOException {
+        List<String> cmd = buildAssembleCommand(inputVideo, framesDir, outputPath, frameRate, config);
+        log.info("封装命令: {}", String.join(" ", cmd));
+        return runProcess(cmd, config, "ffmpeg");
+    }
+
+    /**
+     * 构建抽帧命令
+     */
+    List<String> buildExtractCommand(String inputPath, String framesDir, PromoteConfig config) {
         String pattern = Paths.get(framesDir, "%08d." + config.getFrameFormat()).toString();
         List<String> cmd = new ArrayList<>();
         cmd.add(ffmpegPath);
@@ -122,11 +449,20 @@ public class VideoPromote {
         cmd.add("-vsync");
         cmd.add("0");
         cmd.add(pattern);
-        log.info("抽帧命令: {}", String.join(" ", cmd));
-        return runProcess(cmd, config.getVerbose(), "ffmpeg");
+        return cmd;
+    }
+
+    /**
+     * 构建帧图批量超分命令
+     */
+    List<String> buildPromoteFramesCommand(String inputDir, String outputDir, PromoteConfig config) {
+        return buildPromoteFramesCommand(inputDir, outputDir, config, config.getFrameFormat());
     }
 
-    private boolean promoteFrames(String inputDir, String outputDir, PromoteConfig config) throws IOException {
+    /**
+     * 构建帧图批量超分命令，指定输出帧格式
+     */
+    List<String> buildPromoteFramesCommand(String inputDir, String outputDir, PromoteConfig config, String frameFormat) {
         List<String> cmd = new ArrayList<>();
         cmd.add(waifu2xPath);
         cmd.add("-i");
@@ -139,12 +475,10 @@ public class VideoPromote {
             cmd.add("-n");
             cmd.add(String.valueOf(Math.min(3, config.getNoiseLevel())));
         }
-        if (config.getTileSize() != null && config.getTileSize() > 0) {
-            cmd.add("-t");
-            cmd.add(String.valueOf(config.getTileSize()));
-        }
+        Waifu2xTuner.appendOptions(cmd, waifu2xTuner != null ? waifu2xTuner.getProfile() : null,
+                config.getTileSize(), config.getThreads(), config.getGpuId());
         cmd.add("-f");
-        cmd.add(config.getFrameFormat());
+        cmd.add(frameFormat);
         if (modelPath != null && !modelPath.isEmpty()) {
             File m = new File(modelPath);
             if (m.exists()) {
@@ -155,26 +489,121 @@ public class VideoPromote {
         if (Boolean.TRUE.equals(config.getVerbose())) {
             cmd.add("-v");
         }
-        log.info("waifu2x 批量命令: {}", String.join(" ", cmd));
-        return runProcess(cmd, config.getVerbose(), "waifu2x");
+        return cmd;
     }
 
-    private boolean assembleVideo(String inputVideo, String framesDir, String outputPath, int fps, PromoteConfig config) throws IOException {
+    /**
+     * 构建回封装命令
+     */
+    List<String> buildAssembleCommand(String inputVideo, String framesDir, String outputPath, String frameRate, PromoteConfig config) {
         String pattern = Paths.get(framesDir, "%08d." + config.getFrameFormat()).toString();
         List<String> cmd = new ArrayList<>();
         cmd.add(ffmpegPath);
         cmd.add("-y");
         cmd.add("-framerate");
-        cmd.add(String.valueOf(fps));
+        cmd.add(frameRate);
         cmd.add("-i");
         cmd.add(pattern);
-        // 引入原视频以复用音频
+        appendEncodeOptions(cmd, inputVideo, outputPath, config);
+        return cmd;
+    }
+
+    /**
+     * 构建流式解码命令，以 PNG 图片流输出到标准输出
+     */
+    List<String> buildStreamExtractCommand(String inputPath) {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(ffmpegPath);
+        cmd.add("-nostdin");
+        cmd.add("-i");
+        cmd.add(inputPath);
+        cmd.add("-vsync");
+        cmd.add("0");
+        cmd.add("-f");
+        cmd.add("image2pipe");
+        cmd.add("-c:v");
+        cmd.add("png");
+        cmd.add("-");
+        return cmd;
+    }
+
+    /**
+     * 构建流式编码命令，从标准输入读取 PNG 图片流
+     */
+    List<String> buildStreamAssembleCommand(String inputVideo, String outputPath, String frameRate, PromoteConfig config) {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(ffmpegPath);
+        cmd.add("-y");
+        cmd.add("-f");
+        cmd.add("image2pipe");
+        cmd.add("-c:v");
+        cmd.add("png");
+        cmd.add("-framerate");
+        cmd.add(frameRate);
+        cmd.add("-i");
+        cmd.add("-");
+        appendEncodeOptions(cmd, inputVideo, outputPath, config);
+        return cmd;
+    }
+
+    /**
+     * 构建分块编码命令：一个分块的帧编码为不含音频的分段文件
+     */
+    List<String> buildSegmentCommand(String framesDir, String segmentPath, String frameRate, PromoteConfig config) {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(ffmpegPath);
+        cmd.add("-y");
+        cmd.add("-framerate");
+        cmd.add(frameRate);
+        cmd.add("-i");
+        cmd.add(Paths.get(framesDir, "%08d.png").toString());
+        appendVideoOptions(cmd, config);
+        cmd.add(segmentPath);
+        return cmd;
+    }
+
+    /**
+     * 构建分段拼接命令：concat 分离器按列表顺序读取分段（流复制），并引入原视频以复用音频
+     */
+    List<String> buildConcatCommand(String listPath, String inputVideo, String outputPath, PromoteConfig config) {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(ffmpegPath);
+        cmd.add("-y");
+        cmd.add("-f");
+        cmd.add("concat");
+        cmd.add("-i");
+        cmd.add(listPath);
         cmd.add("-i");
         cmd.add(inputVideo);
         cmd.add("-map");
         cmd.add("0:v");
         cmd.add("-map");
         cmd.add("1:a?");
+        cmd.add("-c:v");
+        cmd.add("copy");
+        appendAudioOptions(cmd, config);
+        cmd.add("-shortest");
+        cmd.add(outputPath);
+        return cmd;
+    }
+
+    /**
+     * 添加编码参数：引入原视频以复用音频
+     */
+    private void appendEncodeOptions(List<String> cmd, String inputVideo, String outputPath, PromoteConfig config) {
+        cmd.add("-i");
+        cmd.add(inputVideo);
+        cmd.add("-map");
+        cmd.add("0:v");
+        cmd.add("-map");
+        cmd.add("1:a?");
+        appendVideoOptions(cmd, config);
+        appendAudioOptions(cmd, config);
+        cmd.add("-shortest");
+        cmd.add(outputPath);
+    }
+
+    private void appendVideoOptions(List<String> cmd, PromoteConfig config) {
         cmd.add("-c:v");
         cmd.add(config.getVideoCodec());
         cmd.add("-crf");
@@ -183,6 +612,9 @@ public class VideoPromote {
         cmd.add(config.getPreset());
         cmd.add("-pix_fmt");
         cmd.add(config.getPixelFormat());
+    }
+
+    private void appendAudioOptions(List<String> cmd, PromoteConfig config) {
         if (Boolean.TRUE.equals(config.getCopyAudio())) {
             cmd.add("-c:a");
             cmd.add("copy");
@@ -192,100 +624,46 @@ public class VideoPromote {
             cmd.add("-b:a");
             cmd.add("192k");
         }
-        cmd.add("-shortest");
-        cmd.add(outputPath);
-        log.info("封装命令: {}", String.join(" ", cmd));
-        return runProcess(cmd, config.getVerbose(), "ffmpeg");
     }
 
-    private Integer detectFps(String inputPath) throws IOException {
-        // 使用 probe 获取帧率 (r_frame_rate)
-        List<String> cmd = new ArrayList<>();
-        cmd.add(probePath);
-        cmd.add("-v");
-        cmd.add("0");
-        cmd.add("-of");
-        cmd.add("csv=p=0");
-        cmd.add("-select_streams");
-        cmd.add("v:0");
-        cmd.add("-show_entries");
-        cmd.add("stream=r_frame_rate");
-        cmd.add(inputPath);
-        ProcessBuilder pb = new ProcessBuilder(cmd);
-        pb.redirectErrorStream(true);
-        Process p = pb.start();
-        String value = null;
-        try (BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
-            value = r.readLine();
-        }
-        try {
-            p.waitFor();
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+    /**
+     * 输出帧率：配置指定时使用配置值；否则使用探测到的原始分数形式（如 30000/1001），
+     * 不取整，避免画面与复用的原音频逐渐错位；无法探测时为 30
+     */
+    private String frameRate(String inputPath, PromoteConfig config) {
+        if (config.getFps() != null && config.getFps() > 0) {
+            return String.valueOf(config.getFps());
         }
-        if (value == null || value.isEmpty()) return null;
-        // 解析分数，如 30000/1001
-        try {
-            if (value.contains("/")) {
-                String[] parts = value.trim().split("/");
-                double num = Double.parseDouble(parts[0]);
-                double den = Double.parseDouble(parts[1]);
-                double fps = den == 0 ? 0 : num / den;
-                return (int) Math.round(fps);
-            } else {
-                double fps = Double.parseDouble(value.trim());
-                return (int) Math.round(fps);
-            }
-        } catch (Exception e) {
-            log.warn("解析帧率失败: {}", value);
-            return null;
+        MediaInfo.Info info = mediaInfo != null ? mediaInfo.probe(Paths.get(inputPath)) : null;
+        if (info != null && info.getVideo() != null && info.getVideo().getFrameRate() != null) {
+            return info.getVideo().getFrameRate();
         }
+        log.warn("无法获取帧率，使用 30: {}", inputPath);
+        return "30";
     }
 
-    private boolean runProcess(List<String> cmd, boolean verbose, String tag) throws IOException {
-        ProcessBuilder pb = new ProcessBuilder(cmd);
-        pb.redirectErrorStream(true);
-        Process p = pb.start();
-        try (BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
-            String line;
-            while ((line = r.readLine()) != null) {
-                if (verbose) log.info("{}: {}", tag, line);
-            }
-        }
-        try {
-            int code = p.waitFor();
-            if (code != 0) log.error("{} 退出码: {}", tag, code);
-            return code == 0;
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            log.error("{} 进程被中断", tag, e);
-            return false;
-        }
+    boolean runProcess(List<String> cmd, PromoteConfig config, String tag) throws IOException {
+        ProcessRunner.ProcessSpec spec = new ProcessRunner.ProcessSpec(cmd, tag);
+        spec.setVerbose(config.getVerbose());
+        spec.setTimeoutMillis(TimeUnit.SECONDS.toMillis(config.getTimeoutSeconds()));
+        spec.setPriority(config.getPriority());
+        spec.setOwner(config.getOwner());
+        return runScheduled(spec).isSuccess();
     }
 
-    private void safeDeleteDirectory(Path dir) {
-        if (dir == null) return;
-        try {
-            if (Files.exists(dir)) {
-                Files.walk(dir)
-                        .sorted((a, b) -> b.compareTo(a)) // 先删文件再删目录
-                        .forEach(path -> {
-                            try {
-                                Files.deleteIfExists(path);
-                            } catch (IOException ignored) {
-                            }
-                        });
-            }
-        } catch (IOException ignored) {
-        }
+    /**
+     * 执行进程，存在调度器时排队等待执行槽
+     */
+    private ProcessRunner.ProcessResult runScheduled(ProcessRunner.ProcessSpec spec) throws IOException {
+        return processScheduler != null ? processScheduler.run(spec) : processRunner.run(spec);
     }
 
     public boolean isFfmpegAvailable() {
         try {
-            Process p = new ProcessBuilder(ffmpegPath, "-version").start();
-            int code = p.waitFor();
-            return code == 0;
-        } catch (IOException | InterruptedException e) {
+            ProcessRunner.ProcessSpec spec = new ProcessRunner.ProcessSpec(List.of(ffmpegPath, "-version"), "ffmpeg");
+            spec.setTimeoutMillis(PROBE_TIMEOUT_MILLIS);
+            return processRunner.run(spec).isSuccess();
+        } catch (IOException e) {
             log.warn("ffmpeg 不可用: {}", e.getMessage());
             return false;
         }
@@ -293,10 +671,12 @@ public class VideoPromote {
 
     public boolean isWaifu2xAvailable() {
         try {
-            Process p = new ProcessBuilder(waifu2xPath, "-h").start();
-            int code = p.waitFor();
-            return code == 0 || code == 1;
-        } catch (IOException | InterruptedException e) {
+            ProcessRunner.ProcessSpec spec = new ProcessRunner.ProcessSpec(List.of(waifu2xPath, "-h"), "waifu2x");
+            spec.setTimeoutMillis(PROBE_TIMEOUT_MILLIS);
+            ProcessRunner.ProcessResult result = processRunner.run(spec);
+            int code = result.getExitCode();
+            return !result.isTimedOut() && (code == 0 || code == 1);
+        } catch (IOException e) {
             log.warn("waifu2x 不可用: {}", e.getMessage());
             return false;
         }
@@ -0,0 +1,346 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * waifu2x 执行参数调优
+ * 用样例图片依次尝试不同的分块大小 (-t)、线程布局 (-j load:proc:save) 和设备 (-g，-1 为 CPU)，
+ * 按吞吐量选出最佳组合，以主机名为键保存；ImagePromote 和 VideoPromote 在配置未指定时自动使用
+ */
+@Slf4j
+@Component
+public class Waifu2xTuner {
+
+    @Value("${waifu2x.executable.path:waifu2x-ncnn-vulkan}")
+    private String waifu2xExecutablePath = "waifu2x-ncnn-vulkan";
+
+    @Value("${waifu2x.model.path:models}")
+    private String modelPath;
+
+    @Value("${waifu2x.tuner.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${waifu2x.tuner.profile-path:${user.home}/.nekoshare/waifu2x-profiles.properties}")
+    private String profilePath;
+
+    private ProcessRunner processRunner = ProcessRunner.shared();
+
+    @Autowired(required = false)
+    private ProcessScheduler processScheduler;
+
+    /**
+     * 当前主机的参数，首次使用时从文件加载
+     */
+    private volatile Profile profile;
+    private volatile boolean loaded;
+
+    /**
+     * 调优得到的执行参数
+     */
+    @Data
+    public static class Profile {
+        private Integer tileSize = 0;     // 分块大小，0 为自动
+        private String threads;           // 线程布局 load:proc:save，为空时使用默认值
+        private Integer gpuId;            // 设备编号，-1 为 CPU，为空时使用默认设备
+        private double imagesPerSecond;   // 调优时的吞吐量
+        private String host;
+        private long calibratedAt;
+    }
+
+    /**
+     * 调优的参数组合
+     */
+    @Data
+    @NoArgsConstructor
+    public static class Grid {
+        private List<Integer> tileSizes = List.of(0, 100, 200, 400);
+        private List<String> threads = List.of("1:2:2", "1:4:2", "2:4:4");
+        private List<Integer> gpuIds = Arrays.asList(null, -1); // null 为默认设备
+        private Integer samples = 4;        // 每次运行处理的图片数
+        private Integer scale = 2;
+        private Integer noiseLevel = 0;
+        private Integer timeoutSeconds = 300;
+    }
+
+    /**
+     * 单个组合的测试结果
+     */
+    @Data
+    public static class Trial {
+        private Integer tileSize;
+        private String threads;
+        private Integer gpuId;
+        private boolean success;
+        private long elapsedMillis;
+        private double imagesPerSecond;
+    }
+
+    public Waifu2xTuner() {
+    }
+
+    /**
+     * @param waifu2xExecutablePath waifu2x 可执行文件路径
+     * @param modelPath             模型目录
+     * @param profilePath           参数保存文件
+     */
+    public Waifu2xTuner(String waifu2xExecutablePath, String modelPath, Path profilePath) {
+        this.waifu2xExecutablePath = waifu2xExecutablePath;
+        this.modelPath = modelPath;
+        this.profilePath = profilePath.toString();
+    }
+
+    /**
+     * 获取当前主机保存的参数
+     *
+     * @return 参数，未调优或已关闭时返回 null
+     */
+    public Profile getProfile() {
+        if (!enabled) {
+            return null;
+        }
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    profile = load();
+                    loaded = true;
+                }
+            }
+        }
+        return profile;
+    }
+
+    /**
+     * 使用默认组合调优
+     *
+     * @param sampleImage 样例图片
+     * @return 最佳参数，全部组合失败时返回 null
+     */
+    public Profile calibrate(Path sampleImage) {
+        return calibrate(sampleImage, new Grid());
+    }
+
+    /**
+     * 依次运行所有组合，保存吞吐量最高的参数
+     *
+     * @param sampleImage 样例图片
+     * @param grid        参数组合
+     * @return 最佳参数，全部组合失败时返回 null
+     */
+    public Profile calibrate(Path sampleImage, Grid grid) {
+        if (!Files.isRegularFile(sampleImage)) {
+            log.error("样例图片不存在: {}", sampleImage);
+            return null;
+        }
+        Path workDir = null;
+        try {
+            workDir = Files.createTempDirectory("nekoshare_waifu2x_tune_");
+            Path inputDir = Files.createDirectories(workDir.resolve("in"));
+            String name = sampleImage.getFileName().toString();
+            String extension = name.lastIndexOf('.') >= 0 ? name.substring(name.lastIndexOf('.')) : "";
+            for (int i = 0; i < grid.getSamples(); i++) {
+                FilePassthrough.transfer(sampleImage, inputDir.resolve(String.format("%04d", i) + extension), FilePassthrough.Mode.LINK);
+            }
+
+            Trial best = null;
+            for (Integer gpuId : grid.getGpuIds()) {
+                for (String threads : grid.getThreads()) {
+                    for (Integer tileSize : grid.getTileSizes()) {
+                        Trial trial = runTrial(inputDir, workDir.resolve("out"), grid, tileSize, threads, gpuId);
+                        if (trial.isSuccess() && (best == null || trial.getImagesPerSecond() > best.getImagesPerSecond())) {
+                            best = trial;
+                        }
+                    }
+                }
+            }
+            if (best == null) {
+                log.error("waifu2x 调优失败，所有组合均无法运行");
+                return null;
+            }
+
+            Profile result = new Profile();
+            result.setTileSize(best.getTileSize());
+            result.setThreads(best.getThreads());
+            result.setGpuId(best.getGpuId());
+            result.setImagesPerSecond(best.getImagesPerSecond());
+            result.setHost(hostName());
+            result.setCalibratedAt(System.currentTimeMillis());
+            save(result);
+            profile = result;
+            loaded = true;
+            log.info("waifu2x 调优完成: -t {} -j {} -g {}, {} 张/秒", result.getTileSize(), result.getThreads(),
+                    result.getGpuId() == null ? "默认" : result.getGpuId(), String.format("%.2f", result.getImagesPerSecond()));
+            return result;
+
+        } catch (IOException e) {
+            log.error("waifu2x 调优 IO 异常", e);
+            return null;
+        } catch (RejectedExecutionException e) {
+            log.error("waifu2x 调优失败，等待队列已满", e);
+            return null;
+        } finally {
+            if (workDir != null) {
+                TempFiles.deleteDirectory(workDir);
+            }
+        }
+    }
+
+    /**
+     * 添加分块、线程布局和设备参数，配置中指定的值优先于调优结果
+     */
+    static void appendOptions(List<String> command, Profile profile, Integer tileSize, String threads, Integer gpuId) {
+        int tile = tileSize != null && tileSize > 0 ? tileSize
+                : profile != null && profile.getTileSize() != null ? profile.getTileSize() : 0;
+        if (tile > 0) {
+            command.add("-t");
+            command.add(String.valueOf(tile));
+        }
+        String layout = threads != null ? threads : profile != null ? profile.getThreads() : null;
+        if (layout != null && !layout.isEmpty()) {
+            command.add("-j");
+            command.add(layout);
+        }
+        Integer gpu = gpuId != null ? gpuId : profile != null ? profile.getGpuId() : null;
+        if (gpu != null) {
+            command.add("-g");
+            command.add(String.valueOf(gpu));
+        }
+    }
+
+    private Trial runTrial(Path inputDir, Path outputDir, Grid grid, Integer tileSize, String threads, Integer gpuId) throws IOException {
+        TempFiles.deleteDirectory(outputDir);
+        Files.createDirectories(outputDir);
+
+        List<String> command = new ArrayList<>();
+        command.add(waifu2xExecutablePath);
+        command.add("-i");
+        command.add(inputDir.toString());
+        command.add("-o");
+        command.add(outputDir.toString());
+        command.add("-s");
+        command.add(String.valueOf(grid.getScale()));
+        command.add("-n");
+        command.add(String.valueOf(grid.getNoiseLevel()));
+        appendOptions(command, null, tileSize, threads, gpuId);
+        command.add("-f");
+        command.add("png");
+        if (modelPath != null && !modelPath.isEmpty() && new File(modelPath).exists()) {
+            command.add("-m");
+            command.add(modelPath);
+        }
+
+        // 与其他 waifu2x 任务共用执行槽，不超出并发限制；耗时只计进程运行时间，不含排队
+        ProcessRunner.ProcessSpec spec = new ProcessRunner.ProcessSpec(command, "waifu2x");
+        spec.setTimeoutMillis(TimeUnit.SECONDS.toMillis(grid.getTimeoutSeconds()));
+        ProcessRunner.ProcessResult result = processScheduler != null ? processScheduler.run(spec) : processRunner.run(spec);
+        long elapsedNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, result.getElapsedMillis()));
+
+        long outputs;
+        try (Stream<Path> files = Files.list(outputDir)) {
+            outputs = files.count();
+        }
+        Trial trial = new Trial();
+        trial.setTileSize(tileSize);
+        trial.setThreads(threads);
+        trial.setGpuId(gpuId);
+        trial.setElapsedMillis(TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        trial.setSuccess(result.isSuccess() && outputs == grid.getSamples());
+        trial.setImagesPerSecond(trial.isSuccess() ? grid.getSamples() * 1e9 / elapsedNanos : 0);
+        log.info("waifu2x 调优 -t {} -j {} -g {}: {}", tileSize, threads, gpuId == null ? "默认" : gpuId,
+                trial.isSuccess() ? String.format("%.2f 张/秒", trial.getImagesPerSecond()) : "失败");
+        return trial;
+    }
+
+    /**
+     * 从文件读取当前主机的参数
+     */
+    private Profile load() {
+        Path path = Paths.get(profilePath);
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            properties.load(inputStream);
+        } catch (IOException e) {
+            log.warn("读取 waifu2x 调优参数失败: {}", path, e);
+            return null;
+        }
+        String host = hostName();
+        String prefix = host + ".";
+        if (properties.getProperty(prefix + "calibratedAt") == null) {
+            return null;
+        }
+        try {
+            Profile result = new Profile();
+            result.setHost(host);
+            result.setTileSize(Integer.parseInt(properties.getProperty(prefix + "tileSize", "0")));
+            String threads = properties.getProperty(prefix + "threads", "");
+            result.setThreads(threads.isEmpty() ? null : threads);
+            String gpuId = properties.getProperty(prefix + "gpuId", "");
+            result.setGpuId(gpuId.isEmpty() ? null : Integer.parseInt(gpuId));
+            result.setImagesPerSecond(Double.parseDouble(properties.getProperty(prefix + "imagesPerSecond", "0")));
+            result.setCalibratedAt(Long.parseLong(properties.getProperty(prefix + "calibratedAt")));
+            log.info("使用 waifu2x 调优参数: -t {} -j {} -g {}", result.getTileSize(), result.getThreads(), result.getGpuId());
+            return result;
+        } catch (NumberFormatException e) {
+            log.warn("waifu2x 调优参数格式错误: {}", path);
+            return null;
+        }
+    }
+
+    /**
+     * 保存参数，保留其他主机的记录
+     */
+    private synchronized void save(Profile result) throws IOException {
+        Path path = Paths.get(profilePath).toAbsolutePath();
+        Files.createDirectories(path.getParent());
+        Properties properties = new Properties();
+        if (Files.isRegularFile(path)) {
+            try (InputStream inputStream = Files.newInputStream(path)) {
+                properties.load(inputStream);
+            }
+        }
+        String prefix = result.getHost() + ".";
+        properties.setProperty(prefix + "tileSize", String.valueOf(result.getTileSize()));
+        properties.setProperty(prefix + "threads", result.getThreads() == null ? "" : result.getThreads());
+        properties.setProperty(prefix + "gpuId", result.getGpuId() == null ? "" : String.valueOf(result.getGpuId()));
+        properties.setProperty(prefix + "imagesPerSecond", String.valueOf(result.getImagesPerSecond()));
+        properties.setProperty(prefix + "calibratedAt", String.valueOf(result.getCalibratedAt()));
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (OutputStream outputStream = Files.newOutputStream(temp)) {
+            properties.store(outputStream, "waifu2x tuning profiles");
+        }
+        try {
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            String host = System.getenv("HOSTNAME");
+            return host != null ? host : "localhost";
+        }
+    }
+
+}
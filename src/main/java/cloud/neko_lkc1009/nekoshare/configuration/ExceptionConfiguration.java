@@ -15,6 +15,7 @@ import org.springframework.web.servlet.NoHandlerFoundException;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @Slf4j
 @RestControllerAdvice
@@ -94,6 +95,17 @@ public class ExceptionConfiguration {
         return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(result);
     }
 
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<BaseResult<Object>> handleRejectedExecutionException(
+            RejectedExecutionException e, HttpServletRequest request) {
+        log.warn("任务队列已满: URI: {}, Message: {}", request.getRequestURI(), e.getMessage());
+
+        BaseResult<Object> result = BaseResult.fail(HttpStatus.SERVICE_UNAVAILABLE.value(),
+                e.getMessage() != null ? e.getMessage() : "服务繁忙，请稍后重试");
+
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(result);
+    }
+
     @ExceptionHandler(NullPointerException.class)
     public ResponseEntity<BaseResult<Object>> handleNullPointerException(
             NullPointerException e, HttpServletRequest request) {
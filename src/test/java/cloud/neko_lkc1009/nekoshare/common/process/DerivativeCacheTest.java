@@ -0,0 +1,255 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * DerivativeCache 测试类
+ */
+class DerivativeCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("测试相同源文件和配置第二次命中缓存")
+    void testSecondRequestHitsCache() throws IOException {
+        DerivativeCache cache = new DerivativeCache(tempDir.resolve("cache"), 1024 * 1024);
+        Path source = write("source.txt", "source content");
+        AtomicInteger produced = new AtomicInteger();
+
+        VideoCompress.CompressConfig config = new VideoCompress.CompressConfig();
+        assertTrue(cache.getOrCreate(source, "test", config, tempDir.resolve("out1.mp4"), output -> produce(output, produced)));
+        assertTrue(cache.getOrCreate(source, "test", config, tempDir.resolve("out2.mp4"), output -> produce(output, produced)));
+
+        assertEquals(1, produced.get(), "第二次请求不应该再次生成");
+        assertEquals("derived-1", Files.readString(tempDir.resolve("out2.mp4")));
+        DerivativeCache.CacheStats stats = cache.getStats();
+        assertEquals(1, stats.getHits());
+        assertEquals(1, stats.getMisses());
+        assertEquals(1, stats.getEntries());
+    }
+
+    @Test
+    @DisplayName("测试配置或内容变化时不命中，verbose 不影响缓存键")
+    void testKeyDependsOnContentAndConfig() throws IOException {
+        DerivativeCache cache = new DerivativeCache(tempDir.resolve("cache"), 1024 * 1024);
+        Path source = write("source.txt", "source content");
+
+        VideoCompress.CompressConfig config = new VideoCompress.CompressConfig();
+        String key = cache.key(source, "test", config);
+
+        config.setVerbose(true);
+        assertEquals(key, cache.key(source, "test", config), "verbose 不应该影响缓存键");
+
+        config.setCrf(28);
+        assertNotEquals(key, cache.key(source, "test", config), "配置变化应该改变缓存键");
+
+        config.setCrf(23);
+        assertNotEquals(key, cache.key(source, "other", config), "操作名变化应该改变缓存键");
+
+        Path copy = write("copy.txt", "source content");
+        assertEquals(key, cache.key(copy, "test", config), "内容相同的文件应该得到相同的缓存键");
+    }
+
+    @Test
+    @DisplayName("测试忽略的字段由各配置类自行标记")
+    void testIgnoredFieldsArePerClass() {
+        Marked marked = new Marked();
+        String key = DerivativeCache.canonicalize(marked);
+        marked.threads = 8;
+        assertEquals(key, DerivativeCache.canonicalize(marked), "标记的字段不应该影响缓存键");
+
+        Unmarked unmarked = new Unmarked();
+        key = DerivativeCache.canonicalize(unmarked);
+        unmarked.threads = 8;
+        assertNotEquals(key, DerivativeCache.canonicalize(unmarked), "未标记的同名字段应该参与缓存键");
+    }
+
+    @Test
+    @DisplayName("测试命中后复制用的临时副本被删除")
+    void testCheckoutIsRemovedAfterCopy() throws IOException {
+        DerivativeCache cache = new DerivativeCache(tempDir.resolve("cache"), 1024 * 1024);
+        Path source = write("source.txt", "source content");
+        AtomicInteger produced = new AtomicInteger();
+
+        assertTrue(cache.getOrCreate(source, "test", null, tempDir.resolve("out1.txt"), output -> produce(output, produced)));
+        assertTrue(cache.getOrCreate(source, "test", null, tempDir.resolve("out2.txt"), output -> produce(output, produced)));
+
+        assertEquals("derived-1", Files.readString(tempDir.resolve("out2.txt")));
+        try (Stream<Path> files = Files.list(tempDir.resolve("cache").resolve(".tmp"))) {
+            assertEquals(0, files.count(), "临时副本应该在复制后删除");
+        }
+    }
+
+    @Test
+    @DisplayName("测试超出大小上限时淘汰最久未使用的条目")
+    void testLruEviction() throws IOException {
+        DerivativeCache cache = new DerivativeCache(tempDir.resolve("cache"), 25);
+        AtomicInteger produced = new AtomicInteger();
+        Path first = write("a.txt", "a");
+        Path second = write("b.txt", "b");
+        Path third = write("c.txt", "c");
+
+        cache.getOrCreate(first, "test", null, tempDir.resolve("a.out"), output -> produce(output, produced));
+        cache.getOrCreate(second, "test", null, tempDir.resolve("b.out"), output -> produce(output, produced));
+        // 访问 first，使 second 成为最久未使用
+        cache.getOrCreate(first, "test", null, tempDir.resolve("a.out"), output -> produce(output, produced));
+        cache.getOrCreate(third, "test", null, tempDir.resolve("c.out"), output -> produce(output, produced));
+
+        DerivativeCache.CacheStats stats = cache.getStats();
+        assertEquals(1, stats.getEvictions());
+        assertTrue(stats.getTotalBytes() <= 25);
+
+        int before = produced.get();
+        cache.getOrCreate(first, "test", null, tempDir.resolve("a.out"), output -> produce(output, produced));
+        assertEquals(before, produced.get(), "最近使用的条目应该保留");
+        cache.getOrCreate(second, "test", null, tempDir.resolve("b.out"), output -> produce(output, produced));
+        assertEquals(before + 1, produced.get(), "最久未使用的条目应该被淘汰");
+    }
+
+    @Test
+    @DisplayName("测试并发请求相同衍生文件只生成一次")
+    void testConcurrentRequestsAreCoalesced() throws Exception {
+        DerivativeCache cache = new DerivativeCache(tempDir.resolve("cache"), 1024 * 1024);
+        Path source = write("source.txt", "source content");
+        AtomicInteger produced = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        VideoCompress.CompressConfig config = new VideoCompress.CompressConfig();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                Path target = tempDir.resolve("out" + i + ".mp4");
+                futures.add(executor.submit(() -> cache.getOrCreate(source, "test", config, target, output -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    return produce(output, produced);
+                })));
+            }
+            // 等待其余请求进入等待状态后再完成生成
+            Thread.sleep(300);
+            release.countDown();
+            for (Future<Boolean> future : futures) {
+                assertTrue(future.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, produced.get(), "只应该生成一次");
+        for (int i = 0; i < 4; i++) {
+            assertEquals("derived-1", Files.readString(tempDir.resolve("out" + i + ".mp4")));
+        }
+        assertEquals(3, cache.getStats().getCoalesced());
+    }
+
+    @Test
+    @DisplayName("测试目标扩展名不同时分别缓存")
+    void testExtensionsAreSeparateEntries() throws IOException {
+        DerivativeCache cache = new DerivativeCache(tempDir.resolve("cache"), 1024 * 1024);
+        Path source = write("source.txt", "source content");
+        AtomicInteger produced = new AtomicInteger();
+
+        assertTrue(cache.getOrCreate(source, "test", null, tempDir.resolve("out.mp4"), output -> produce(output, produced)));
+        assertTrue(cache.getOrCreate(source, "test", null, tempDir.resolve("out.mkv"), output -> produce(output, produced)));
+        assertTrue(cache.getOrCreate(source, "test", null, tempDir.resolve("again.mp4"), output -> produce(output, produced)));
+
+        assertEquals(2, produced.get());
+        assertEquals("derived-1", Files.readString(tempDir.resolve("again.mp4")));
+        DerivativeCache.CacheStats stats = cache.getStats();
+        assertEquals(2, stats.getEntries());
+        assertEquals(1, stats.getHits());
+        try (var files = Files.walk(tempDir.resolve("cache"))) {
+            long bytes = files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+            assertEquals(bytes, stats.getTotalBytes(), "统计大小应与磁盘上的缓存文件一致");
+        }
+    }
+
+    @Test
+    @DisplayName("测试生成失败不写入缓存")
+    void testFailedProducerIsNotCached() throws IOException {
+        DerivativeCache cache = new DerivativeCache(tempDir.resolve("cache"), 1024 * 1024);
+        Path source = write("source.txt", "source content");
+
+        assertFalse(cache.getOrCreate(source, "test", null, tempDir.resolve("out.png"), output -> {
+            Files.writeString(output, "partial");
+            return false;
+        }));
+        assertEquals(0, cache.getStats().getEntries());
+        assertFalse(Files.exists(tempDir.resolve("out.png")));
+        try (var files = Files.list(tempDir.resolve("cache").resolve(".tmp"))) {
+            assertEquals(0, files.count(), "失败时应该清理临时文件");
+        }
+    }
+
+    @Test
+    @DisplayName("测试重启后恢复已有缓存")
+    void testReloadExistingEntries() throws IOException {
+        Path cacheDir = tempDir.resolve("cache");
+        Path source = write("source.txt", "source content");
+        AtomicInteger produced = new AtomicInteger();
+
+        new DerivativeCache(cacheDir, 1024 * 1024)
+                .getOrCreate(source, "test", null, tempDir.resolve("out.png"), output -> produce(output, produced));
+        DerivativeCache reloaded = new DerivativeCache(cacheDir, 1024 * 1024);
+        assertTrue(reloaded.getOrCreate(source, "test", null, tempDir.resolve("out2.png"), output -> produce(output, produced)));
+
+        assertEquals(1, produced.get());
+        assertEquals(1, reloaded.getStats().getHits());
+    }
+
+    @Test
+    @DisplayName("测试图片压缩使用缓存")
+    void testImageCompressWithCache() throws IOException {
+        DerivativeCache cache = new DerivativeCache(tempDir.resolve("cache"), 64 * 1024 * 1024);
+        Path source = tempDir.resolve("image.jpg");
+        javax.imageio.ImageIO.write(new java.awt.image.BufferedImage(640, 480, java.awt.image.BufferedImage.TYPE_INT_RGB),
+                "jpg", source.toFile());
+
+        assertTrue(ImageCompress.compress(source.toFile(), tempDir.resolve("a.jpg").toFile(), 0.7f, 320, 240, cache));
+        assertTrue(ImageCompress.compress(source.toFile(), tempDir.resolve("b.jpg").toFile(), 0.7f, 320, 240, cache));
+        assertTrue(ImageCompress.compress(source.toFile(), tempDir.resolve("c.jpg").toFile(), 0.5f, 320, 240, cache));
+
+        assertArrayEquals(Files.readAllBytes(tempDir.resolve("a.jpg")), Files.readAllBytes(tempDir.resolve("b.jpg")));
+        assertEquals(1, cache.getStats().getHits());
+        assertEquals(2, cache.getStats().getMisses());
+    }
+
+    static class Marked {
+        private int crf = 23;
+        @DerivativeCache.IgnoredInKey
+        private int threads = 4;
+    }
+
+    static class Unmarked {
+        private int crf = 23;
+        private int threads = 4;
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.writeString(tempDir.resolve(name), content);
+    }
+
+    private boolean produce(Path output, AtomicInteger counter) throws IOException {
+        Files.writeString(output, "derived-" + counter.incrementAndGet());
+        return true;
+    }
+
+}
@@ -0,0 +1,66 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * FilePassthrough 测试类
+ */
+class FilePassthroughTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("测试复制内容一致并覆盖已有目标")
+    void testCopyOverwritesTarget() throws IOException {
+        Path source = createSource(3 * 1024 * 1024 + 17);
+        Path target = tempDir.resolve("out/target.bin");
+        Files.createDirectories(target.getParent());
+        Files.writeString(target, "old content");
+
+        assertEquals(FilePassthrough.Mode.COPY, FilePassthrough.transfer(source, target, FilePassthrough.Mode.COPY));
+        assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(target));
+    }
+
+    @Test
+    @DisplayName("测试同一文件系统下创建硬链接")
+    void testLinkSharesFile() throws IOException {
+        Path source = createSource(4096);
+        Path target = tempDir.resolve("linked.bin");
+
+        FilePassthrough.Mode used = FilePassthrough.transfer(source, target, FilePassthrough.Mode.LINK);
+
+        assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(target));
+        if (used == FilePassthrough.Mode.LINK) {
+            assertTrue(Files.isSameFile(source, target), "硬链接应该指向同一文件");
+        }
+    }
+
+    @Test
+    @DisplayName("测试移动后源文件不存在")
+    void testMove() throws IOException {
+        Path source = createSource(4096);
+        byte[] content = Files.readAllBytes(source);
+        Path target = tempDir.resolve("moved.bin");
+
+        assertEquals(FilePassthrough.Mode.MOVE, FilePassthrough.transfer(source, target, FilePassthrough.Mode.MOVE));
+        assertFalse(Files.exists(source));
+        assertArrayEquals(content, Files.readAllBytes(target));
+    }
+
+    private Path createSource(int size) throws IOException {
+        byte[] bytes = new byte[size];
+        new Random(7).nextBytes(bytes);
+        return Files.write(tempDir.resolve("source.bin"), bytes);
+    }
+
+}
@@ -0,0 +1,111 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * FrameDeduplicator 测试类
+ */
+class FrameDeduplicatorTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("测试完全相同的帧只保留第一帧")
+    void testExactDuplicates() throws Exception {
+        Path frames = Files.createDirectories(tempDir.resolve("in"));
+        // 每帧保持 2~3 帧，A A B B B A
+        int[] sequence = {0, 0, 1, 1, 1, 0};
+        for (int i = 0; i < sequence.length; i++) {
+            ImageIO.write(image(sequence[i] * 100, -1, 0), "png", frames.resolve(String.format("%08d.png", i + 1)).toFile());
+        }
+
+        FrameDeduplicator deduplicator = new FrameDeduplicator(0);
+        Map<String, String> duplicates = deduplicator.deduplicate(frames);
+
+        assertEquals(Map.of("00000002.png", "00000001.png", "00000004.png", "00000003.png",
+                "00000005.png", "00000003.png", "00000006.png", "00000001.png"), duplicates);
+        assertEquals(List.of("00000001.png", "00000003.png"), names(frames));
+        assertEquals(4.0 / 6, deduplicator.getSkippedRatio(), 1e-9);
+    }
+
+    @Test
+    @DisplayName("测试相似度阈值")
+    void testPerceptualThreshold() throws Exception {
+        Path frames = Files.createDirectories(tempDir.resolve("in"));
+        ImageIO.write(image(100, -1, 0), "png", frames.resolve("00000001.png").toFile());
+        // 整帧轻微噪声
+        ImageIO.write(image(100, -1, 2), "png", frames.resolve("00000002.png").toFile());
+        // 局部明显变化（如口型）
+        ImageIO.write(image(100, 5, 0), "png", frames.resolve("00000003.png").toFile());
+
+        assertTrue(new FrameDeduplicator(0).deduplicate(copy(frames, "exact")).isEmpty(), "阈值为 0 时不应合并有差异的帧");
+
+        Map<String, String> duplicates = new FrameDeduplicator(0.02).deduplicate(frames);
+        assertEquals(Map.of("00000002.png", "00000001.png"), duplicates, "局部变化不应被视为重复");
+    }
+
+    @Test
+    @DisplayName("测试处理结果复制回重复帧")
+    void testFanOut() throws Exception {
+        Path output = Files.createDirectories(tempDir.resolve("out"));
+        Files.writeString(output.resolve("00000001.jpg"), "first");
+        Files.writeString(output.resolve("00000003.jpg"), "third");
+
+        FrameDeduplicator.fanOut(output, Map.of("00000002.png", "00000001.png", "00000004.png", "00000003.png"));
+
+        assertEquals(List.of("00000001.jpg", "00000002.jpg", "00000003.jpg", "00000004.jpg"), names(output));
+        assertEquals("first", Files.readString(output.resolve("00000002.jpg")));
+        assertEquals("third", Files.readString(output.resolve("00000004.jpg")));
+    }
+
+    /**
+     * 生成渐变帧
+     *
+     * @param offset   颜色偏移
+     * @param changedX 在该列附近画一块亮色区域，小于 0 时不画
+     * @param noise    每个像素的随机扰动幅度
+     */
+    private static BufferedImage image(int offset, int changedX, int noise) {
+        BufferedImage image = new BufferedImage(160, 90, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int value = Math.min(255, Math.max(0, (x + y + offset) % 200 + (noise > 0 ? random.nextInt(noise * 2 + 1) - noise : 0)));
+                if (changedX >= 0 && Math.abs(x - changedX * 10) < 6 && Math.abs(y - 45) < 4) {
+                    value = 255;
+                }
+                image.setRGB(x, y, value << 16 | value << 8 | value);
+            }
+        }
+        return image;
+    }
+
+    private Path copy(Path source, String name) throws Exception {
+        Path target = Files.createDirectories(tempDir.resolve(name));
+        for (String file : names(source)) {
+            Files.copy(source.resolve(file), target.resolve(file));
+        }
+        return target;
+    }
+
+    private static List<String> names(Path directory) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).sorted().toList();
+        }
+    }
+
+}
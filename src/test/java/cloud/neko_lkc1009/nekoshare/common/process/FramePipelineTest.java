@@ -0,0 +1,273 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * FramePipeline 测试类
+ * 用 cat 模拟 ffmpeg 的 PNG 图片流输入和输出
+ */
+class FramePipelineTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final List<Path> frames = new ArrayList<>();
+    private long totalBytes;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Assumptions.assumeFalse(System.getProperty("os.name").toLowerCase().contains("win"), "需要 sh 环境");
+        for (int i = 0; i < 7; i++) {
+            BufferedImage image = new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB);
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    image.setRGB(x, y, (x * 4 + i * 30) << 16 | (y * 5) << 8 | i * 20);
+                }
+            }
+            Path frame = tempDir.resolve("frame" + i + ".png");
+            ImageIO.write(image, "png", frame.toFile());
+            frames.add(frame);
+            totalBytes += Files.size(frame);
+        }
+    }
+
+    @Test
+    @DisplayName("测试分块流水线按顺序输出全部帧")
+    void testFramesStreamedInOrder() throws Exception {
+        Path output = tempDir.resolve("out.bin");
+        Path workDir = tempDir.resolve("work");
+        AtomicInteger maxChunkDirs = new AtomicInteger();
+
+        FramePipeline pipeline = new FramePipeline(new ProcessRunner(4), workDir, 2, (inputDir, outputDir) -> {
+            try (Stream<Path> dirs = Files.list(workDir)) {
+                maxChunkDirs.accumulateAndGet((int) dirs.count(), Math::max);
+            }
+            return copyFrames(inputDir, outputDir);
+        });
+
+        assertTrue(pipeline.run(decoder(), encoder("cat > '" + output + "'")));
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (Path frame : frames) {
+            expected.write(Files.readAllBytes(frame));
+        }
+        assertArrayEquals(expected.toByteArray(), Files.readAllBytes(output));
+        assertEquals(7, pipeline.getFrames());
+        assertEquals(4, pipeline.getChunks());
+        System.out.println("临时文件峰值: " + pipeline.getPeakDiskBytes() + " 字节, 全部帧: " + totalBytes + " 字节");
+        assertTrue(maxChunkDirs.get() <= 5, "同时存在的分块不应超过 5 个");
+        assertTrue(pipeline.getPeakDiskBytes() < totalBytes * 2, "临时文件不应包含全部输入和输出帧");
+        try (Stream<Path> remaining = Files.list(workDir)) {
+            assertEquals(0, remaining.count(), "编码完成的分块应该已删除");
+        }
+    }
+
+    @Test
+    @DisplayName("测试分块处理失败时中止流水线")
+    void testChunkFailureAborts() throws Exception {
+        AtomicInteger processed = new AtomicInteger();
+        FramePipeline pipeline = new FramePipeline(new ProcessRunner(4), tempDir.resolve("work"), 2,
+                (inputDir, outputDir) -> processed.incrementAndGet() < 2 && copyFrames(inputDir, outputDir));
+
+        assertFalse(pipeline.run(decoder(), encoder("cat > /dev/null")));
+        assertEquals(2, processed.get(), "失败后不应继续处理后续分块");
+    }
+
+    @Test
+    @DisplayName("测试编码进程提前退出时中止流水线")
+    void testEncoderExitAborts() throws Exception {
+        FramePipeline pipeline = new FramePipeline(new ProcessRunner(4), tempDir.resolve("work"), 1, FramePipelineTest::copyFrames);
+
+        assertFalse(pipeline.run(decoder(), encoder("exit 1")));
+    }
+
+    @Test
+    @DisplayName("测试可恢复模式中断后从已完成的分块继续")
+    void testResumeFromManifest() throws Exception {
+        Path workDir = tempDir.resolve("work");
+        AtomicInteger processed = new AtomicInteger();
+        FramePipeline.ChunkProcessor processor = (inputDir, outputDir) -> {
+            processed.incrementAndGet();
+            return copyFrames(inputDir, outputDir);
+        };
+
+        // 第一次执行：第 2 个分块超分后编码失败
+        FramePipeline first = new FramePipeline(new ProcessRunner(4), workDir, 2, processor);
+        ChunkManifest manifest = ChunkManifest.load(workDir, 2);
+        assertNull(first.runResumable(decoder(), (framesDir, segment) ->
+                !segment.getFileName().toString().equals("segment_000001.mkv") && concatFrames(framesDir, segment), manifest));
+        // 超分阶段与编码同时运行，编码失败前可能已经处理了后续分块
+        assertTrue(processed.get() >= 2);
+
+        ChunkManifest reloaded = ChunkManifest.load(workDir, 2);
+        assertEquals(ChunkManifest.State.ENCODED, reloaded.getState(0));
+        assertEquals(ChunkManifest.State.UPSCALED, reloaded.getState(1));
+        assertFalse(Files.exists(workDir.resolve("chunk_000000")), "编码完成的分块应该已删除帧");
+        int upscaled = 0;
+        for (int index = 0; index < 4; index++) {
+            if (reloaded.getState(index).compareTo(ChunkManifest.State.UPSCALED) >= 0) {
+                upscaled++;
+            }
+        }
+
+        // 重新执行：分块 0 直接沿用，已超分的分块只编码
+        processed.set(0);
+        FramePipeline second = new FramePipeline(new ProcessRunner(4), workDir, 2, processor);
+        List<Path> segments = second.runResumable(decoder(), FramePipelineTest::concatFrames, reloaded);
+        assertNotNull(segments);
+        assertEquals(4, segments.size());
+        assertEquals(4 - upscaled, processed.get(), "只有未完成超分的分块需要处理");
+        assertEquals(upscaled, second.getResumedChunks());
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (Path frame : frames) {
+            expected.write(Files.readAllBytes(frame));
+        }
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        for (Path segment : segments) {
+            actual.write(Files.readAllBytes(segment));
+        }
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+        assertEquals(4, ChunkManifest.load(workDir, 2).getEncodedChunks());
+    }
+
+    @Test
+    @DisplayName("测试清单记录的文件缺失时重新处理")
+    void testMissingSegmentIsRedone() throws Exception {
+        Path workDir = tempDir.resolve("work");
+        AtomicInteger processed = new AtomicInteger();
+        FramePipeline.ChunkProcessor processor = (inputDir, outputDir) -> {
+            processed.incrementAndGet();
+            return copyFrames(inputDir, outputDir);
+        };
+        assertNotNull(new FramePipeline(new ProcessRunner(4), workDir, 2, processor)
+                .runResumable(decoder(), FramePipelineTest::concatFrames, ChunkManifest.load(workDir, 2)));
+        Files.delete(workDir.resolve("segment_000002.mkv"));
+
+        processed.set(0);
+        FramePipeline pipeline = new FramePipeline(new ProcessRunner(4), workDir, 2, processor);
+        assertNotNull(pipeline.runResumable(decoder(), FramePipelineTest::concatFrames, ChunkManifest.load(workDir, 2)));
+        assertEquals(1, processed.get());
+        assertTrue(Files.exists(workDir.resolve("segment_000002.mkv")));
+    }
+
+    @Test
+    @DisplayName("测试超分和编码阶段同时运行")
+    void testStagesOverlap() throws Exception {
+        FramePipeline pipeline = new FramePipeline(new ProcessRunner(4), tempDir.resolve("work"), 1, (inputDir, outputDir) -> {
+            sleep(150);
+            return copyFrames(inputDir, outputDir);
+        });
+        List<Path> segments = pipeline.runResumable(decoder(), (framesDir, segment) -> {
+            sleep(150);
+            return concatFrames(framesDir, segment);
+        }, ChunkManifest.load(tempDir.resolve("work"), 1));
+
+        assertNotNull(segments);
+        assertEquals(7, segments.size());
+        for (FramePipeline.StageStats stats : pipeline.getStageStats()) {
+            System.out.println(stats.getStage() + ": " + stats.getChunks() + " 个分块, 工作 " + stats.getBusyMillis()
+                    + " ms, 等待 " + stats.getIdleMillis() + " ms");
+        }
+        System.out.println("总耗时: " + pipeline.getElapsedMillis() + " ms, 依次执行至少 2100 ms");
+        FramePipeline.StageStats upscale = pipeline.getStageStats().get(1);
+        FramePipeline.StageStats encode = pipeline.getStageStats().get(2);
+        assertEquals(7, upscale.getChunks());
+        assertEquals(7, encode.getChunks());
+        assertTrue(upscale.getBusyMillis() >= 1000);
+        assertTrue(encode.getBusyMillis() >= 1000);
+        assertTrue(pipeline.getElapsedMillis() < 1700, "总耗时应接近最慢的阶段而不是各阶段之和");
+    }
+
+    @Test
+    @DisplayName("测试重复帧只处理一次并按原顺序输出")
+    void testDuplicateFramesSkipped() throws Exception {
+        Path output = tempDir.resolve("out.bin");
+        List<Path> sequence = List.of(frames.get(0), frames.get(0), frames.get(1), frames.get(1), frames.get(1), frames.get(2));
+        AtomicInteger processedFrames = new AtomicInteger();
+        FramePipeline pipeline = new FramePipeline(new ProcessRunner(4), tempDir.resolve("work"), 3, (inputDir, outputDir) -> {
+            try (Stream<Path> files = Files.list(inputDir)) {
+                processedFrames.addAndGet((int) files.count());
+            }
+            return copyFrames(inputDir, outputDir);
+        });
+        pipeline.setDeduplicator(new FrameDeduplicator(0));
+
+        assertTrue(pipeline.run(decoder(sequence), encoder("cat > '" + output + "'")));
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (Path frame : sequence) {
+            expected.write(Files.readAllBytes(frame));
+        }
+        assertArrayEquals(expected.toByteArray(), Files.readAllBytes(output));
+        // 分块 [0 0 1] [1 1 2]：去重只在分块内进行
+        assertEquals(4, processedFrames.get());
+        assertEquals(2, pipeline.getSkippedFrames());
+    }
+
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * 模拟分块编码：按顺序连接帧文件
+     */
+    private static boolean concatFrames(Path framesDir, Path segment) throws IOException {
+        try (Stream<Path> files = Files.list(framesDir)) {
+            for (Path file : files.sorted().toList()) {
+                Files.write(segment, Files.readAllBytes(file), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+        }
+        return true;
+    }
+
+    private static boolean copyFrames(Path inputDir, Path outputDir) throws IOException {
+        try (Stream<Path> files = Files.list(inputDir)) {
+            for (Path file : files.toList()) {
+                Files.copy(file, outputDir.resolve(file.getFileName()));
+            }
+        }
+        return true;
+    }
+
+    private ProcessRunner.ProcessSpec decoder() {
+        return decoder(frames);
+    }
+
+    private static ProcessRunner.ProcessSpec decoder(List<Path> frames) {
+        StringBuilder script = new StringBuilder("cat");
+        for (Path frame : frames) {
+            script.append(" '").append(frame).append("'");
+        }
+        return new ProcessRunner.ProcessSpec(List.of("sh", "-c", script.toString()), "decoder");
+    }
+
+    private static ProcessRunner.ProcessSpec encoder(String script) {
+        return new ProcessRunner.ProcessSpec(List.of("sh", "-c", script), "encoder");
+    }
+
+}
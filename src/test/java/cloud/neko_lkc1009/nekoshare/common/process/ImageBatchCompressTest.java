@@ -0,0 +1,107 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ImageBatchCompress 测试类
+ */
+class ImageBatchCompressTest {
+    @TempDir
+    Path tempDir;
+    private File sourceDir;
+    private File targetDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        sourceDir = tempDir.resolve("source").toFile();
+        targetDir = tempDir.resolve("target").toFile();
+        Files.createDirectories(sourceDir.toPath());
+
+        createImage("large.jpg", 3000, 2000);
+        createImage("medium.png", 1600, 1200);
+        for (int i = 0; i < 6; i++) {
+            createImage("thumb" + i + ".jpg", 200, 150);
+        }
+        Files.writeString(sourceDir.toPath().resolve("notes.txt"), "not an image");
+    }
+
+    @Test
+    @DisplayName("测试压缩目录")
+    void testCompressDirectory() {
+        ImageBatchCompress.BatchResult result = ImageBatchCompress.compressDirectory(sourceDir, targetDir);
+
+        assertEquals(8, result.getFiles().size(), "只应该处理图片文件");
+        assertEquals(8, result.getSucceeded(), "所有图片都应该压缩成功");
+        assertEquals(0, result.getFailed());
+        assertTrue(new File(targetDir, "large.jpg").exists(), "输出文件应该存在");
+        assertTrue(result.getFilesPerSecond() > 0, "应该统计吞吐量");
+        assertTrue(result.getPeakReservedBytes() > 0, "应该统计内存预留峰值");
+    }
+
+    @Test
+    @DisplayName("测试内存预算限制并发")
+    void testMemoryBudgetLimitsReservation() {
+        long largeEstimate = ImageCompress.estimateDecodeBytes(new File(sourceDir, "large.jpg"), 1920, 1080);
+        ImageBatchCompress.BatchConfig config = new ImageBatchCompress.BatchConfig();
+        config.setThreads(4);
+        config.setMemoryBudgetBytes(largeEstimate);
+
+        ImageBatchCompress.BatchResult result = ImageBatchCompress.compressDirectory(sourceDir, targetDir, config);
+
+        assertEquals(8, result.getSucceeded(), "预算较小时所有图片仍应该压缩成功");
+        assertTrue(result.getPeakReservedBytes() <= largeEstimate, "内存预留峰值不应该超过预算");
+    }
+
+    @Test
+    @DisplayName("测试单个文件超过预算时独占执行")
+    void testOversizedFileRunsAlone() {
+        ImageBatchCompress.BatchConfig config = new ImageBatchCompress.BatchConfig();
+        config.setMemoryBudgetBytes(1024L);
+
+        ImageBatchCompress.BatchResult result = ImageBatchCompress.compressDirectory(sourceDir, targetDir, config);
+
+        assertEquals(8, result.getSucceeded(), "超过预算的文件应该独占执行而不是失败");
+        assertEquals(1024L, result.getPeakReservedBytes());
+    }
+
+    @Test
+    @DisplayName("测试估算内存")
+    void testEstimateDecodeBytes() {
+        // 6000x4000 子采样 3 倍解码为 2000x1334，缩放到 1620x1080
+        long estimate = ImageCompress.estimateDecodeBytes(6000, 4000, 1920, 1080);
+        assertEquals((2000L * 1334 + 1620L * 1080 * 2) * 4, estimate);
+        assertEquals(-1, ImageCompress.estimateDecodeBytes(new File(sourceDir, "notes.txt"), 1920, 1080));
+    }
+
+    @Test
+    @DisplayName("测试源目录不存在")
+    void testCompressNonExistentDirectory() {
+        ImageBatchCompress.BatchResult result = ImageBatchCompress.compressDirectory(
+                tempDir.resolve("missing").toFile(), targetDir);
+
+        assertTrue(result.getFiles().isEmpty(), "源目录不存在时应该返回空结果");
+    }
+
+    private void createImage(String fileName, int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, Color.GREEN, width, height, Color.MAGENTA));
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+        ImageIO.write(image, fileName.substring(fileName.lastIndexOf('.') + 1), new File(sourceDir, fileName));
+    }
+
+}
@@ -0,0 +1,120 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ImageCodecPool 测试类
+ */
+class ImageCodecPoolTest {
+
+    @Test
+    @DisplayName("测试归还后再次借用命中空闲实例")
+    void testBorrowAfterReleaseHits() throws IOException {
+        ImageCodecPool pool = new ImageCodecPool(2);
+
+        ImageWriter first = pool.borrowWriter("jpg");
+        pool.releaseWriter("jpg", first, true);
+        ImageWriter second = pool.borrowWriter("jpeg");
+        pool.releaseWriter("jpeg", second, true);
+
+        assertSame(first, second, "归还后应该复用同一个 ImageWriter");
+        ImageCodecPool.PoolStats stats = pool.getStats();
+        assertEquals(2, stats.getBorrows());
+        assertEquals(1, stats.getHits());
+        assertEquals(0.5, stats.getHitRate(), 0.0001);
+    }
+
+    @Test
+    @DisplayName("测试失败的编解码器不再复用")
+    void testDiscardedCodecIsNotReused() throws IOException {
+        ImageCodecPool pool = new ImageCodecPool(1);
+
+        ImageReader first = pool.borrowReader("png");
+        pool.releaseReader("png", first, false);
+        ImageReader second = pool.borrowReader("png");
+        pool.releaseReader("png", second, true);
+
+        assertNotSame(first, second, "失败的 ImageReader 不应该被复用");
+        assertEquals(0, pool.getStats().getHits());
+    }
+
+    @Test
+    @DisplayName("测试池满时临时创建实例，归还后直接丢弃")
+    void testOverflowWhenExhausted() throws IOException {
+        ImageCodecPool pool = new ImageCodecPool(1);
+
+        ImageWriter pooled = pool.borrowWriter("png");
+        ImageWriter overflow = pool.borrowWriter("png");
+        assertNotSame(pooled, overflow, "池满时应该临时创建新实例");
+        pool.releaseWriter("png", overflow, true);
+        pool.releaseWriter("png", pooled, true);
+
+        ImageWriter again = pool.borrowWriter("png");
+        assertSame(pooled, again, "池内实例应该被复用");
+        assertNotSame(overflow, pool.borrowWriter("png"), "临时实例不应该进入池中");
+
+        ImageCodecPool.PoolStats stats = pool.getStats();
+        assertEquals(4, stats.getBorrows());
+        assertEquals(1, stats.getHits());
+        assertEquals(2, stats.getOverflows());
+    }
+
+    @Test
+    @DisplayName("测试不支持的格式")
+    void testUnsupportedFormat() throws IOException {
+        ImageCodecPool pool = new ImageCodecPool(1);
+
+        assertThrows(IOException.class, () -> pool.borrowWriter("not-a-format"));
+        // 创建失败不应该占用名额
+        assertThrows(IOException.class, () -> pool.borrowWriter("not-a-format"));
+        assertEquals(0, pool.getStats().getOverflows());
+    }
+
+    @Test
+    @DisplayName("测试根据魔数识别格式")
+    void testSniffFormat() throws IOException {
+        BufferedImage image = new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB);
+
+        assertEquals("jpg", sniff(encode(image, "jpg")));
+        assertEquals("png", sniff(encode(image, "png")));
+        assertEquals("bmp", sniff(encode(image, "bmp")));
+        assertNull(sniff("This is not an image".getBytes()));
+    }
+
+    @Test
+    @DisplayName("测试识别格式不移动流位置")
+    void testSniffFormatKeepsPosition() throws IOException {
+        byte[] bytes = encode(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB), "png");
+
+        try (ImageInputStream inputStream = new MemoryCacheImageInputStream(new ByteArrayInputStream(bytes))) {
+            ImageCodecPool.sniffFormat(inputStream);
+            assertEquals(0, inputStream.getStreamPosition(), "识别格式后流位置应该不变");
+        }
+    }
+
+    private String sniff(byte[] bytes) throws IOException {
+        try (ImageInputStream inputStream = new MemoryCacheImageInputStream(new ByteArrayInputStream(bytes))) {
+            return ImageCodecPool.sniffFormat(inputStream);
+        }
+    }
+
+    private byte[] encode(BufferedImage image, String format) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageIO.write(image, format, outputStream);
+        return outputStream.toByteArray();
+    }
+
+}
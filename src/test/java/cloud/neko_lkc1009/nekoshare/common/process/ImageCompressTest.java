@@ -5,11 +5,14 @@ import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.io.TempDir;
 
 import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -290,4 +293,119 @@ class ImageCompressTest {
         assertTrue(info.contains("失败") || info.contains("无法"),
                 "应该包含失败或无法读取的提示");
     }
-}
\ No newline at end of file
+
+    @Test
+    @Order(16)
+    @DisplayName("测试大图子采样解码的内存与耗时")
+    void testSubsampledDecodeLargeImage() throws IOException {
+        // 创建一个 6000x4000 的大图，模拟手机原图
+        File largeImageFile = tempDir.resolve("large-image.jpg").toFile();
+        BufferedImage largeImage = new BufferedImage(6000, 4000, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = largeImage.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, Color.BLUE, 6000, 4000, Color.ORANGE));
+        g.fillRect(0, 0, 6000, 4000);
+        g.dispose();
+        ImageIO.write(largeImage, "jpg", largeImageFile);
+
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        // 原方案：完整解码
+        long fullAllocated = threadBean.getThreadAllocatedBytes(threadId);
+        long fullStart = System.nanoTime();
+        BufferedImage fullImage = ImageIO.read(largeImageFile);
+        long fullNanos = System.nanoTime() - fullStart;
+        fullAllocated = threadBean.getThreadAllocatedBytes(threadId) - fullAllocated;
+        assertEquals(6000, fullImage.getWidth(), "完整解码应得到原始宽度");
+
+        // 新方案：读取头部后子采样解码并缩放
+        long subsampledAllocated = threadBean.getThreadAllocatedBytes(threadId);
+        long subsampledStart = System.nanoTime();
+        BufferedImage scaledImage;
+        try (ImageInputStream inputStream = ImageIO.createImageInputStream(largeImageFile)) {
+            scaledImage = ImageCompress.readScaled(inputStream, (width, height) -> new int[]{1620, 1080},
+                    ImageResampler.Strategy.AUTO);
+        }
+        long subsampledNanos = System.nanoTime() - subsampledStart;
+        subsampledAllocated = threadBean.getThreadAllocatedBytes(threadId) - subsampledAllocated;
+
+        assertNotNull(scaledImage, "子采样解码结果不应该为null");
+        assertEquals(1620, scaledImage.getWidth(), "子采样解码后宽度应该等于目标宽度");
+        assertEquals(1080, scaledImage.getHeight(), "子采样解码后高度应该等于目标高度");
+        assertTrue(subsampledAllocated < fullAllocated, "子采样解码的内存分配应该小于完整解码");
+
+        System.out.printf("完整解码: %d ms, %d KB; 子采样解码+缩放: %d ms, %d KB%n",
+                fullNanos / 1_000_000, fullAllocated / 1024,
+                subsampledNanos / 1_000_000, subsampledAllocated / 1024);
+    }
+
+    @Test
+    @Order(17)
+    @DisplayName("测试子采样步长计算")
+    void testCalculateSubsampling() {
+        assertEquals(1, ImageCompress.calculateSubsampling(1920, 1080, 1920, 1080), "尺寸相同时不应该子采样");
+        assertEquals(3, ImageCompress.calculateSubsampling(6000, 4000, 1620, 1080), "子采样后尺寸不应小于目标尺寸");
+        assertEquals(1, ImageCompress.calculateSubsampling(500, 400, 0, 0), "目标尺寸无效时不应该子采样");
+    }
+
+    @Test
+    @Order(18)
+    @DisplayName("测试按大小压缩")
+    void testCompressToSize() throws IOException {
+        File noisyImageFile = createNoisyImage("noisy-image.jpg", 1600, 1200);
+        long maxBytes = 150 * 1024;
+
+        boolean result = ImageCompress.compressToSize(noisyImageFile, outputImageFile, maxBytes);
+
+        assertTrue(result, "按大小压缩应该成功");
+        assertTrue(outputImageFile.length() <= maxBytes, "压缩后文件大小应该不超过限制");
+        assertNotNull(ImageIO.read(outputImageFile), "压缩结果应该是有效图片");
+    }
+
+    @Test
+    @Order(19)
+    @DisplayName("测试质量无法满足时缩小尺寸")
+    void testCompressToSizeShrinksDimensions() throws IOException {
+        File noisyImageFile = createNoisyImage("noisy-image.jpg", 1600, 1200);
+        long maxBytes = 8 * 1024;
+
+        boolean result = ImageCompress.compressToSize(noisyImageFile, outputImageFile, maxBytes);
+
+        assertTrue(result, "按大小压缩应该成功");
+        assertTrue(outputImageFile.length() <= maxBytes, "压缩后文件大小应该不超过限制");
+        BufferedImage outputImage = ImageIO.read(outputImageFile);
+        assertTrue(outputImage.getWidth() < 1600, "最低质量仍超出限制时应该缩小尺寸");
+        assertEquals(1600.0 / 1200.0, (double) outputImage.getWidth() / outputImage.getHeight(), 0.02,
+                "缩小尺寸时应该保持宽高比");
+    }
+
+    @Test
+    @Order(20)
+    @DisplayName("测试无法满足大小限制")
+    void testCompressToSizeImpossibleBudget() throws IOException {
+        byte[] imageBytes = Files.readAllBytes(createNoisyImage("noisy-image.png", 400, 300).toPath());
+
+        assertNull(ImageCompress.compressToSize(imageBytes, "png", 16), "无法满足大小限制时应该返回null");
+
+        byte[] compressedBytes = ImageCompress.compressToSize(imageBytes, "png", imageBytes.length);
+        assertNotNull(compressedBytes, "大小限制足够时应该返回结果");
+        assertTrue(compressedBytes.length <= imageBytes.length, "压缩结果应该不超过限制");
+    }
+
+    /**
+     * 创建带噪点的测试图片，使编码后的大小对质量敏感
+     */
+    private File createNoisyImage(String fileName, int width, int height) throws IOException {
+        File file = tempDir.resolve(fileName).toFile();
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt(0xFFFFFF));
+            }
+        }
+        ImageIO.write(image, fileName.substring(fileName.lastIndexOf('.') + 1), file);
+        return file;
+    }
+}
@@ -0,0 +1,92 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ImageMetadata 测试类
+ */
+class ImageMetadataTest {
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() {
+        ImageMetadata.clearCache();
+    }
+
+    @Test
+    @DisplayName("测试读取宽高并根据魔数识别格式")
+    void testProbeSniffsFormat() throws IOException {
+        // PNG 内容但扩展名为 jpg
+        File file = tempDir.resolve("misnamed.jpg").toFile();
+        ImageIO.write(new BufferedImage(320, 200, BufferedImage.TYPE_INT_RGB), "png", file);
+
+        ImageMetadata.Info info = ImageMetadata.probe(file);
+
+        assertNotNull(info);
+        assertEquals(320, info.getWidth());
+        assertEquals(200, info.getHeight());
+        assertEquals("png", info.getFormat(), "格式应该根据文件头识别");
+        assertEquals(file.length(), info.getFileSize());
+    }
+
+    @Test
+    @DisplayName("测试缓存命中以及文件变化后重新探测")
+    void testCacheInvalidatedOnChange() throws IOException {
+        File file = tempDir.resolve("image.png").toFile();
+        ImageIO.write(new BufferedImage(100, 50, BufferedImage.TYPE_INT_RGB), "png", file);
+
+        long hits = ImageMetadata.getHits();
+        ImageMetadata.probe(file);
+        ImageMetadata.probe(file);
+        assertEquals(hits + 1, ImageMetadata.getHits(), "第二次探测应该命中缓存");
+
+        ImageIO.write(new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB), "jpg", file);
+        assertTrue(file.setLastModified(file.lastModified() + 2000));
+        ImageMetadata.Info info = ImageMetadata.probe(file);
+        assertEquals(64, info.getWidth(), "文件变化后应该重新探测");
+        assertEquals("jpg", info.getFormat());
+    }
+
+    @Test
+    @DisplayName("测试不存在或无法识别的文件")
+    void testUnreadableFile() throws IOException {
+        assertNull(ImageMetadata.probe(tempDir.resolve("missing.png").toFile()));
+
+        File text = tempDir.resolve("text.png").toFile();
+        java.nio.file.Files.writeString(text.toPath(), "This is not an image");
+        assertNull(ImageMetadata.probe(text));
+    }
+
+    @Test
+    @DisplayName("测试探测大图不解码像素")
+    void testProbeDoesNotDecodePixels() throws IOException {
+        File file = tempDir.resolve("large.jpg").toFile();
+        ImageIO.write(new BufferedImage(4000, 3000, BufferedImage.TYPE_INT_RGB), "jpg", file);
+
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocated = threadBean.getThreadAllocatedBytes(threadId);
+        ImageMetadata.Info info = ImageMetadata.probe(file);
+        allocated = threadBean.getThreadAllocatedBytes(threadId) - allocated;
+
+        System.out.println("探测 4000x3000 图片分配: " + allocated / 1024 + " KB");
+        assertEquals(4000, info.getWidth());
+        assertTrue(allocated < 4000L * 3000 * 3 / 4, "探测不应该分配像素内存");
+    }
+
+}
@@ -0,0 +1,105 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ImagePromote 批量提升测试，使用模拟 waifu2x，不依赖 Spring 上下文
+ */
+class ImagePromoteBatchTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("测试批量提升逐个文件报告结果，进程失败时保留已完成的文件")
+    void testPromoteBatchPerFileResults() throws IOException {
+        Assumptions.assumeFalse(System.getProperty("os.name").toLowerCase().contains("win"), "需要 sh 环境");
+        // 模拟 waifu2x -v：处理前两个文件后异常退出
+        Path script = tempDir.resolve("fake-waifu2x.sh");
+        Files.write(script, List.of(
+                "#!/bin/sh",
+                "while [ $# -gt 0 ]; do",
+                "  case \"$1\" in",
+                "    -i) in=\"$2\"; shift;;",
+                "    -o) out=\"$2\"; shift;;",
+                "    -f) fmt=\"$2\"; shift;;",
+                "  esac",
+                "  shift",
+                "done",
+                "n=0",
+                "for f in \"$in\"/*; do",
+                "  n=$((n + 1)); [ $n -gt 2 ] && exit 1",
+                "  name=$(basename \"$f\"); cp \"$f\" \"$out/${name%.*}.$fmt\"",
+                "  echo \"$f -> $out/${name%.*}.$fmt done\" >&2",
+                "done",
+                ""));
+        assertTrue(script.toFile().setExecutable(true));
+        ImagePromote imagePromote = new ImagePromote();
+        ReflectionTestUtils.setField(imagePromote, "waifu2xExecutablePath", script.toString());
+        ReflectionTestUtils.setField(imagePromote, "modelPath", "models");
+        ReflectionTestUtils.setField(imagePromote, "fallbackEnabled", false);
+
+        Path inputDir = Files.createDirectories(tempDir.resolve("batch_input"));
+        Path outputDir = tempDir.resolve("batch_output");
+        for (String name : List.of("a.png", "b.png", "c.png")) {
+            ImageIO.write(new BufferedImage(40, 40, BufferedImage.TYPE_INT_RGB), "png", inputDir.resolve(name).toFile());
+        }
+
+        List<ImagePromote.FileResult> events = new CopyOnWriteArrayList<>();
+        ImagePromote.BatchProgress progress = new ImagePromote.BatchProgress(events::add);
+        ImagePromote.BatchResult result = imagePromote.promoteBatch(inputDir.toString(), outputDir.toString(),
+                new ImagePromote.PromoteConfig(), progress);
+
+        assertEquals(3, result.getTotal());
+        assertEquals(2, result.getSucceeded());
+        assertEquals(1, result.getFailed());
+        assertTrue(result.getFiles().get("a.png").isSuccess());
+        assertTrue(result.getFiles().get("b.png").isSuccess());
+        assertFalse(result.getFiles().get("c.png").isSuccess());
+        assertEquals(outputDir.resolve("b.png"), result.getFiles().get("b.png").getOutput());
+        assertTrue(Files.exists(outputDir.resolve("a.png")), "已完成的文件应该保留");
+
+        assertEquals(3, events.size(), "每个文件回调一次");
+        assertTrue(progress.isFinished());
+        assertEquals(3, progress.getCompleted());
+    }
+
+    @Test
+    @DisplayName("测试仅扩展名不同的文件输出名冲突时记为失败")
+    void testOutputNameCollision() throws IOException {
+        ImagePromote imagePromote = new ImagePromote();
+        ReflectionTestUtils.setField(imagePromote, "waifu2xExecutablePath", tempDir.resolve("no-such-waifu2x").toString());
+        ReflectionTestUtils.setField(imagePromote, "modelPath", "models");
+
+        Path inputDir = Files.createDirectories(tempDir.resolve("collision_input"));
+        Path outputDir = tempDir.resolve("collision_output");
+        ImageIO.write(new BufferedImage(20, 20, BufferedImage.TYPE_INT_RGB), "jpg", inputDir.resolve("a.jpg").toFile());
+        ImageIO.write(new BufferedImage(20, 20, BufferedImage.TYPE_INT_RGB), "png", inputDir.resolve("a.png").toFile());
+        ImageIO.write(new BufferedImage(20, 20, BufferedImage.TYPE_INT_RGB), "png", inputDir.resolve("b.png").toFile());
+
+        ImagePromote.BatchResult result = imagePromote.promoteBatch(inputDir.toString(), outputDir.toString(),
+                new ImagePromote.PromoteConfig(), null);
+
+        assertEquals(3, result.getTotal(), "冲突的文件也应该计入总数");
+        assertEquals(1, result.getSucceeded());
+        assertEquals(2, result.getFailed());
+        assertFalse(result.getFiles().get("a.jpg").isSuccess());
+        assertFalse(result.getFiles().get("a.png").isSuccess());
+        assertTrue(result.getFiles().get("b.png").isSuccess());
+    }
+
+}
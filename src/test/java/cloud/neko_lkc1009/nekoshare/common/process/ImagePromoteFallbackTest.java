@@ -0,0 +1,108 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ImagePromote 的 Java 插值兜底测试，不依赖 Spring 上下文和 waifu2x
+ */
+class ImagePromoteFallbackTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ImagePromote imagePromote;
+
+    @BeforeEach
+    void setUp() {
+        imagePromote = new ImagePromote();
+        ReflectionTestUtils.setField(imagePromote, "modelPath", "models");
+    }
+
+    @Test
+    @DisplayName("测试 waifu2x 不可用时使用 Java 插值兜底")
+    void testFallbackWhenWaifu2xUnavailable() throws IOException {
+        ReflectionTestUtils.setField(imagePromote, "waifu2xExecutablePath", tempDir.resolve("no-such-waifu2x").toString());
+        Path inputPath = createTestImage("fallback.png", 120, 80);
+        Path outputPath = tempDir.resolve("fallback_out.png");
+
+        ImagePromote.PromoteConfig config = new ImagePromote.PromoteConfig();
+        config.setScale(3);
+        config.setTileSize(64);
+        assertTrue(imagePromote.promoteImage(inputPath.toString(), outputPath.toString(), config), "兜底放大应该成功");
+
+        BufferedImage output = ImageIO.read(outputPath.toFile());
+        assertEquals(360, output.getWidth());
+        assertEquals(240, output.getHeight());
+
+        ReflectionTestUtils.setField(imagePromote, "fallbackEnabled", false);
+        assertFalse(imagePromote.promoteImage(inputPath.toString(), tempDir.resolve("disabled.png").toString(), config),
+                "关闭兜底后 waifu2x 不可用应返回 false");
+    }
+
+    @Test
+    @DisplayName("测试 waifu2x 不可用的结果过期后重新检测")
+    void testRecheckAfterUnavailable() throws IOException {
+        Assumptions.assumeFalse(System.getProperty("os.name").toLowerCase().contains("win"), "需要 sh 环境");
+        // 模拟 waifu2x：标记文件存在时可用，把输入原样复制到输出（尺寸不变）；否则启动失败
+        Path ready = tempDir.resolve("ready");
+        Path script = tempDir.resolve("fake-waifu2x.sh");
+        Files.write(script, List.of(
+                "#!/bin/sh",
+                "[ -f '" + ready + "' ] || exit 127",
+                "while [ $# -gt 0 ]; do",
+                "  case \"$1\" in",
+                "    -i) in=\"$2\"; shift;;",
+                "    -o) out=\"$2\"; shift;;",
+                "  esac",
+                "  shift",
+                "done",
+                "[ -n \"$in\" ] && cp \"$in\" \"$out\"",
+                "exit 0",
+                ""));
+        assertTrue(script.toFile().setExecutable(true));
+        ReflectionTestUtils.setField(imagePromote, "waifu2xExecutablePath", script.toString());
+        Path inputPath = createTestImage("input.png", 120, 80);
+        ImagePromote.PromoteConfig config = new ImagePromote.PromoteConfig();
+
+        // 首次检测失败，使用兜底放大
+        assertTrue(imagePromote.promoteImage(inputPath.toString(), tempDir.resolve("first.png").toString(), config));
+        assertEquals(240, ImageIO.read(tempDir.resolve("first.png").toFile()).getWidth());
+
+        // waifu2x 恢复，但在重新检测间隔内仍使用兜底
+        Files.createFile(ready);
+        assertTrue(imagePromote.promoteImage(inputPath.toString(), tempDir.resolve("second.png").toString(), config));
+        assertEquals(240, ImageIO.read(tempDir.resolve("second.png").toFile()).getWidth());
+
+        // 间隔过后重新检测，改用 waifu2x
+        ReflectionTestUtils.setField(imagePromote, "waifu2xRecheckAt", 0L);
+        assertTrue(imagePromote.promoteImage(inputPath.toString(), tempDir.resolve("third.png").toString(), config));
+        assertEquals(120, ImageIO.read(tempDir.resolve("third.png").toFile()).getWidth(), "应该由 waifu2x 处理");
+    }
+
+    private Path createTestImage(String filename, int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, (x * 2) << 16 | (y * 3) << 8 | 128);
+            }
+        }
+        Path imagePath = tempDir.resolve(filename);
+        ImageIO.write(image, "png", imagePath.toFile());
+        return imagePath;
+    }
+
+}
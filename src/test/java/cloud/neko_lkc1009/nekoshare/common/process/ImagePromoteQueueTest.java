@@ -0,0 +1,194 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ImagePromoteQueue 测试类
+ * 使用模拟 waifu2x 目录模式的脚本，统计实际启动的进程数
+ */
+class ImagePromoteQueueTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path invocationLog;
+    private ImagePromoteQueue queue;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Assumptions.assumeFalse(System.getProperty("os.name").toLowerCase().contains("win"), "需要 sh 环境");
+        invocationLog = tempDir.resolve("invocations.log");
+        // 单文件模式复制 -i 到 -o；目录模式将每个文件复制为 文件名去扩展名.格式
+        Path script = tempDir.resolve("fake-waifu2x.sh");
+        Files.writeString(script, String.join("\n",
+                "#!/bin/sh",
+                "echo run >> '" + invocationLog + "'",
+                "while [ $# -gt 0 ]; do",
+                "  case \"$1\" in",
+                "    -i) in=\"$2\"; shift;;",
+                "    -o) out=\"$2\"; shift;;",
+                "    -f) fmt=\"$2\"; shift;;",
+                "  esac",
+                "  shift",
+                "done",
+                "if [ -d \"$in\" ]; then",
+                "  for f in \"$in\"/*; do",
+                "    name=$(basename \"$f\"); cp \"$f\" \"$out/${name%.*}.$fmt\"; echo \"$f -> $out/${name%.*}.$fmt done\" >&2",
+                "  done",
+                "else",
+                "  cp \"$in\" \"$out\"",
+                "fi",
+                ""));
+        assertTrue(script.toFile().setExecutable(true));
+
+        ImagePromote imagePromote = new ImagePromote();
+        ReflectionTestUtils.setField(imagePromote, "waifu2xExecutablePath", script.toString());
+        ReflectionTestUtils.setField(imagePromote, "modelPath", "");
+        ReflectionTestUtils.setField(imagePromote, "fallbackEnabled", false);
+        queue = new ImagePromoteQueue(imagePromote);
+        ReflectionTestUtils.setField(queue, "windowMillis", 200L);
+    }
+
+    @Test
+    @DisplayName("测试相同配置的请求合并为一次执行")
+    void testRequestsAreBatched() throws Exception {
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        List<Path> outputs = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Path input = Files.writeString(tempDir.resolve("input" + i + ".jpg"), "image-" + i);
+            Path output = tempDir.resolve("result/output" + i + ".png");
+            outputs.add(output);
+            futures.add(queue.submit(input.toString(), output.toString()));
+        }
+
+        for (CompletableFuture<Boolean> future : futures) {
+            assertTrue(future.get(10, TimeUnit.SECONDS));
+        }
+        for (int i = 0; i < 5; i++) {
+            assertEquals("image-" + i, Files.readString(outputs.get(i)), "结果应该返回给对应的请求");
+        }
+        assertEquals(1, Files.readAllLines(invocationLog).size(), "应该只启动一次 waifu2x");
+        assertEquals(5.0, queue.getStats().getAverageBatchSize(), 0.001);
+    }
+
+    @Test
+    @DisplayName("测试不同配置分开执行")
+    void testDifferentConfigsAreSeparated() throws Exception {
+        ImagePromote.PromoteConfig scale2 = new ImagePromote.PromoteConfig();
+        ImagePromote.PromoteConfig scale4 = new ImagePromote.PromoteConfig();
+        scale4.setScale(4);
+
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Path input = Files.writeString(tempDir.resolve("input" + i + ".png"), "image-" + i);
+            futures.add(queue.submit(input.toString(), tempDir.resolve("out" + i + ".png").toString(),
+                    i % 2 == 0 ? scale2 : scale4));
+        }
+
+        for (CompletableFuture<Boolean> future : futures) {
+            assertTrue(future.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(2, Files.readAllLines(invocationLog).size(), "每种配置执行一次");
+    }
+
+    @Test
+    @DisplayName("测试优先级和请求方不同的请求分开执行，超时取最短的非零值")
+    void testPriorityAndOwnerAreSeparated() throws Exception {
+        ImagePromote.PromoteConfig alice = new ImagePromote.PromoteConfig();
+        alice.setOwner("alice");
+        ImagePromote.PromoteConfig bob = new ImagePromote.PromoteConfig();
+        bob.setOwner("bob");
+        bob.setTimeoutSeconds(30);
+        assertNotEquals(ImagePromoteQueue.batchKey(alice), ImagePromoteQueue.batchKey(bob));
+
+        ImagePromote.PromoteConfig bobUrgent = new ImagePromote.PromoteConfig();
+        bobUrgent.setOwner("bob");
+        bobUrgent.setPriority(10);
+        assertNotEquals(ImagePromoteQueue.batchKey(bob), ImagePromoteQueue.batchKey(bobUrgent));
+
+        ImagePromote.PromoteConfig bobVerbose = new ImagePromote.PromoteConfig();
+        bobVerbose.setOwner("bob");
+        bobVerbose.setTimeoutSeconds(10);
+        bobVerbose.setVerbose(true);
+        assertEquals(ImagePromoteQueue.batchKey(bob), ImagePromoteQueue.batchKey(bobVerbose), "超时和日志不影响合批");
+
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        ImagePromote.PromoteConfig[] configs = {alice, bob, bobUrgent, bobVerbose};
+        for (int i = 0; i < configs.length; i++) {
+            Path input = Files.writeString(tempDir.resolve("input" + i + ".png"), "image-" + i);
+            futures.add(queue.submit(input.toString(), tempDir.resolve("out" + i + ".png").toString(), configs[i]));
+        }
+        for (CompletableFuture<Boolean> future : futures) {
+            assertTrue(future.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(3, Files.readAllLines(invocationLog).size(), "alice、bob、bob 高优先级各执行一次");
+    }
+
+    @Test
+    @DisplayName("测试合批结果写入缓存，重复请求不再执行 waifu2x")
+    void testBatchUsesCache() throws Exception {
+        DerivativeCache cache = new DerivativeCache(tempDir.resolve("cache"), 1024 * 1024);
+        ReflectionTestUtils.setField(queue, "derivativeCache", cache);
+
+        for (int round = 0; round < 2; round++) {
+            List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                Path input = tempDir.resolve("input" + i + ".png");
+                if (!Files.exists(input)) {
+                    Files.writeString(input, "image-" + i);
+                }
+                futures.add(queue.submit(input.toString(), tempDir.resolve("round" + round + "/out" + i + ".png").toString()));
+            }
+            for (CompletableFuture<Boolean> future : futures) {
+                assertTrue(future.get(10, TimeUnit.SECONDS));
+            }
+        }
+
+        assertEquals(1, Files.readAllLines(invocationLog).size(), "第二轮应该全部命中缓存");
+        assertEquals("image-2", Files.readString(tempDir.resolve("round1/out2.png")));
+        assertEquals(3, cache.getStats().getHits());
+    }
+
+    @Test
+    @DisplayName("测试达到批次上限时立即执行")
+    void testFullBatchDispatchedImmediately() throws Exception {
+        ReflectionTestUtils.setField(queue, "windowMillis", 60_000L);
+        ReflectionTestUtils.setField(queue, "maxBatchSize", 3);
+
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Path input = Files.writeString(tempDir.resolve("input" + i + ".png"), "image-" + i);
+            futures.add(queue.submit(input.toString(), tempDir.resolve("out" + i + ".png").toString()));
+        }
+
+        for (CompletableFuture<Boolean> future : futures) {
+            assertTrue(future.get(10, TimeUnit.SECONDS), "达到上限后不应该等待时间窗口");
+        }
+    }
+
+    @Test
+    @DisplayName("测试输入不存在时立即失败")
+    void testMissingInput() throws Exception {
+        File missing = tempDir.resolve("missing.png").toFile();
+
+        assertFalse(queue.submit(missing.getPath(), tempDir.resolve("out.png").toString()).get(1, TimeUnit.SECONDS));
+        assertFalse(Files.exists(invocationLog));
+    }
+
+}
@@ -0,0 +1,124 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ImageRendition 测试类
+ */
+class ImageRenditionTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static final List<ImageRendition.Spec> SPECS = List.of(
+            ImageRendition.Spec.of("thumbnail", 160, 160),
+            ImageRendition.Spec.of("full", 1920, 1080),
+            ImageRendition.Spec.of("card", 640, 360));
+
+    @Test
+    @DisplayName("测试一次解码输出多个尺寸")
+    void testRenditionsInMemory() throws IOException {
+        File source = createImage("cover.jpg", 3840, 2160);
+
+        ImageRendition.RenditionResult result = ImageRendition.renditions(source, SPECS);
+
+        assertNotNull(result);
+        assertEquals(3840, result.getSourceWidth());
+        List<ImageRendition.Rendition> renditions = result.getRenditions();
+        assertEquals(3, renditions.size());
+        // 顺序与输入规格一致
+        assertEquals("thumbnail", renditions.get(0).getSpec().getName());
+        assertSize(renditions.get(0), 160, 90);
+        assertSize(renditions.get(1), 1920, 1080);
+        assertSize(renditions.get(2), 640, 360);
+        for (ImageRendition.Rendition rendition : renditions) {
+            BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(rendition.getBytes()));
+            assertEquals(rendition.getWidth(), decoded.getWidth());
+            assertNull(rendition.getFile());
+        }
+        System.out.println("解码: " + result.getDecodeMillis() + " ms, 总耗时: " + result.getTotalMillis() + " ms");
+    }
+
+    @Test
+    @DisplayName("测试输出到目录并指定格式")
+    void testRenditionsToDirectory() throws IOException {
+        File source = createImage("avatar.png", 800, 800);
+        File targetDir = tempDir.resolve("out").toFile();
+        ImageRendition.Spec small = ImageRendition.Spec.of("small", 64, 64);
+        small.setFormat("jpg");
+
+        ImageRendition.RenditionResult result = ImageRendition.renditions(source,
+                List.of(ImageRendition.Spec.of("large", 400, 400), small), targetDir);
+
+        assertNotNull(result);
+        File large = new File(targetDir, "avatar_large.png");
+        File smallFile = new File(targetDir, "avatar_small.jpg");
+        assertTrue(large.exists());
+        assertTrue(smallFile.exists());
+        assertEquals(smallFile, result.getRenditions().get(1).getFile());
+        assertEquals(64, ImageIO.read(smallFile).getWidth());
+        assertArrayEquals(Files.readAllBytes(large.toPath()), result.getRenditions().get(0).getBytes());
+    }
+
+    @Test
+    @DisplayName("测试与多次单独压缩的耗时对比")
+    void testFasterThanRepeatedCompress() throws IOException {
+        File source = createImage("article.jpg", 4000, 3000);
+        // 预热
+        ImageRendition.renditions(source, SPECS);
+        for (ImageRendition.Spec spec : SPECS) {
+            ImageCompress.compress(source, tempDir.resolve("warm.jpg").toFile(), 0.75f, spec.getMaxWidth(), spec.getMaxHeight());
+        }
+
+        long start = System.nanoTime();
+        for (ImageRendition.Spec spec : SPECS) {
+            assertTrue(ImageCompress.compress(source, tempDir.resolve(spec.getName() + ".jpg").toFile(),
+                    0.75f, spec.getMaxWidth(), spec.getMaxHeight()));
+        }
+        long separateMillis = (System.nanoTime() - start) / 1_000_000;
+
+        start = System.nanoTime();
+        assertNotNull(ImageRendition.renditions(source, SPECS));
+        long ladderMillis = (System.nanoTime() - start) / 1_000_000;
+
+        System.out.println("单独压缩 3 次: " + separateMillis + " ms, 多尺寸一次输出: " + ladderMillis + " ms");
+    }
+
+    @Test
+    @DisplayName("测试无效输入")
+    void testInvalidInput() throws IOException {
+        assertNull(ImageRendition.renditions(tempDir.resolve("missing.jpg").toFile(), SPECS));
+        assertNull(ImageRendition.renditions(createImage("empty.jpg", 100, 100), List.of()));
+    }
+
+    private void assertSize(ImageRendition.Rendition rendition, int width, int height) {
+        assertEquals(width, rendition.getWidth(), rendition.getSpec().getName() + " 宽度");
+        assertEquals(height, rendition.getHeight(), rendition.getSpec().getName() + " 高度");
+    }
+
+    private File createImage(String name, int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, Color.ORANGE, width, height, Color.BLUE));
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+        File file = tempDir.resolve(name).toFile();
+        ImageIO.write(image, name.substring(name.lastIndexOf('.') + 1), file);
+        return file;
+    }
+
+}
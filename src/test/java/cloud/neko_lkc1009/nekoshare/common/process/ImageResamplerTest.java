@@ -0,0 +1,108 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ImageResampler 测试类
+ */
+class ImageResamplerTest {
+
+    @Test
+    @DisplayName("测试按缩放比例选择策略")
+    void testSelectStrategy() {
+        assertEquals(ImageResampler.Strategy.DIRECT, ImageResampler.selectStrategy(2000, 1500, 1440, 1080));
+        assertEquals(ImageResampler.Strategy.DIRECT, ImageResampler.selectStrategy(500, 400, 1000, 800));
+        assertEquals(ImageResampler.Strategy.PROGRESSIVE, ImageResampler.selectStrategy(3840, 2160, 1920, 1080));
+        assertEquals(ImageResampler.Strategy.FAST_PREPASS, ImageResampler.selectStrategy(12000, 6000, 1200, 600));
+    }
+
+    @Test
+    @DisplayName("测试各策略输出尺寸")
+    void testResampleDimensions() {
+        BufferedImage source = createGradientImage(3840, 2160);
+
+        for (ImageResampler.Strategy strategy : ImageResampler.Strategy.values()) {
+            BufferedImage result = ImageResampler.resample(source, 1000, 563, strategy);
+            assertEquals(1000, result.getWidth(), strategy + " 输出宽度应该等于目标宽度");
+            assertEquals(563, result.getHeight(), strategy + " 输出高度应该等于目标高度");
+        }
+    }
+
+    @Test
+    @DisplayName("测试尺寸相同时直接返回原图")
+    void testResampleSameSize() {
+        BufferedImage source = createGradientImage(640, 480);
+
+        assertSame(source, ImageResampler.resample(source, 640, 480), "尺寸相同时应该返回原图");
+    }
+
+    @Test
+    @DisplayName("测试逐级减半抑制混叠")
+    void testProgressiveReducesAliasing() {
+        // 单像素棋盘格按非整数比例缩小，理想结果为均匀灰色
+        BufferedImage checkerboard = new BufferedImage(1024, 1024, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 1024; y++) {
+            for (int x = 0; x < 1024; x++) {
+                checkerboard.setRGB(x, y, ((x + y) & 1) == 0 ? 0xFFFFFF : 0x000000);
+            }
+        }
+
+        double directDeviation = luminanceDeviation(
+                ImageResampler.resample(checkerboard, 300, 300, ImageResampler.Strategy.DIRECT));
+        double progressiveDeviation = luminanceDeviation(
+                ImageResampler.resample(checkerboard, 300, 300, ImageResampler.Strategy.PROGRESSIVE));
+
+        System.out.printf("棋盘格亮度标准差: DIRECT=%.2f, PROGRESSIVE=%.2f%n", directDeviation, progressiveDeviation);
+        assertTrue(progressiveDeviation < directDeviation, "逐级减半的混叠应该比单次插值更轻");
+    }
+
+    @Test
+    @DisplayName("测试 4K 到 1080p 各策略吞吐量")
+    void testStrategyThroughput() {
+        BufferedImage source = createGradientImage(3840, 2160);
+        int iterations = 5;
+
+        for (ImageResampler.Strategy strategy : ImageResampler.Strategy.values()) {
+            // 预热
+            ImageResampler.resample(source, 1920, 1080, strategy);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                ImageResampler.resample(source, 1920, 1080, strategy);
+            }
+            double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+            System.out.printf("%s: %.1f 张/秒%n", strategy, iterations / seconds);
+        }
+    }
+
+    private BufferedImage createGradientImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, Color.BLUE, width, height, Color.RED));
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+        return image;
+    }
+
+    private double luminanceDeviation(BufferedImage image) {
+        double sum = 0;
+        double sumSquares = 0;
+        int count = image.getWidth() * image.getHeight();
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int value = image.getRGB(x, y) & 0xFF;
+                sum += value;
+                sumSquares += (double) value * value;
+            }
+        }
+        double mean = sum / count;
+        return Math.sqrt(sumSquares / count - mean * mean);
+    }
+
+}
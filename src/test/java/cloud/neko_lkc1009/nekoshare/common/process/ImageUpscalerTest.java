@@ -0,0 +1,95 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ImageUpscaler 测试类
+ */
+class ImageUpscalerTest {
+
+    @Test
+    @DisplayName("测试放大倍数和透明通道")
+    void testScaleAndAlpha() {
+        BufferedImage source = new BufferedImage(37, 21, BufferedImage.TYPE_INT_ARGB);
+
+        for (int scale = 1; scale <= 4; scale++) {
+            BufferedImage output = ImageUpscaler.upscale(source, scale, 0);
+            assertEquals(37 * scale, output.getWidth());
+            assertEquals(21 * scale, output.getHeight());
+            assertTrue(output.getColorModel().hasAlpha());
+        }
+        assertThrows(IllegalArgumentException.class, () -> ImageUpscaler.upscale(source, 0, 0));
+    }
+
+    @Test
+    @DisplayName("测试分块大小不影响结果")
+    void testTilesMatchWholeImage() {
+        BufferedImage source = createNoise(97, 61);
+
+        BufferedImage whole = ImageUpscaler.upscale(source, 2, 100_000);
+        for (int tileSize : new int[]{7, 32, 50}) {
+            BufferedImage tiled = ImageUpscaler.upscale(source, 2, tileSize);
+            assertArrayEquals(pixels(whole), pixels(tiled), "分块大小 " + tileSize + " 的结果应该与整图一致");
+        }
+    }
+
+    @Test
+    @DisplayName("测试纯色图片放大后颜色不变")
+    void testSolidColorPreserved() {
+        BufferedImage source = new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = source.createGraphics();
+        g.setColor(new Color(200, 100, 50));
+        g.fillRect(0, 0, 40, 30);
+        g.dispose();
+
+        BufferedImage output = ImageUpscaler.upscale(source, 3, 16);
+        for (int pixel : pixels(output)) {
+            assertEquals(0xFFC86432, pixel);
+        }
+    }
+
+    @Test
+    @DisplayName("测试与单线程 Graphics2D 缩放的耗时对比")
+    void testCompareWithGraphics2D() {
+        BufferedImage source = createNoise(960, 540);
+        // 预热
+        ImageUpscaler.upscale(source, 2, 0);
+
+        long start = System.nanoTime();
+        ImageUpscaler.upscale(source, 2, 0);
+        long lanczosMillis = (System.nanoTime() - start) / 1_000_000;
+
+        start = System.nanoTime();
+        BufferedImage output = new BufferedImage(1920, 1080, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = output.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        g.drawImage(source, 0, 0, 1920, 1080, null);
+        g.dispose();
+        long graphicsMillis = (System.nanoTime() - start) / 1_000_000;
+
+        System.out.println("960x540 -> 1920x1080: Lanczos 并行 " + lanczosMillis + " ms, Graphics2D 双三次 " + graphicsMillis + " ms");
+    }
+
+    private BufferedImage createNoise(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+        return image;
+    }
+
+    private int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+}
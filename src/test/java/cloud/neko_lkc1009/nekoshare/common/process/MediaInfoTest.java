@@ -0,0 +1,158 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * MediaInfo 测试类
+ */
+class MediaInfoTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("测试解析 probe 的 JSON 输出")
+    void testProbe() throws Exception {
+        MediaInfo mediaInfo = mediaInfo(tempDir.resolve("count"));
+        Path input = Files.writeString(tempDir.resolve("input.mp4"), "video");
+
+        MediaInfo.Info info = mediaInfo.probe(input);
+
+        assertNotNull(info);
+        assertEquals("mov,mp4,m4a,3gp,3g2,mj2", info.getFormatName());
+        assertEquals(120.5, info.getDurationSeconds(), 1e-9);
+        assertEquals(2_500_000, info.getBitRate());
+        assertEquals(2, info.getStreams().size());
+        assertEquals("h264", info.getVideo().getCodecName());
+        assertEquals(1920, info.getVideo().getWidth());
+        assertEquals(1080, info.getVideo().getHeight());
+        assertEquals("yuv420p", info.getVideo().getPixelFormat());
+        assertEquals(30000.0 / 1001, info.getVideo().getFps(), 1e-9);
+        assertEquals("30000/1001", info.getVideo().getFrameRate());
+        assertEquals(3612, info.getFrameCount());
+        assertEquals("aac", info.getAudio().getCodecName());
+        assertEquals(48000, info.getAudio().getSampleRate());
+        assertTrue(info.hasAudio());
+        // 视频关键帧位于 0、2、4 秒，音频包不参与统计
+        assertEquals(2.0, info.getKeyframeIntervalSeconds(), 1e-9);
+        assertEquals(input.toAbsolutePath().toString(), info.getPath());
+        assertNull(info.getFaststart(), "不是 MP4 文件");
+    }
+
+    @Test
+    @DisplayName("测试缓存命中与文件变化后重新探测")
+    void testCache() throws Exception {
+        Path count = tempDir.resolve("count");
+        MediaInfo mediaInfo = mediaInfo(count);
+        Path input = Files.writeString(tempDir.resolve("input.mp4"), "video");
+
+        MediaInfo.Info first = mediaInfo.probe(input);
+        assertSame(first, mediaInfo.probe(input));
+        assertEquals(1, Files.readAllLines(count).size(), "相同文件只应运行一次 probe");
+        assertEquals(1, mediaInfo.getHits());
+        assertEquals(1, mediaInfo.getMisses());
+
+        Files.setLastModifiedTime(input, FileTime.fromMillis(Files.getLastModifiedTime(input).toMillis() + 10_000));
+        assertNotSame(first, mediaInfo.probe(input));
+        assertEquals(2, Files.readAllLines(count).size(), "修改时间变化后应重新探测");
+    }
+
+    @Test
+    @DisplayName("测试文件不存在或探测失败")
+    void testProbeFailure() throws Exception {
+        MediaInfo mediaInfo = mediaInfo(tempDir.resolve("count"));
+        assertNull(mediaInfo.probe(tempDir.resolve("missing.mp4")));
+
+        Path input = Files.writeString(tempDir.resolve("broken.mp4"), "broken");
+        assertNull(mediaInfo.probe(input));
+    }
+
+    @Test
+    @DisplayName("测试 faststart 检测")
+    void testDetectFaststart() throws Exception {
+        Path faststart = tempDir.resolve("faststart.mp4");
+        Files.write(faststart, concat(box("ftyp", 16), box("moov", 64), box("mdat", 256)));
+        assertTrue(MediaInfo.detectFaststart(faststart));
+
+        Path tail = tempDir.resolve("tail.mp4");
+        Files.write(tail, concat(box("ftyp", 16), box("free", 8), box("mdat", 256), box("moov", 64)));
+        assertFalse(MediaInfo.detectFaststart(tail));
+
+        assertNull(MediaInfo.detectFaststart(Files.writeString(tempDir.resolve("video.mkv"), "matroska")));
+    }
+
+    @Test
+    @DisplayName("测试帧率解析")
+    void testParseRate() {
+        assertEquals(25.0, MediaInfo.parseRate("25/1"), 1e-9);
+        assertEquals(29.97, MediaInfo.parseRate("30000/1001"), 1e-3);
+        assertEquals(0.0, MediaInfo.parseRate("0/0"), 1e-9);
+        assertEquals(0.0, MediaInfo.parseRate("N/A"), 1e-9);
+    }
+
+    private static byte[] box(String type, int size) {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(size);
+        buffer.put(type.getBytes(StandardCharsets.ISO_8859_1));
+        return buffer.array();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteBuffer buffer = ByteBuffer.allocate(Arrays.stream(parts).mapToInt(part -> part.length).sum());
+        for (byte[] part : parts) {
+            buffer.put(part);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * 使用模拟 probe：每次运行向计数文件追加一行；输入文件名含 broken 时失败
+     */
+    private MediaInfo mediaInfo(Path count) throws Exception {
+        Assumptions.assumeFalse(System.getProperty("os.name").toLowerCase().contains("win"), "需要 sh 环境");
+        Path script = tempDir.resolve("probe.sh");
+        Files.write(script, List.of(
+                "#!/bin/sh",
+                "for a; do last=\"$a\"; done",
+                "echo run >> '" + count + "'",
+                "case \"$last\" in *broken*) echo 'Invalid data found' >&2; exit 1;; esac",
+                "cat <<'EOF'",
+                "{",
+                "  \"packets\": [",
+                "    { \"stream_index\": 0, \"pts_time\": \"0.000000\", \"flags\": \"K__\" },",
+                "    { \"stream_index\": 1, \"pts_time\": \"0.500000\", \"flags\": \"K__\" },",
+                "    { \"stream_index\": 0, \"pts_time\": \"1.000000\", \"flags\": \"___\" },",
+                "    { \"stream_index\": 0, \"pts_time\": \"2.000000\", \"flags\": \"K__\" },",
+                "    { \"stream_index\": 0, \"pts_time\": \"4.000000\", \"flags\": \"K__\" }",
+                "  ],",
+                "  \"streams\": [",
+                "    { \"index\": 0, \"codec_name\": \"h264\", \"codec_type\": \"video\", \"width\": 1920, \"height\": 1080, \"pix_fmt\": \"yuv420p\",",
+                "      \"r_frame_rate\": \"30000/1001\", \"avg_frame_rate\": \"30000/1001\", \"duration\": \"120.500000\", \"nb_frames\": \"3612\" },",
+                "    { \"index\": 1, \"codec_name\": \"aac\", \"codec_type\": \"audio\", \"sample_rate\": \"48000\", \"channels\": 2,",
+                "      \"r_frame_rate\": \"0/0\", \"avg_frame_rate\": \"0/0\", \"bit_rate\": \"128000\" }",
+                "  ],",
+                "  \"format\": { \"format_name\": \"mov,mp4,m4a,3gp,3g2,mj2\", \"duration\": \"120.500000\", \"bit_rate\": \"2500000\" }",
+                "}",
+                "EOF",
+                ""));
+        assertTrue(script.toFile().setExecutable(true));
+        MediaInfo mediaInfo = new MediaInfo();
+        ReflectionTestUtils.setField(mediaInfo, "probePath", script.toString());
+        return mediaInfo;
+    }
+
+}
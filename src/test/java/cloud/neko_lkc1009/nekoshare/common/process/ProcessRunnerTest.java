@@ -0,0 +1,115 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ProcessRunner 测试类
+ */
+class ProcessRunnerTest {
+
+    private final ProcessRunner processRunner = new ProcessRunner(2);
+
+    @BeforeEach
+    void setUp() {
+        Assumptions.assumeFalse(System.getProperty("os.name").toLowerCase().contains("win"), "需要 sh 环境");
+    }
+
+    @Test
+    @DisplayName("测试逐行回调与最后若干行输出")
+    void testLineHandlerAndTail() throws Exception {
+        List<String> lines = new CopyOnWriteArrayList<>();
+        ProcessRunner.ProcessSpec spec = new ProcessRunner.ProcessSpec(
+                List.of("sh", "-c", "for i in 1 2 3 4 5; do echo line$i; done; echo error >&2"), "test");
+        spec.setTailLines(2);
+        spec.setLineHandler(lines::add);
+
+        ProcessRunner.ProcessResult result = processRunner.execute(spec).get(10, TimeUnit.SECONDS);
+
+        assertTrue(result.isSuccess());
+        assertEquals(List.of("line1", "line2", "line3", "line4", "line5", "error"), lines);
+        assertEquals(List.of("line5", "error"), result.getOutputTail());
+    }
+
+    @Test
+    @DisplayName("测试非零退出码")
+    void testExitCode() throws IOException {
+        ProcessRunner.ProcessResult result = processRunner.run(
+                new ProcessRunner.ProcessSpec(List.of("sh", "-c", "exit 3"), "test"));
+
+        assertEquals(3, result.getExitCode());
+        assertFalse(result.isSuccess());
+        assertFalse(result.isTimedOut());
+    }
+
+    @Test
+    @DisplayName("测试超时结束整个进程树")
+    void testTimeoutKillsProcessTree() throws Exception {
+        List<String> lines = new CopyOnWriteArrayList<>();
+        ProcessRunner.ProcessSpec spec = new ProcessRunner.ProcessSpec(
+                List.of("sh", "-c", "sleep 60 & echo $!; wait"), "test");
+        spec.setTimeoutMillis(300);
+        spec.setLineHandler(lines::add);
+
+        long start = System.nanoTime();
+        ProcessRunner.ProcessResult result = processRunner.execute(spec).get(10, TimeUnit.SECONDS);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        System.out.println("超时返回耗时: " + elapsed + " ms");
+        assertTrue(result.isTimedOut());
+        assertFalse(result.isSuccess());
+        assertTrue(elapsed < 5000, "应该在超时后立即返回");
+        assertTerminated(Long.parseLong(lines.get(0).trim()));
+    }
+
+    @Test
+    @DisplayName("测试取消时结束整个进程树")
+    void testCancelKillsProcessTree() throws Exception {
+        List<String> lines = new CopyOnWriteArrayList<>();
+        ProcessRunner.ProcessSpec spec = new ProcessRunner.ProcessSpec(
+                List.of("sh", "-c", "sleep 60 & echo $!; wait"), "test");
+        spec.setLineHandler(lines::add);
+
+        CompletableFuture<ProcessRunner.ProcessResult> future = processRunner.execute(spec);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (lines.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(lines.isEmpty(), "子进程应该已经启动");
+        assertTrue(future.cancel(true));
+
+        assertTerminated(Long.parseLong(lines.get(0).trim()));
+    }
+
+    @Test
+    @DisplayName("测试可执行文件不存在")
+    void testMissingExecutable() {
+        ProcessRunner.ProcessSpec spec = new ProcessRunner.ProcessSpec(List.of("nekoshare-no-such-command"), "test");
+
+        assertThrows(IOException.class, () -> processRunner.run(spec));
+        assertTrue(processRunner.execute(spec).isCompletedExceptionally());
+    }
+
+    private static void assertTerminated(long pid) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (isAlive(pid) && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertFalse(isAlive(pid), "子进程应该被结束");
+    }
+
+    private static boolean isAlive(long pid) {
+        return ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false);
+    }
+
+}
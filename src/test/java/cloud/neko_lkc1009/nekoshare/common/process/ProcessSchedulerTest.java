@@ -0,0 +1,168 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ProcessScheduler 测试类
+ */
+class ProcessSchedulerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ProcessScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        Assumptions.assumeFalse(System.getProperty("os.name").toLowerCase().contains("win"), "需要 sh 环境");
+        scheduler = new ProcessScheduler(new ProcessRunner(4), Map.of("tool", 1), 2, 8);
+    }
+
+    @Test
+    @DisplayName("测试执行槽限制同时运行的进程数")
+    void testSlotsLimitConcurrency() throws Exception {
+        List<CompletableFuture<ProcessRunner.ProcessResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(scheduler.execute(spec("sleep 0.2", null, 0)));
+        }
+
+        ProcessScheduler.ToolStats running = scheduler.getStats().get("tool");
+        assertEquals(1, running.getRunning());
+        assertEquals(2, running.getQueued());
+
+        for (CompletableFuture<ProcessRunner.ProcessResult> future : futures) {
+            assertTrue(future.get(10, TimeUnit.SECONDS).isSuccess());
+        }
+        ProcessScheduler.ToolStats stats = scheduler.getStats().get("tool");
+        System.out.println("平均等待: " + stats.getAverageWaitMillis() + " ms, 最长等待: " + stats.getMaxWaitMillis() + " ms");
+        assertEquals(3, stats.getCompleted());
+        assertEquals(0, stats.getRunning());
+        assertTrue(stats.getMaxWaitMillis() >= 300, "第三个进程应该等待前两个结束");
+    }
+
+    @Test
+    @DisplayName("测试优先级和请求方轮转")
+    void testPriorityAndOwnerFairness() throws Exception {
+        Path order = tempDir.resolve("order.log");
+        CompletableFuture<ProcessRunner.ProcessResult> blocker = scheduler.execute(spec("sleep 0.3", null, 0));
+
+        List<CompletableFuture<ProcessRunner.ProcessResult>> futures = new ArrayList<>();
+        futures.add(scheduler.execute(spec("echo A1 >> '" + order + "'", "a", 0)));
+        futures.add(scheduler.execute(spec("echo A2 >> '" + order + "'", "a", 0)));
+        futures.add(scheduler.execute(spec("echo A3 >> '" + order + "'", "a", 0)));
+        futures.add(scheduler.execute(spec("echo B1 >> '" + order + "'", "b", 0)));
+        futures.add(scheduler.execute(spec("echo C1 >> '" + order + "'", "c", 5)));
+
+        assertTrue(blocker.get(10, TimeUnit.SECONDS).isSuccess());
+        for (CompletableFuture<ProcessRunner.ProcessResult> future : futures) {
+            assertTrue(future.get(10, TimeUnit.SECONDS).isSuccess());
+        }
+        assertEquals(List.of("C1", "A1", "B1", "A2", "A3"), Files.readAllLines(order));
+    }
+
+    @Test
+    @DisplayName("测试队列已满时立即拒绝")
+    void testRejectWhenQueueFull() throws Exception {
+        scheduler = new ProcessScheduler(new ProcessRunner(4), Map.of("tool", 1), 2, 1);
+        CompletableFuture<ProcessRunner.ProcessResult> running = scheduler.execute(spec("sleep 0.3", null, 0));
+        CompletableFuture<ProcessRunner.ProcessResult> queued = scheduler.execute(spec("true", null, 0));
+        CompletableFuture<ProcessRunner.ProcessResult> rejected = scheduler.execute(spec("true", null, 0));
+
+        assertTrue(rejected.isCompletedExceptionally(), "应该立即失败");
+        ExecutionException error = assertThrows(ExecutionException.class, rejected::get);
+        assertTrue(error.getCause() instanceof RejectedExecutionException);
+        assertTrue(error.getCause().getMessage().contains("队列已满"));
+        assertThrows(RejectedExecutionException.class, () -> scheduler.run(spec("true", null, 0)));
+
+        assertTrue(running.get(10, TimeUnit.SECONDS).isSuccess());
+        assertTrue(queued.get(10, TimeUnit.SECONDS).isSuccess());
+        assertEquals(2, scheduler.getStats().get("tool").getRejected());
+    }
+
+    @Test
+    @DisplayName("测试取消排队中的请求")
+    void testCancelQueued() throws Exception {
+        Path marker = tempDir.resolve("marker");
+        CompletableFuture<ProcessRunner.ProcessResult> running = scheduler.execute(spec("sleep 0.2", null, 0));
+        CompletableFuture<ProcessRunner.ProcessResult> queued = scheduler.execute(spec("touch '" + marker + "'", null, 0));
+
+        assertTrue(queued.cancel(true));
+        assertEquals(0, scheduler.getStats().get("tool").getQueued());
+
+        assertTrue(running.get(10, TimeUnit.SECONDS).isSuccess());
+        assertTrue(scheduler.execute(spec("true", null, 0)).get(10, TimeUnit.SECONDS).isSuccess());
+        assertFalse(Files.exists(marker), "取消的请求不应该执行");
+    }
+
+    @Test
+    @DisplayName("测试任务整体占用执行槽")
+    void testRunJobHoldsSlot() throws Exception {
+        CompletableFuture<Void> release = new CompletableFuture<>();
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> runJob(() -> {
+            release.join();
+            return "first";
+        }));
+        waitUntil(() -> toolStats().getRunning() == 1);
+
+        // 任务返回前执行槽一直被占用，进程只能排队
+        CompletableFuture<ProcessRunner.ProcessResult> process = scheduler.execute(spec("true", null, 0));
+        CompletableFuture<String> second = CompletableFuture.supplyAsync(() -> runJob(() -> "second"));
+        waitUntil(() -> toolStats().getQueued() == 2);
+        assertFalse(process.isDone());
+
+        release.complete(null);
+        assertEquals("first", first.get(10, TimeUnit.SECONDS));
+        assertTrue(process.get(10, TimeUnit.SECONDS).isSuccess());
+        assertEquals("second", second.get(10, TimeUnit.SECONDS));
+        waitUntil(() -> toolStats().getRunning() == 0);
+        assertEquals(3, scheduler.getStats().get("tool").getCompleted());
+    }
+
+    private String runJob(ProcessScheduler.Job<String> job) {
+        try {
+            return scheduler.runJob("tool", 0, null, job);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 执行槽分组在首次提交时创建，之前返回空统计
+     */
+    private ProcessScheduler.ToolStats toolStats() {
+        return scheduler.getStats().getOrDefault("tool", new ProcessScheduler.ToolStats());
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "等待超时");
+            Thread.sleep(10);
+        }
+    }
+
+    private static ProcessRunner.ProcessSpec spec(String script, String owner, int priority) {
+        ProcessRunner.ProcessSpec spec = new ProcessRunner.ProcessSpec(List.of("sh", "-c", script), "tool");
+        spec.setOwner(owner);
+        spec.setPriority(priority);
+        return spec;
+    }
+
+}
@@ -0,0 +1,101 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * SingleFlight 测试类
+ */
+class SingleFlightTest {
+
+    @Test
+    @DisplayName("测试并发调用相同键只执行一次")
+    void testConcurrentCallsShareResult() throws Exception {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> singleFlight.execute("key", () -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    return calls.incrementAndGet();
+                })));
+            }
+            Thread.sleep(200);
+            release.countDown();
+            for (Future<Integer> future : futures) {
+                assertEquals(1, future.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, calls.get());
+        assertEquals(1, singleFlight.getExecutions());
+        assertEquals(7, singleFlight.getCoalesced());
+        assertEquals(0, singleFlight.getInFlight());
+    }
+
+    @Test
+    @DisplayName("测试不同键分别执行，结束后重新执行")
+    void testDistinctKeysAndSequentialCalls() throws IOException {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+
+        assertEquals("a", singleFlight.execute("a", () -> "a"));
+        assertEquals("b", singleFlight.execute("b", () -> "b"));
+        assertEquals("a2", singleFlight.execute("a", () -> "a2"));
+
+        assertEquals(3, singleFlight.getExecutions());
+        assertEquals(0, singleFlight.getCoalesced());
+    }
+
+    @Test
+    @DisplayName("测试异常传递给等待的调用，之后可以重试")
+    void testExceptionIsSharedAndKeyReleased() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> leader = executor.submit(() -> singleFlight.execute("key", () -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                throw new IOException("生成失败");
+            }));
+            started.await();
+            Future<String> follower = executor.submit(() -> singleFlight.execute("key", () -> "unexpected"));
+            Thread.sleep(100);
+            release.countDown();
+
+            ExecutionException leaderError = assertThrows(ExecutionException.class, () -> leader.get(10, TimeUnit.SECONDS));
+            ExecutionException followerError = assertThrows(ExecutionException.class, () -> follower.get(10, TimeUnit.SECONDS));
+            assertEquals("生成失败", leaderError.getCause().getMessage());
+            assertSame(leaderError.getCause(), followerError.getCause(), "等待的调用应该收到同一异常");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals("retry", singleFlight.execute("key", () -> "retry"));
+    }
+
+}
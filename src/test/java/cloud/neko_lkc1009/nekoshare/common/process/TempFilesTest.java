@@ -0,0 +1,40 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * TempFiles 测试类
+ */
+class TempFilesTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("测试删除目录并返回删除的文件总大小")
+    void testDeleteDirectory() throws IOException {
+        Path directory = tempDir.resolve("work");
+        Files.createDirectories(directory.resolve("sub"));
+        Files.write(directory.resolve("a.bin"), new byte[100]);
+        Files.write(directory.resolve("sub/b.bin"), new byte[23]);
+
+        assertEquals(123, TempFiles.deleteDirectory(directory));
+        assertFalse(Files.exists(directory));
+    }
+
+    @Test
+    @DisplayName("测试目录不存在或为 null 时直接返回")
+    void testDeleteMissingDirectory() {
+        assertEquals(0, TempFiles.deleteDirectory(tempDir.resolve("missing")));
+        assertEquals(0, TempFiles.deleteDirectory(null));
+    }
+
+}
@@ -1,9 +1,20 @@
 package cloud.neko_lkc1009.nekoshare.common.process;
 
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
 
 public class VideoCompressTest {
+    @TempDir
+    Path tempDir;
+
     @Test
     void testFfmpegAvailability() {
         VideoCompress vc = new VideoCompress();
@@ -29,4 +40,227 @@ public class VideoCompressTest {
         Assertions.assertFalse(result);
     }
 
+    @Test
+    void testSegmentCommands() {
+        VideoCompress vc = new VideoCompress();
+        ReflectionTestUtils.setField(vc, "ffmpegPath", "ffmpeg");
+        VideoCompress.CompressConfig cfg = new VideoCompress.CompressConfig();
+        cfg.setSegmentSeconds(10);
+
+        String split = String.join(" ", vc.buildSplitCommand("in.mp4", "work", cfg));
+        Assertions.assertTrue(split.contains("-map 0:v:0 -c copy -f segment -segment_time 10"));
+
+        List<String> segment = vc.buildSegmentCommand("seg_00000.mkv", "enc_00000.mkv", 4, cfg);
+        Assertions.assertTrue(segment.contains("-an"));
+        Assertions.assertTrue(String.join(" ", segment).contains("-crf 23 -preset medium"));
+        Assertions.assertTrue(String.join(" ", segment).contains("-threads 4"));
+
+        String concat = String.join(" ", vc.buildConcatCommand("list.txt", "audio.mka", "out.mp4"));
+        Assertions.assertTrue(concat.contains("-f concat -i list.txt -i audio.mka -map 0:v -map 1:a -c copy out.mp4"));
+        Assertions.assertFalse(String.join(" ", vc.buildConcatCommand("list.txt", null, "out.mp4")).contains("1:a"));
+    }
+
+    @Test
+    void testSegmentedFasterThanSingleProcess() throws Exception {
+        Assumptions.assumeFalse(System.getProperty("os.name").toLowerCase().contains("win"), "需要 sh 环境");
+        // 模拟 ffmpeg：切分为 4 段；编码耗时与输入大小成正比；拼接时按列表顺序连接分段和音频
+        Path script = tempDir.resolve("ffmpeg.sh");
+        Files.write(script, List.of(
+                "#!/bin/sh",
+                "for a; do last=\"$a\"; done",
+                "while [ $# -gt 0 ]; do",
+                "  case \"$1\" in",
+                "    -i) [ -z \"$in\" ] && in=\"$2\"; shift;;",
+                "    -f) fmt=\"$2\"; shift;;",
+                "    -map) [ \"$2\" = 0:a:0 ] && audio=1; [ \"$2\" = 1:a ] && withAudio=1; shift;;",
+                "  esac",
+                "  shift",
+                "done",
+                "if [ \"$fmt\" = segment ]; then",
+                "  for i in 0 1 2 3; do printf \"v$i\" > \"$(dirname \"$last\")/seg_0000$i.mkv\"; done",
+                "elif [ -n \"$audio\" ]; then",
+                "  printf a > \"$last\"",
+                "elif [ \"$fmt\" = concat ]; then",
+                "  dir=$(dirname \"$in\"); : > \"$last\"",
+                "  for f in $(sed -n \"s/^file '\\(.*\\)'$/\\1/p\" \"$in\"); do cat \"$dir/$f\" >> \"$last\"; done",
+                "  [ -n \"$withAudio\" ] && cat \"$dir/audio.mka\" >> \"$last\"",
+                "else",
+                "  sleep $(awk \"BEGIN { print $(wc -c < \"$in\") * 0.15 }\")",
+                "  cp \"$in\" \"$last\"",
+                "fi",
+                ""));
+        Assertions.assertTrue(script.toFile().setExecutable(true));
+
+        VideoCompress vc = new VideoCompress();
+        ReflectionTestUtils.setField(vc, "ffmpegPath", script.toString());
+        Path input = Files.writeString(tempDir.resolve("input.mp4"), "v0v1v2v3");
+
+        VideoCompress.CompressConfig cfg = new VideoCompress.CompressConfig();
+        long start = System.nanoTime();
+        Assertions.assertTrue(vc.compress(input.toString(), tempDir.resolve("single.mp4").toString(), cfg));
+        long singleMillis = (System.nanoTime() - start) / 1_000_000;
+
+        cfg.setSegmented(true);
+        cfg.setParallelSegments(4);
+        start = System.nanoTime();
+        Assertions.assertTrue(vc.compress(input.toString(), tempDir.resolve("segmented.mp4").toString(), cfg));
+        long segmentedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        System.out.println("单进程: " + singleMillis + " ms, 分段并行: " + segmentedMillis + " ms");
+        Assertions.assertEquals("v0v1v2v3", Files.readString(tempDir.resolve("single.mp4")));
+        Assertions.assertEquals("v0v1v2v3a", Files.readString(tempDir.resolve("segmented.mp4")));
+        Assertions.assertTrue(segmentedMillis < singleMillis, "4 个分段应该同时编码");
+    }
+
+    @Test
+    void testSegmentParallelismLimitedBySlots() {
+        VideoCompress vc = new VideoCompress();
+        VideoCompress.CompressConfig cfg = new VideoCompress.CompressConfig();
+        cfg.setParallelSegments(8);
+        Assertions.assertEquals(8, vc.segmentParallelism(cfg, 10));
+        Assertions.assertEquals(3, vc.segmentParallelism(cfg, 3));
+
+        // 调度器只有 2 个 ffmpeg 执行槽时最多同时编码 2 段
+        ProcessScheduler scheduler = new ProcessScheduler(ProcessRunner.shared(), Map.of("ffmpeg", 2), 2, 16);
+        ReflectionTestUtils.setField(vc, "processScheduler", scheduler);
+        Assertions.assertEquals(2, vc.segmentParallelism(cfg, 10));
+        Assertions.assertEquals(1, vc.segmentParallelism(cfg, 1));
+    }
+
+    @Test
+    void testPassthroughDecision() {
+        VideoCompress.CompressConfig cfg = new VideoCompress.CompressConfig();
+
+        MediaInfo.Info compliant = info("h264", "yuv420p", 1280, 720, 2_000_000);
+        compliant.setFaststart(true);
+        Assertions.assertEquals(VideoCompress.Decision.SKIP, VideoCompress.decide(compliant, "out.mp4", cfg));
+        // 封装不同或缺少 faststart 时只重新封装
+        Assertions.assertEquals(VideoCompress.Decision.REMUX, VideoCompress.decide(compliant, "out.mkv", cfg));
+        compliant.setFaststart(false);
+        Assertions.assertEquals(VideoCompress.Decision.REMUX, VideoCompress.decide(compliant, "out.mp4", cfg));
+
+        Assertions.assertEquals(VideoCompress.Decision.TRANSCODE,
+                VideoCompress.decide(info("hevc", "yuv420p", 1280, 720, 2_000_000), "out.mp4", cfg));
+        Assertions.assertEquals(VideoCompress.Decision.TRANSCODE,
+                VideoCompress.decide(info("h264", "yuv420p10le", 1280, 720, 2_000_000), "out.mp4", cfg));
+        Assertions.assertEquals(VideoCompress.Decision.TRANSCODE,
+                VideoCompress.decide(info("h264", "yuv420p", 3840, 2160, 2_000_000), "out.mp4", cfg));
+
+        // CRF 模式下码率远高于按分辨率和 CRF 估算的上限时重新编码
+        MediaInfo.Info highBitrate = info("h264", "yuv420p", 1920, 1080, 40_000_000);
+        highBitrate.getVideo().setFps(30);
+        highBitrate.setFaststart(true);
+        Assertions.assertEquals(VideoCompress.Decision.TRANSCODE, VideoCompress.decide(highBitrate, "out.mp4", cfg));
+        Assertions.assertEquals(VideoCompress.Decision.TRANSCODE,
+                VideoCompress.decide(info("h264", "yuv420p", 1280, 720, 0), "out.mp4", cfg), "码率未知时重新编码");
+        cfg.setCrf(18);
+        Assertions.assertEquals(VideoCompress.Decision.REMUX, VideoCompress.decide(compliant, "out.mp4", cfg));
+        cfg.setCrf(35);
+        Assertions.assertEquals(VideoCompress.Decision.TRANSCODE, VideoCompress.decide(compliant, "out.mp4", cfg));
+        cfg.setPassthroughBitsPerPixel(0.0);
+        Assertions.assertEquals(VideoCompress.Decision.SKIP, VideoCompress.decide(highBitrate, "out.mp4", cfg));
+        cfg.setCrf(23);
+        cfg.setPassthroughBitsPerPixel(0.1);
+
+        cfg.setTargetBitrateKbps(1500);
+        Assertions.assertEquals(VideoCompress.Decision.TRANSCODE, VideoCompress.decide(compliant, "out.mp4", cfg));
+        cfg.setTargetBitrateKbps(2500);
+        Assertions.assertEquals(VideoCompress.Decision.REMUX, VideoCompress.decide(compliant, "out.mp4", cfg));
+    }
+
+    @Test
+    void testRemuxCommand() {
+        VideoCompress vc = new VideoCompress();
+        ReflectionTestUtils.setField(vc, "ffmpegPath", "ffmpeg");
+        Assertions.assertEquals("ffmpeg -y -i in.mkv -map 0:v:0 -map 0:a:0? -c copy -movflags +faststart out.mp4",
+                String.join(" ", vc.buildRemuxCommand("in.mkv", "out.mp4")));
+        Assertions.assertFalse(vc.buildRemuxCommand("in.mp4", "out.mkv").contains("-movflags"));
+    }
+
+    @Test
+    void testHlsCommand() {
+        VideoCompress vc = new VideoCompress();
+        ReflectionTestUtils.setField(vc, "ffmpegPath", "ffmpeg");
+        VideoCompress.CompressConfig cfg = new VideoCompress.CompressConfig();
+        List<VideoCompress.Rendition> ladder = List.of(
+                new VideoCompress.Rendition("720p", 1280, 720, 2800),
+                new VideoCompress.Rendition("360p", 640, 360, 800));
+
+        List<String> cmd = vc.buildHlsCommand("in.mp4", "out", ladder, true, cfg);
+        String joined = String.join(" ", cmd);
+        // 只有一个输入，画面由 split 分给各档位
+        Assertions.assertEquals(1, cmd.stream().filter("-i"::equals).count());
+        Assertions.assertTrue(cmd.get(cmd.indexOf("-filter_complex") + 1).startsWith("[0:v]split=2[s0][s1];[s0]scale="));
+        Assertions.assertTrue(joined.contains("-map [v0] -map 0:a:0 -map [v1] -map 0:a:0"));
+        Assertions.assertTrue(joined.contains("-b:v:0 2800k") && joined.contains("-b:v:1 800k"));
+        Assertions.assertTrue(joined.contains("-force_key_frames expr:gte(t,n_forced*6)"));
+        Assertions.assertEquals("v:0,a:0,name:720p v:1,a:1,name:360p", cmd.get(cmd.indexOf("-var_stream_map") + 1));
+
+        List<String> silent = vc.buildHlsCommand("in.mp4", "out", ladder, false, cfg);
+        Assertions.assertFalse(silent.contains("0:a:0"));
+        Assertions.assertEquals("v:0,name:720p v:1,name:360p", silent.get(silent.indexOf("-var_stream_map") + 1));
+    }
+
+    @Test
+    void testSelectRenditions() {
+        // 1280x720 的源：1080p 档位与原分辨率重复，由 720p 档位代替
+        List<VideoCompress.Rendition> selected = VideoCompress.selectRenditions(VideoCompress.defaultLadder(),
+                info("h264", "yuv420p", 1280, 720, 0));
+        Assertions.assertEquals(List.of("720p", "480p", "360p"), selected.stream().map(VideoCompress.Rendition::getName).toList());
+
+        // 1000x600 的源：保留 720p 档位输出原分辨率
+        selected = VideoCompress.selectRenditions(VideoCompress.defaultLadder(), info("h264", "yuv420p", 1000, 600, 0));
+        Assertions.assertEquals(List.of("720p", "480p", "360p"), selected.stream().map(VideoCompress.Rendition::getName).toList());
+
+        Assertions.assertEquals(4, VideoCompress.selectRenditions(VideoCompress.defaultLadder(), null).size());
+    }
+
+    @Test
+    void testHlsOutput() throws Exception {
+        VideoCompress vc = new VideoCompress();
+        ReflectionTestUtils.setField(vc, "ffmpegPath", "ffmpeg");
+        Assumptions.assumeTrue(vc.isFfmpegAvailable(), "需要安装 ffmpeg");
+
+        Path input = tempDir.resolve("input.mp4");
+        Process process = new ProcessBuilder("ffmpeg", "-y", "-v", "error",
+                "-f", "lavfi", "-i", "testsrc=duration=5:size=640x360:rate=25",
+                "-f", "lavfi", "-i", "sine=duration=5",
+                "-c:v", "libx264", "-c:a", "aac", "-shortest", input.toString())
+                .redirectErrorStream(true).start();
+        process.getInputStream().transferTo(System.out);
+        Assertions.assertEquals(0, process.waitFor());
+
+        VideoCompress.CompressConfig cfg = new VideoCompress.CompressConfig();
+        cfg.setPreset("ultrafast");
+        cfg.setHlsSegmentSeconds(2);
+        Path output = tempDir.resolve("hls");
+        Assertions.assertTrue(vc.compressHls(input.toString(), output.toString(), List.of(
+                new VideoCompress.Rendition("360p", 640, 360, 800),
+                new VideoCompress.Rendition("180p", 320, 180, 200)), cfg));
+
+        String master = Files.readString(output.resolve("master.m3u8"));
+        System.out.println(master);
+        Assertions.assertEquals(2, master.split("#EXT-X-STREAM-INF").length - 1);
+        Assertions.assertTrue(master.contains("RESOLUTION=640x360") && master.contains("RESOLUTION=320x180"));
+        for (String name : List.of("360p", "180p")) {
+            String playlist = Files.readString(output.resolve(name).resolve("index.m3u8"));
+            Assertions.assertTrue(playlist.contains("#EXT-X-ENDLIST"));
+            Assertions.assertTrue(Files.exists(output.resolve(name).resolve("seg_00000.ts")));
+        }
+    }
+
+    private static MediaInfo.Info info(String codec, String pixelFormat, int width, int height, long bitRate) {
+        MediaInfo.StreamInfo video = new MediaInfo.StreamInfo();
+        video.setCodecType("video");
+        video.setCodecName(codec);
+        video.setPixelFormat(pixelFormat);
+        video.setWidth(width);
+        video.setHeight(height);
+        video.setBitRate(bitRate);
+        MediaInfo.Info info = new MediaInfo.Info();
+        info.setFormatName("mov,mp4,m4a,3gp,3g2,mj2");
+        info.getStreams().add(video);
+        return info;
+    }
+
 }
@@ -2,8 +2,19 @@ package cloud.neko_lkc1009.nekoshare.common.process;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class VideoPromoteTest {
+    @TempDir
+    Path tempDir;
+
     @Test
     void testAvailabilityChecks() {
         VideoPromote vp = new VideoPromote();
@@ -33,4 +44,55 @@ public class VideoPromoteTest {
         Assertions.assertFalse(result);
     }
 
+    @Test
+    void testSegmentCommandKeepsRationalFrameRate() {
+        VideoPromote vp = new VideoPromote();
+        String segment = String.join(" ", vp.buildSegmentCommand("frames", "seg.mkv", "30000/1001", new VideoPromote.PromoteConfig()));
+        // 29.97 不能取整为 30，否则画面会与复用的原音频逐渐错位
+        Assertions.assertTrue(segment.contains("-framerate 30000/1001"));
+    }
+
+    @Test
+    void testSameWorkDirWaits() throws Exception {
+        VideoPromote vp = new VideoPromote();
+        Path workDir = tempDir.resolve(VideoPromote.WORK_DIR_PREFIX + "job");
+        ReentrantLock first = vp.lockWorkDir(workDir);
+
+        // 相同任务等待前一个完成，而不是直接失败
+        CompletableFuture<Boolean> second = CompletableFuture.supplyAsync(() -> {
+            ReentrantLock lock = vp.lockWorkDir(workDir);
+            vp.unlockWorkDir(workDir, lock);
+            return lock != null;
+        });
+        Thread.sleep(200);
+        Assertions.assertFalse(second.isDone(), "前一个任务完成前应该等待");
+        vp.unlockWorkDir(workDir, first);
+        Assertions.assertTrue(second.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testCleanupStaleWorkDirs() throws Exception {
+        VideoPromote vp = new VideoPromote();
+        Path stale = Files.createDirectories(tempDir.resolve(VideoPromote.WORK_DIR_PREFIX + "stale"));
+        Files.writeString(stale.resolve("manifest.properties"), "chunkFrames=64");
+        Files.setLastModifiedTime(stale, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(100)));
+        Path recent = Files.createDirectories(tempDir.resolve(VideoPromote.WORK_DIR_PREFIX + "recent"));
+        Path busy = Files.createDirectories(tempDir.resolve(VideoPromote.WORK_DIR_PREFIX + "busy"));
+        Files.setLastModifiedTime(busy, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(100)));
+        Path other = Files.createDirectories(tempDir.resolve("other"));
+        Files.setLastModifiedTime(other, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(100)));
+
+        ReentrantLock lock = vp.lockWorkDir(busy);
+        try {
+            vp.cleanupStaleWorkDirs(tempDir);
+        } finally {
+            vp.unlockWorkDir(busy, lock);
+        }
+
+        Assertions.assertFalse(Files.exists(stale), "超过保留时间的工作目录应该删除");
+        Assertions.assertTrue(Files.exists(recent));
+        Assertions.assertTrue(Files.exists(busy), "正在使用的工作目录不应该删除");
+        Assertions.assertTrue(Files.exists(other), "其他目录不应该删除");
+    }
+
 }
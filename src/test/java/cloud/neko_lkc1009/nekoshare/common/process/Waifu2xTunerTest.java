@@ -0,0 +1,142 @@
+package cloud.neko_lkc1009.nekoshare.common.process;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Waifu2xTuner 测试类
+ * 使用模拟 waifu2x 的脚本，分块大小为 200 且线程布局为 1:4:2 时最快，-g -1 时失败
+ */
+class Waifu2xTunerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path script;
+    private Path sample;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Assumptions.assumeFalse(System.getProperty("os.name").toLowerCase().contains("win"), "需要 sh 环境");
+        script = tempDir.resolve("fake-waifu2x.sh");
+        Files.writeString(script, String.join("\n",
+                "#!/bin/sh",
+                "while [ $# -gt 0 ]; do",
+                "  case \"$1\" in",
+                "    -i) in=\"$2\"; shift;;",
+                "    -o) out=\"$2\"; shift;;",
+                "    -t) tile=\"$2\"; shift;;",
+                "    -j) threads=\"$2\"; shift;;",
+                "    -g) gpu=\"$2\"; shift;;",
+                "  esac",
+                "  shift",
+                "done",
+                "[ \"$gpu\" = \"-1\" ] && exit 1",
+                "if [ \"$tile\" = \"200\" ] && [ \"$threads\" = \"1:4:2\" ]; then sleep 0.05; else sleep 0.3; fi",
+                "for f in \"$in\"/*; do name=$(basename \"$f\"); cp \"$f\" \"$out/${name%.*}.png\"; done",
+                ""));
+        assertTrue(script.toFile().setExecutable(true));
+        sample = Files.writeString(tempDir.resolve("sample.png"), "sample");
+    }
+
+    @Test
+    @DisplayName("测试调优选出吞吐量最高的组合并按主机保存")
+    void testCalibrateSelectsFastestAndPersists() {
+        Path profilePath = tempDir.resolve("profiles/waifu2x.properties");
+        Waifu2xTuner tuner = new Waifu2xTuner(script.toString(), "", profilePath);
+
+        Waifu2xTuner.Grid grid = new Waifu2xTuner.Grid();
+        grid.setTileSizes(List.of(0, 200));
+        grid.setThreads(List.of("1:2:2", "1:4:2"));
+        grid.setGpuIds(Arrays.asList(null, -1));
+        grid.setSamples(2);
+        Waifu2xTuner.Profile profile = tuner.calibrate(sample, grid);
+
+        assertNotNull(profile);
+        assertEquals(200, profile.getTileSize());
+        assertEquals("1:4:2", profile.getThreads());
+        assertNull(profile.getGpuId(), "CPU 模式运行失败，应该使用默认设备");
+        assertTrue(Files.exists(profilePath));
+
+        Waifu2xTuner reloaded = new Waifu2xTuner(script.toString(), "", profilePath);
+        Waifu2xTuner.Profile loaded = reloaded.getProfile();
+        assertNotNull(loaded, "应该从文件恢复当前主机的参数");
+        assertEquals(200, loaded.getTileSize());
+        assertEquals("1:4:2", loaded.getThreads());
+        assertEquals(Waifu2xTuner.hostName(), loaded.getHost());
+    }
+
+    @Test
+    @DisplayName("测试调优通过调度器的 waifu2x 执行槽运行")
+    void testCalibrateUsesScheduler() {
+        Waifu2xTuner tuner = new Waifu2xTuner(script.toString(), "", tempDir.resolve("waifu2x.properties"));
+        ProcessScheduler scheduler = new ProcessScheduler();
+        ReflectionTestUtils.setField(tuner, "processScheduler", scheduler);
+
+        Waifu2xTuner.Grid grid = new Waifu2xTuner.Grid();
+        grid.setTileSizes(List.of(0, 200));
+        grid.setThreads(List.of("1:4:2"));
+        grid.setGpuIds(Arrays.asList((Integer) null));
+        grid.setSamples(1);
+        Waifu2xTuner.Profile profile = tuner.calibrate(sample, grid);
+
+        assertNotNull(profile);
+        assertEquals(200, profile.getTileSize());
+        ProcessScheduler.ToolStats stats = scheduler.getStats().get("waifu2x");
+        assertNotNull(stats);
+        assertEquals(2, stats.getSubmitted());
+        assertEquals(2, stats.getCompleted());
+    }
+
+    @Test
+    @DisplayName("测试调优结果用于命令，配置中指定的值优先")
+    void testProfileAppliedToCommands() {
+        Waifu2xTuner tuner = new Waifu2xTuner(script.toString(), "", tempDir.resolve("waifu2x.properties"));
+        Waifu2xTuner.Profile profile = new Waifu2xTuner.Profile();
+        profile.setTileSize(200);
+        profile.setThreads("1:4:2");
+        profile.setGpuId(-1);
+        ReflectionTestUtils.setField(tuner, "profile", profile);
+        ReflectionTestUtils.setField(tuner, "loaded", true);
+
+        ImagePromote imagePromote = new ImagePromote();
+        ReflectionTestUtils.setField(imagePromote, "waifu2xExecutablePath", "waifu2x");
+        ReflectionTestUtils.setField(imagePromote, "modelPath", "");
+        ReflectionTestUtils.setField(imagePromote, "waifu2xTuner", tuner);
+
+        ImagePromote.PromoteConfig config = new ImagePromote.PromoteConfig();
+        String command = String.join(" ", imagePromote.buildBatchCommand("in", "out", config));
+        assertTrue(command.contains("-t 200 -j 1:4:2 -g -1"), command);
+
+        config.setTileSize(64);
+        config.setGpuId(0);
+        command = String.join(" ", imagePromote.buildCommand("in.png", "out.png", config));
+        assertTrue(command.contains("-t 64 -j 1:4:2 -g 0"), command);
+
+        VideoPromote videoPromote = new VideoPromote();
+        ReflectionTestUtils.setField(videoPromote, "waifu2xPath", "waifu2x");
+        ReflectionTestUtils.setField(videoPromote, "waifu2xTuner", tuner);
+        command = String.join(" ", videoPromote.buildPromoteFramesCommand("in", "out", new VideoPromote.PromoteConfig()));
+        assertTrue(command.contains("-t 200 -j 1:4:2 -g -1"), command);
+    }
+
+    @Test
+    @DisplayName("测试未调优时不添加参数")
+    void testNoProfile() {
+        Waifu2xTuner tuner = new Waifu2xTuner(script.toString(), "", tempDir.resolve("missing.properties"));
+        assertNull(tuner.getProfile());
+    }
+
+}